@@ -47,4 +47,27 @@ public class RootlessItemException extends ClientException {
     public RootlessItemException(ClientException cause) {
         super(cause);
     }
+
+    /**
+     * Returns a new marker exception without stack trace, for the recursive adaptation paths where it is expected to
+     * be caught by the caller, which gives more information on the source document.
+     *
+     * @since 7.3
+     */
+    public static RootlessItemException newMarker() {
+        return new Marker();
+    }
+
+    /**
+     * Not filling its stack trace, the most expensive part of raising an exception.
+     */
+    private static final class Marker extends RootlessItemException {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
 }
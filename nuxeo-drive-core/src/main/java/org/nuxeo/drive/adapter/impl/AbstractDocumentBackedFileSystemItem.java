@@ -90,14 +90,14 @@ public abstract class AbstractDocumentBackedFileSystemItem extends AbstractFileS
                 log.trace("We either reached the root of the repository or a document for which the current user doesn't have read access to its parent,"
                         + " without being adapted to a (possibly virtual) descendant of the top level folder item."
                         + " Let's raise a marker exception and let the caller give more information on the source document.");
-                throw new RootlessItemException();
+                throw RootlessItemException.newMarker();
             } else {
-                FileSystemItem parent = getFileSystemItemAdapterService().getFileSystemItem(parentDoc, true,
+                FileSystemItem parent = getFileSystemItemAdapterService().getAncestorFileSystemItem(parentDoc,
                         relaxSyncRootConstraint);
                 if (parent == null) {
                     log.trace("We reached a document for which the parent document cannot be  adapted to a (possibly virtual) descendant of the top level folder item."
                             + " Let's raise a marker exception and let the caller give more information on the source document.");
-                    throw new RootlessItemException();
+                    throw RootlessItemException.newMarker();
                 }
                 parentId = parent.getId();
                 path = parent.getPath() + '/' + id;
@@ -105,7 +105,7 @@ public abstract class AbstractDocumentBackedFileSystemItem extends AbstractFileS
         } catch (RootlessItemException e) {
             log.trace("Let's try to adapt the document as a member of a collection sync root, if not the case let's raise a marker exception and let the caller give more information on the source document.");
             if (!handleCollectionMember(doc, docSession, relaxSyncRootConstraint)) {
-                throw new RootlessItemException();
+                throw RootlessItemException.newMarker();
             }
         }
     }
@@ -167,11 +167,11 @@ public abstract class AbstractDocumentBackedFileSystemItem extends AbstractFileS
         lastContributor = (String) doc.getPropertyValue("dc:lastContributor");
         creationDate = (Calendar) doc.getPropertyValue("dc:created");
         lastModificationDate = (Calendar) doc.getPropertyValue("dc:modified");
-        CoreSession docSession = doc.getCoreSession();
-        canRename = docSession.hasPermission(doc.getRef(), SecurityConstants.WRITE_PROPERTIES);
+        canRename = FileSystemItemPermissions.hasPermission(doc, SecurityConstants.WRITE_PROPERTIES);
         DocumentRef parentRef = doc.getParentRef();
-        canDelete = docSession.hasPermission(doc.getRef(), SecurityConstants.REMOVE)
-                && (parentRef == null || docSession.hasPermission(parentRef, SecurityConstants.REMOVE_CHILDREN));
+        canDelete = FileSystemItemPermissions.hasPermission(doc, SecurityConstants.REMOVE)
+                && (parentRef == null || FileSystemItemPermissions.hasParentPermission(doc, parentRef,
+                        SecurityConstants.REMOVE_CHILDREN));
 
         String parentPath;
         if (parentItem != null) {
@@ -197,9 +197,9 @@ public abstract class AbstractDocumentBackedFileSystemItem extends AbstractFileS
                     parentId);
             // Handle removal from a collection sync root
             if (CollectionSyncRootFolderItemFactory.FACTORY_NAME.equals(parentFactory.getName())) {
-                String[] idFragments = parseFileSystemId(parentId);
-                String parentRepositoryName = idFragments[1];
-                String parentDocId = idFragments[2];
+                FileSystemItemId parsedParentId = parseId(parentId);
+                String parentRepositoryName = parsedParentId.getRepositoryName();
+                String parentDocId = parsedParentId.getDocId();
                 if (!parentRepositoryName.equals(repositoryName)) {
                     throw new UnsupportedOperationException(
                             String.format(
@@ -303,10 +303,10 @@ public abstract class AbstractDocumentBackedFileSystemItem extends AbstractFileS
     protected void setId(String id) {
         try {
             super.setId(id);
-            String[] idFragments = parseFileSystemId(id);
-            this.factoryName = idFragments[0];
-            this.repositoryName = idFragments[1];
-            this.docId = idFragments[2];
+            FileSystemItemId parsedId = parseId(id);
+            this.factoryName = parsedId.getFactoryName();
+            this.repositoryName = parsedId.getRepositoryName();
+            this.docId = parsedId.getDocId();
 
         } catch (ClientException e) {
             throw new ClientRuntimeException("Cannot set id as it cannot be parsed.", e);
@@ -315,17 +315,23 @@ public abstract class AbstractDocumentBackedFileSystemItem extends AbstractFileS
     }
 
     protected String[] parseFileSystemId(String id) throws ClientException {
+        return parseId(id).toArray();
+    }
 
-        // Parse id, expecting pattern:
-        // fileSystemItemFactoryName#repositoryName#docId
-        String[] idFragments = id.split(FILE_SYSTEM_ITEM_ID_SEPARATOR);
-        if (idFragments.length != 3) {
+    /**
+     * Parses the given id, expecting pattern: fileSystemItemFactoryName#repositoryName#docId.
+     *
+     * @since 7.3
+     */
+    protected FileSystemItemId parseId(String id) throws ClientException {
+        FileSystemItemId parsedId = FileSystemItemId.parse(id);
+        if (parsedId == null) {
             throw new ClientException(
                     String.format(
                             "FileSystemItem id %s is not valid. Should match the 'fileSystemItemFactoryName#repositoryName#docId' pattern.",
                             id));
         }
-        return idFragments;
+        return parsedId;
     }
 
 }
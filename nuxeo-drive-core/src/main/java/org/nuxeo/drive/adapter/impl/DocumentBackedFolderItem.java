@@ -33,6 +33,7 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreInstance;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.platform.filemanager.api.FileManager;
 import org.nuxeo.ecm.platform.query.api.PageProvider;
@@ -104,6 +105,7 @@ public class DocumentBackedFolderItem extends AbstractDocumentBackedFileSystemIt
             PageProvider<DocumentModel> childrenPageProvider = (PageProvider<DocumentModel>) pageProviderService.getPageProvider(
                     FOLDER_ITEM_CHILDREN_PAGE_PROVIDER, null, null, 0L, props, docId);
             Long pageSize = childrenPageProvider.getPageSize();
+            IdRef parentRef = new IdRef(docId);
 
             List<FileSystemItem> children = new ArrayList<FileSystemItem>();
             int nbChildren = 0;
@@ -114,16 +116,22 @@ public class DocumentBackedFolderItem extends AbstractDocumentBackedFileSystemIt
             // FileSystemItems
             while (nbChildren < pageSize && hasNextPage) {
                 List<DocumentModel> dmChildren = childrenPageProvider.getCurrentPage();
-                for (DocumentModel dmChild : dmChildren) {
-                    FileSystemItem child = getFileSystemItemAdapterService().getFileSystemItem(dmChild, this);
-                    if (child != null) {
-                        children.add(child);
-                        nbChildren++;
-                        if (nbChildren == pageSize) {
-                            reachedPageSize = true;
-                            break;
+                // Check the permissions of the whole page at once
+                FileSystemItemPermissions.computePermissions(session, parentRef, dmChildren);
+                try {
+                    for (DocumentModel dmChild : dmChildren) {
+                        FileSystemItem child = getFileSystemItemAdapterService().getFileSystemItem(dmChild, this);
+                        if (child != null) {
+                            children.add(child);
+                            nbChildren++;
+                            if (nbChildren == pageSize) {
+                                reachedPageSize = true;
+                                break;
+                            }
                         }
                     }
+                } finally {
+                    FileSystemItemPermissions.clearPermissions(dmChildren);
                 }
                 if (!reachedPageSize) {
                     hasNextPage = childrenPageProvider.isNextPageAvailable();
@@ -182,7 +190,7 @@ public class DocumentBackedFolderItem extends AbstractDocumentBackedFileSystemIt
     protected void initialize(DocumentModel doc) throws ClientException {
         this.name = docTitle;
         this.folder = true;
-        this.canCreateChild = doc.getCoreSession().hasPermission(doc.getRef(), SecurityConstants.ADD_CHILDREN);
+        this.canCreateChild = FileSystemItemPermissions.hasPermission(doc, SecurityConstants.ADD_CHILDREN);
     }
 
     protected FileManager getFileManager() {
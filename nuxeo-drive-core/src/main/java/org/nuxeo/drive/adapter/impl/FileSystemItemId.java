@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.adapter.impl;
+
+import org.nuxeo.drive.adapter.FileSystemItem;
+
+/**
+ * Parsed {@link FileSystemItem} id of a document backed item, following the
+ * {@code fileSystemItemFactoryName#repositoryName#docId} pattern.
+ * <p>
+ * The id is scanned once for its separators, the fragments only being extracted when asked for, so that checking if a
+ * factory can handle an id allocates nothing but this value. Ids are accepted as {@link String#split(String)} on
+ * {@link AbstractFileSystemItem#FILE_SYSTEM_ITEM_ID_SEPARATOR} would give 3 fragments.
+ *
+ * @since 7.3
+ */
+public final class FileSystemItemId {
+
+    protected static final char SEPARATOR = AbstractFileSystemItem.FILE_SYSTEM_ITEM_ID_SEPARATOR.charAt(0);
+
+    protected final String id;
+
+    protected final int firstSeparator;
+
+    protected final int secondSeparator;
+
+    protected final int end;
+
+    protected FileSystemItemId(String id, int firstSeparator, int secondSeparator, int end) {
+        this.id = id;
+        this.firstSeparator = firstSeparator;
+        this.secondSeparator = secondSeparator;
+        this.end = end;
+    }
+
+    /**
+     * Parses the given id.
+     *
+     * @return the parsed id or null if it doesn't follow the {@code fileSystemItemFactoryName#repositoryName#docId}
+     *         pattern
+     */
+    public static FileSystemItemId parse(String id) {
+        if (id == null) {
+            return null;
+        }
+        // Trailing separators are ignored, as with String#split
+        int end = id.length();
+        while (end > 0 && id.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        int firstSeparator = id.indexOf(SEPARATOR);
+        if (firstSeparator < 0 || firstSeparator >= end) {
+            return null;
+        }
+        int secondSeparator = id.indexOf(SEPARATOR, firstSeparator + 1);
+        if (secondSeparator < 0 || secondSeparator >= end) {
+            return null;
+        }
+        int thirdSeparator = id.indexOf(SEPARATOR, secondSeparator + 1);
+        if (thirdSeparator >= 0 && thirdSeparator < end) {
+            return null;
+        }
+        return new FileSystemItemId(id, firstSeparator, secondSeparator, end);
+    }
+
+    /**
+     * Returns the factory name prefixing the given id, up to the first separator, without checking the rest of the id.
+     */
+    public static String getFactoryName(String id) {
+        int firstSeparator = id.indexOf(SEPARATOR);
+        return firstSeparator < 0 ? id : id.substring(0, firstSeparator);
+    }
+
+    /**
+     * Returns true if this id has been built by the factory with the given name.
+     */
+    public boolean hasFactoryName(String factoryName) {
+        return factoryName.length() == firstSeparator && id.startsWith(factoryName);
+    }
+
+    public String getFactoryName() {
+        return id.substring(0, firstSeparator);
+    }
+
+    public String getRepositoryName() {
+        return id.substring(firstSeparator + 1, secondSeparator);
+    }
+
+    public String getDocId() {
+        return id.substring(secondSeparator + 1, end);
+    }
+
+    /**
+     * Returns the fragments of the id, as {@link String#split(String)} would.
+     */
+    public String[] toArray() {
+        return new String[] { getFactoryName(), getRepositoryName(), getDocId() };
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.adapter.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.adapter.FileSystemItem;
+import org.nuxeo.drive.service.impl.AuditChangeFinder;
+import org.nuxeo.ecm.core.NXCore;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
+import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.security.SecurityPolicyService;
+import org.nuxeo.ecm.core.security.SecurityService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Helper computing in one pass the permissions needed to adapt a list of documents sharing the same parent as
+ * {@link FileSystemItem}s, instead of checking them one by one for each document.
+ * <p>
+ * {@link #computePermissions(CoreSession, DocumentRef, List)} checks the parent's
+ * {@link SecurityConstants#REMOVE_CHILDREN} permission once and evaluates the {@link #BATCHED_PERMISSIONS} against the
+ * ACP of each document, rebuilt from the parent's ACP and the local ACEs of all the documents fetched by a single
+ * unrestricted query. The result is stored as bits in the context data of the documents, see
+ * {@link #clearPermissions(List)}. The item constructors then read them with
+ * {@link #hasPermission(DocumentModel, String)} and {@link #hasParentPermission(DocumentModel, DocumentRef, String)},
+ * which fall back on {@link CoreSession#hasPermission(DocumentRef, String)} when no bits have been computed.
+ * <p>
+ * A security policy can only be evaluated against a document by the session, so only the permissions granted by the
+ * ACP and not restricted by any policy are stored, leaving the session decide whether a granting policy applies to the
+ * other ones.
+ *
+ * @since 7.3
+ */
+public final class FileSystemItemPermissions {
+
+    private static final Log log = LogFactory.getLog(FileSystemItemPermissions.class);
+
+    public static final String PERMISSIONS_CONTEXT_DATA = "nuxeoDrivePermissions";
+
+    protected static final String[] BATCHED_PERMISSIONS = { SecurityConstants.WRITE_PROPERTIES,
+            SecurityConstants.REMOVE, SecurityConstants.ADD_CHILDREN };
+
+    /** Bit of the parent's {@link SecurityConstants#REMOVE_CHILDREN} permission, after the batched ones. */
+    protected static final int PARENT_REMOVE_CHILDREN_BIT = 1 << BATCHED_PERMISSIONS.length;
+
+    /** Shift of the bits telling which permissions have been computed. */
+    protected static final int COMPUTED_SHIFT = 8;
+
+    protected static final String ACE_PRINCIPAL = "ecm:acl/*1/principal";
+
+    protected static final String ACE_PERMISSION = "ecm:acl/*1/permission";
+
+    protected static final String ACE_GRANT = "ecm:acl/*1/grant";
+
+    protected static final String ACE_POS = "ecm:acl/*1/pos";
+
+    private FileSystemItemPermissions() {
+        // Helper class
+    }
+
+    /**
+     * Computes the permissions of the current user on the given documents, children of the document with the given
+     * reference, and stores them in the context data of each document.
+     */
+    public static void computePermissions(CoreSession session, DocumentRef parentRef, List<DocumentModel> docs)
+            throws ClientException {
+        if (docs.isEmpty()) {
+            return;
+        }
+        int allBits = (1 << (BATCHED_PERMISSIONS.length + 1)) - 1;
+        NuxeoPrincipal principal = (NuxeoPrincipal) session.getPrincipal();
+        if (principal.isAdministrator()) {
+            for (DocumentModel doc : docs) {
+                doc.putContextData(PERMISSIONS_CONTEXT_DATA, allBits | allBits << COMPUTED_SHIFT);
+            }
+            return;
+        }
+
+        // Resolve the principals and permissions to check once for all
+        SecurityService securityService = NXCore.getSecurityService();
+        SecurityPolicyService policyService = Framework.getService(SecurityPolicyService.class);
+        String[] principalsToCheck = SecurityService.getPrincipalsToCheck(principal);
+        String[][] permissionsToCheck = new String[BATCHED_PERMISSIONS.length][];
+        boolean batched = false;
+        for (int i = 0; i < BATCHED_PERMISSIONS.length; i++) {
+            if (!policyService.arePoliciesRestrictingPermission(BATCHED_PERMISSIONS[i])) {
+                permissionsToCheck[i] = securityService.getPermissionsToCheck(BATCHED_PERMISSIONS[i]);
+                batched = true;
+            }
+        }
+        int parentBits = PARENT_REMOVE_CHILDREN_BIT << COMPUTED_SHIFT;
+        if (session.hasPermission(parentRef, SecurityConstants.REMOVE_CHILDREN)) {
+            parentBits |= PARENT_REMOVE_CHILDREN_BIT;
+        }
+
+        Map<String, ACP> acps = null;
+        if (batched) {
+            List<String> docIds = new ArrayList<String>(docs.size());
+            for (DocumentModel doc : docs) {
+                // Proxies and versions don't hold their own ACP
+                if (!doc.isProxy() && !doc.isVersion()) {
+                    docIds.add(doc.getId());
+                }
+            }
+            if (!docIds.isEmpty()) {
+                acps = getACPs(session, parentRef, docIds);
+            }
+        }
+        for (DocumentModel doc : docs) {
+            int bits = parentBits;
+            ACP acp = acps != null ? acps.get(doc.getId()) : null;
+            if (acp != null) {
+                for (int i = 0; i < BATCHED_PERMISSIONS.length; i++) {
+                    if (permissionsToCheck[i] != null
+                            && acp.getAccess(principalsToCheck, permissionsToCheck[i]) == Access.GRANT) {
+                        bits |= 1 << i | 1 << i + COMPUTED_SHIFT;
+                    }
+                }
+            }
+            doc.putContextData(PERMISSIONS_CONTEXT_DATA, bits);
+        }
+    }
+
+    /**
+     * Removes the bits computed by {@link #computePermissions(CoreSession, DocumentRef, List)} from the context data of
+     * the given documents, to be called once their items are built.
+     */
+    public static void clearPermissions(List<DocumentModel> docs) {
+        for (DocumentModel doc : docs) {
+            doc.putContextData(PERMISSIONS_CONTEXT_DATA, null);
+        }
+    }
+
+    /**
+     * Returns the ACPs of the documents with the given ids, children of the document with the given reference, by
+     * appending the ACP of the parent to the local ACEs of each document, or null if they cannot be queried.
+     */
+    protected static Map<String, ACP> getACPs(CoreSession session, final DocumentRef parentRef,
+            final List<String> docIds) {
+        final Map<String, ACP> acps = new HashMap<String, ACP>();
+        UnrestrictedSessionRunner runner = new UnrestrictedSessionRunner(session) {
+            @Override
+            public void run() throws ClientException {
+                ACLImpl inheritedACL = new ACLImpl(ACL.INHERITED_ACL, true);
+                ACP parentACP = session.getACP(parentRef);
+                if (parentACP != null) {
+                    for (ACL acl : parentACP.getACLs()) {
+                        inheritedACL.addAll(acl);
+                    }
+                }
+                Map<String, SortedMap<Long, ACE>> localACEs = new HashMap<String, SortedMap<Long, ACE>>();
+                for (String docId : docIds) {
+                    localACEs.put(docId, new TreeMap<Long, ACE>());
+                }
+                String query = String.format("SELECT ecm:uuid, %s, %s, %s, %s FROM Document WHERE ecm:uuid IN (%s)",
+                        ACE_PRINCIPAL, ACE_PERMISSION, ACE_GRANT, ACE_POS, AuditChangeFinder.getIdListLiteral(docIds));
+                IterableQueryResult results = session.queryAndFetch(query, NXQL.NXQL);
+                try {
+                    for (Map<String, Serializable> result : results) {
+                        String principal = (String) result.get(ACE_PRINCIPAL);
+                        if (principal == null) {
+                            continue;
+                        }
+                        ACE ace = new ACE(principal, (String) result.get(ACE_PERMISSION),
+                                Boolean.TRUE.equals(result.get(ACE_GRANT)));
+                        localACEs.get(result.get(NXQL.ECM_UUID)).put((Long) result.get(ACE_POS), ace);
+                    }
+                } finally {
+                    results.close();
+                }
+                for (Map.Entry<String, SortedMap<Long, ACE>> entry : localACEs.entrySet()) {
+                    ACLImpl localACL = new ACLImpl(ACL.LOCAL_ACL);
+                    localACL.addAll(entry.getValue().values());
+                    ACPImpl acp = new ACPImpl();
+                    acp.addACL(localACL);
+                    acp.addACL(inheritedACL);
+                    acps.put(entry.getKey(), acp);
+                }
+            }
+        };
+        try {
+            runner.runUnrestricted();
+        } catch (ClientException e) {
+            // Let the session check each permission
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Cannot batch the ACPs of documents %s, falling back on the session", docIds),
+                        e);
+            }
+            return null;
+        }
+        return acps;
+    }
+
+    /**
+     * Returns true if the current user has the given permission on the given document, reading it from the bits
+     * computed by {@link #computePermissions(CoreSession, DocumentRef, List)} if any.
+     */
+    public static boolean hasPermission(DocumentModel doc, String permission) throws ClientException {
+        for (int i = 0; i < BATCHED_PERMISSIONS.length; i++) {
+            if (BATCHED_PERMISSIONS[i].equals(permission)) {
+                Boolean granted = getBit(doc, 1 << i);
+                if (granted != null) {
+                    return granted;
+                }
+                break;
+            }
+        }
+        return doc.getCoreSession().hasPermission(doc.getRef(), permission);
+    }
+
+    /**
+     * Returns true if the current user has the given permission on the parent of the given document, reading it from
+     * the bits computed by {@link #computePermissions(CoreSession, DocumentRef, List)} if any.
+     */
+    public static boolean hasParentPermission(DocumentModel doc, DocumentRef parentRef, String permission)
+            throws ClientException {
+        if (SecurityConstants.REMOVE_CHILDREN.equals(permission)) {
+            Boolean granted = getBit(doc, PARENT_REMOVE_CHILDREN_BIT);
+            if (granted != null) {
+                return granted;
+            }
+        }
+        return doc.getCoreSession().hasPermission(parentRef, permission);
+    }
+
+    protected static Boolean getBit(DocumentModel doc, int bit) {
+        Serializable bits = doc.getContextData(PERMISSIONS_CONTEXT_DATA);
+        if (!(bits instanceof Integer) || ((Integer) bits & bit << COMPUTED_SHIFT) == 0) {
+            return null;
+        }
+        return ((Integer) bits & bit) != 0;
+    }
+
+}
@@ -25,6 +25,7 @@ import org.apache.commons.logging.LogFactory;
 import org.nuxeo.drive.adapter.FileSystemItem;
 import org.nuxeo.drive.adapter.FolderItem;
 import org.nuxeo.drive.adapter.impl.DefaultSyncRootFolderItem;
+import org.nuxeo.drive.adapter.impl.FileSystemItemPermissions;
 import org.nuxeo.drive.service.FileSystemItemAdapterService;
 import org.nuxeo.drive.service.FileSystemItemFactory;
 import org.nuxeo.drive.service.impl.AbstractSyncRootFolderItemFactory;
@@ -102,7 +103,7 @@ public class PermissionSyncRootFactory extends AbstractSyncRootFolderItemFactory
             throws ClientException {
         // Check required permission
         CoreSession session = doc.getCoreSession();
-        boolean hasRequiredPermission = session.hasPermission(doc.getRef(), requiredPermission);
+        boolean hasRequiredPermission = FileSystemItemPermissions.hasPermission(doc, requiredPermission);
         if (!hasRequiredPermission) {
             if (log.isDebugEnabled()) {
                 log.debug(String.format(
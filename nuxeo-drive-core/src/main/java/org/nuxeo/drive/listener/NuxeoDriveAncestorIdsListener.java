@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.listener;
+
+import org.nuxeo.drive.service.FileSystemChangeFinder;
+import org.nuxeo.drive.service.NuxeoDriveManager;
+import org.nuxeo.drive.service.impl.AuditChangeFinder;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.LifeCycleConstants;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.schema.FacetNames;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Synchronous event listener storing the ids of the synchronizable ancestors of the changed document in the
+ * {@link AuditChangeFinder#ANCESTOR_IDS_EXTENDED_INFO} event context property, copied by the audit to the extended
+ * infos of the logged entry. Does nothing unless the {@link AuditChangeFinder} contributed to the
+ * {@link NuxeoDriveManager} filters the changes on the synchronization root ids, see
+ * {@link AuditChangeFinder#isAncestorIdRootFiltering()}.
+ * <p>
+ * Runs before the commit since the audit entries are built from the event context.
+ *
+ * @since 7.3
+ */
+public class NuxeoDriveAncestorIdsListener implements EventListener {
+
+    @Override
+    public void handleEvent(Event event) throws ClientException {
+        if (!(event.getContext() instanceof DocumentEventContext)) {
+            // Not interested in events that are not related to documents
+            return;
+        }
+        NuxeoDriveManager driveManager = Framework.getLocalService(NuxeoDriveManager.class);
+        FileSystemChangeFinder changeFinder = driveManager.getChangeFinder();
+        if (!(changeFinder instanceof AuditChangeFinder)
+                || !((AuditChangeFinder) changeFinder).isAncestorIdRootFiltering()) {
+            return;
+        }
+        DocumentEventContext ctx = (DocumentEventContext) event.getContext();
+        DocumentModel doc = ctx.getSourceDocument();
+        if (doc == null || doc.isVersion() || doc.hasFacet(FacetNames.SYSTEM_DOCUMENT)) {
+            // Not interested in versions nor system documents
+            return;
+        }
+        if (LifeCycleConstants.DELETED_STATE.equals(doc.getCurrentLifeCycleState())) {
+            // Deletions are handled by the NuxeoDriveFileSystemDeletionListener
+            return;
+        }
+        String ancestorIds = ((AuditChangeFinder) changeFinder).getAncestorIdsInfo(doc.getCoreSession(), doc);
+        if (ancestorIds != null) {
+            ctx.setProperty(AuditChangeFinder.ANCESTOR_IDS_EXTENDED_INFO, ancestorIds);
+        }
+    }
+
+}
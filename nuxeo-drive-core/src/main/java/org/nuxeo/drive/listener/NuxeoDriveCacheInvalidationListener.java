@@ -17,10 +17,12 @@
 package org.nuxeo.drive.listener;
 
 import org.nuxeo.drive.service.NuxeoDriveManager;
+import org.nuxeo.drive.service.impl.FileSystemItemAncestorCache;
 import org.nuxeo.ecm.collections.api.CollectionConstants;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.LifeCycleConstants;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventListener;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
@@ -47,12 +49,27 @@ public class NuxeoDriveCacheInvalidationListener implements EventListener {
             // document deletion
             return;
         }
+        // Deletions, security and collection updates may change how the
+        // ancestors adapted so far in the transaction are adapted
+        FileSystemItemAncestorCache.clear();
         NuxeoDriveManager driveManager = Framework.getLocalService(NuxeoDriveManager.class);
         if (CollectionConstants.ADDED_TO_COLLECTION.equals(event.getName())
                 || CollectionConstants.REMOVED_FROM_COLLECTION.equals(event.getName())) {
-            driveManager.invalidateCollectionSyncRootMemberCache();
+            Object collectionRef = docCtx.getProperty(CollectionConstants.COLLECTION_REF_EVENT_CTX_PROP);
+            if (!(collectionRef instanceof IdRef)) {
+                // Unknown collection, rebuild from scratch
+                driveManager.invalidateCollectionSyncRootMemberCache();
+            } else if (CollectionConstants.ADDED_TO_COLLECTION.equals(event.getName())) {
+                driveManager.handleAddedToCollection(docCtx.getSourceDocument(), collectionRef.toString());
+            } else {
+                driveManager.handleRemovedFromCollection(docCtx.getSourceDocument(), collectionRef.toString());
+            }
+        } else if (DocumentEventTypes.DOCUMENT_SECURITY_UPDATED.equals(event.getName())) {
+            driveManager.handleSecurityUpdate(docCtx.getSourceDocument());
+        } else if (LifeCycleConstants.UNDELETE_TRANSITION.equals(transition)) {
+            driveManager.handleDocumentUndeletion(docCtx.getSourceDocument());
         } else {
-            driveManager.handleFolderDeletion((IdRef) docCtx.getSourceDocument().getRef());
+            driveManager.handleDocumentDeletion(docCtx.getSourceDocument());
         }
     }
 
@@ -0,0 +1,178 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.listener;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.FileSystemChangeFinder;
+import org.nuxeo.drive.service.NuxeoDriveEvents;
+import org.nuxeo.drive.service.NuxeoDriveManager;
+import org.nuxeo.drive.service.impl.AuditChangeFinder;
+import org.nuxeo.drive.service.impl.JournalChangeFinder;
+import org.nuxeo.ecm.collections.api.CollectionConstants;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.LifeCycleConstants;
+import org.nuxeo.ecm.core.api.event.DocumentEventCategories;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.schema.FacetNames;
+import org.nuxeo.ecm.platform.audit.api.AuditLogger;
+import org.nuxeo.ecm.platform.audit.api.LogEntry;
+import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Post-commit event listener feeding the change indexes of the {@link AuditChangeFinder}, typically the per-user
+ * change journal read by the {@link JournalChangeFinder}.
+ * <p>
+ * Handles the document events that are taken into account by the change finder, the virtual events logged by the
+ * {@link NuxeoDriveFileSystemDeletionListener} being directly indexed by the latter. Does nothing if the change finder
+ * contributed to the {@link NuxeoDriveManager} doesn't index changes, see {@link AuditChangeFinder#isIndexingChanges()}.
+ *
+ * @since 7.3
+ */
+public class NuxeoDriveChangeJournalListener implements PostCommitEventListener {
+
+    private static final Log log = LogFactory.getLog(NuxeoDriveChangeJournalListener.class);
+
+    @Override
+    public void handleEvent(EventBundle events) throws ClientException {
+        AuditChangeFinder changeFinder = getIndexingChangeFinder();
+        if (changeFinder == null) {
+            return;
+        }
+        AuditLogger logger = Framework.getLocalService(AuditLogger.class);
+        if (logger == null) {
+            // The log is not deployed (probably in unittest)
+            return;
+        }
+        // Group events by repository to open a single session for each
+        Map<String, List<Event>> repositoryEvents = new LinkedHashMap<String, List<Event>>();
+        for (Event event : events) {
+            if (!(event.getContext() instanceof DocumentEventContext)) {
+                // Not interested in events that are not related to documents
+                continue;
+            }
+            DocumentEventContext ctx = (DocumentEventContext) event.getContext();
+            if (getCategory(event) == null) {
+                continue;
+            }
+            if (Boolean.TRUE.equals(ctx.getProperty(NXAuditEventsService.DISABLE_AUDIT_LOGGER))) {
+                // Events not logged in the audit are not journaled either
+                continue;
+            }
+            List<Event> eventList = repositoryEvents.get(ctx.getRepositoryName());
+            if (eventList == null) {
+                eventList = new ArrayList<Event>();
+                repositoryEvents.put(ctx.getRepositoryName(), eventList);
+            }
+            eventList.add(event);
+        }
+        for (Map.Entry<String, List<Event>> repositoryEventList : repositoryEvents.entrySet()) {
+            try (CoreSession session = CoreInstance.openCoreSessionSystem(repositoryEventList.getKey())) {
+                for (Event event : repositoryEventList.getValue()) {
+                    indexChange(changeFinder, logger, session, event);
+                }
+            }
+        }
+    }
+
+    protected void indexChange(AuditChangeFinder changeFinder, AuditLogger logger, CoreSession session,
+            Event event) throws ClientException {
+        DocumentEventContext ctx = (DocumentEventContext) event.getContext();
+        DocumentRef docRef = ctx.getSourceDocument().getRef();
+        if (docRef == null || !session.exists(docRef)) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Document %s doesn't exist anymore, not indexing event '%s'.",
+                        docRef, event.getName()));
+            }
+            return;
+        }
+        DocumentModel doc = session.getDocument(docRef);
+        if (doc.isVersion() || doc.hasFacet(FacetNames.SYSTEM_DOCUMENT)) {
+            // Not interested in versions nor system documents
+            return;
+        }
+        if (LifeCycleConstants.DELETED_STATE.equals(doc.getCurrentLifeCycleState())) {
+            // Deletions are handled by the NuxeoDriveFileSystemDeletionListener
+            return;
+        }
+        LogEntry entry = logger.newLogEntry();
+        entry.setEventId(event.getName());
+        entry.setEventDate(new Date(event.getTime()));
+        entry.setCategory(getCategory(event));
+        entry.setDocUUID(doc.getId());
+        entry.setDocPath(doc.getPathAsString());
+        entry.setDocType(doc.getType());
+        entry.setRepositoryId(doc.getRepositoryName());
+        entry.setDocLifeCycle(doc.getCurrentLifeCycleState());
+        // Some events will only impact a specific user (e.g. root
+        // registration)
+        String impactedUserName = (String) ctx.getProperty(NuxeoDriveEvents.IMPACTED_USERNAME_PROPERTY);
+        changeFinder.indexChange(session, doc, entry, impactedUserName);
+    }
+
+    /**
+     * Returns the audit category of the given event if it is relevant to the change finder, null otherwise.
+     */
+    protected String getCategory(Event event) {
+        String eventName = event.getName();
+        if (DocumentEventTypes.DOCUMENT_CREATED.equals(eventName)
+                || DocumentEventTypes.DOCUMENT_UPDATED.equals(eventName)
+                || DocumentEventTypes.DOCUMENT_MOVED.equals(eventName)
+                || DocumentEventTypes.DOCUMENT_CREATED_BY_COPY.equals(eventName)
+                || DocumentEventTypes.DOCUMENT_RESTORED.equals(eventName)
+                || CollectionConstants.ADDED_TO_COLLECTION.equals(eventName)) {
+            return DocumentEventCategories.EVENT_DOCUMENT_CATEGORY;
+        }
+        if (LifeCycleConstants.TRANSITION_EVENT.equals(eventName)) {
+            return DocumentEventCategories.EVENT_LIFE_CYCLE_CATEGORY;
+        }
+        // Exclude 'rootUnregistered' since root unregistration is covered by
+        // a "deleted" virtual event
+        if (NuxeoDriveEvents.ROOT_REGISTERED.equals(eventName)) {
+            return (String) NuxeoDriveEvents.EVENT_CATEGORY;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the change finder contributed to the {@link NuxeoDriveManager} if it indexes changes, null otherwise.
+     */
+    public static AuditChangeFinder getIndexingChangeFinder() {
+        NuxeoDriveManager driveManager = Framework.getLocalService(NuxeoDriveManager.class);
+        FileSystemChangeFinder changeFinder = driveManager.getChangeFinder();
+        if (changeFinder instanceof AuditChangeFinder && ((AuditChangeFinder) changeFinder).isIndexingChanges()) {
+            return (AuditChangeFinder) changeFinder;
+        }
+        return null;
+    }
+
+}
@@ -26,9 +26,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.drive.adapter.FileSystemItem;
 import org.nuxeo.drive.adapter.NuxeoDriveContribException;
-import org.nuxeo.drive.adapter.RootlessItemException;
+import org.nuxeo.drive.service.FileSystemItemAdaptation;
 import org.nuxeo.drive.service.FileSystemItemAdapterService;
 import org.nuxeo.drive.service.NuxeoDriveEvents;
+import org.nuxeo.drive.service.impl.AuditChangeFinder;
 import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -138,13 +139,10 @@ public class NuxeoDriveFileSystemDeletionListener implements EventListener {
             // The log is not deployed (probably in unittest)
             return;
         }
-        FileSystemItem fsItem = null;
+        FileSystemItemAdaptation adaptation;
         try {
-            fsItem = Framework.getLocalService(FileSystemItemAdapterService.class).getFileSystemItem(doc, true, true);
-        } catch (RootlessItemException e) {
-            // can happen when deleting a folder under and unregistered root:
-            // nothing to do
-            return;
+            adaptation = Framework.getLocalService(FileSystemItemAdapterService.class).adaptFileSystemItem(doc, true,
+                    true);
         } catch (NuxeoDriveContribException e) {
             // Nuxeo Drive contributions missing or component not ready
             if (log.isDebugEnabled()) {
@@ -154,6 +152,9 @@ public class NuxeoDriveFileSystemDeletionListener implements EventListener {
             }
             return;
         }
+        // The document can be rootless when deleting a folder under an
+        // unregistered root: nothing to do
+        FileSystemItem fsItem = adaptation.getItem();
         if (fsItem == null) {
             return;
         }
@@ -180,6 +181,12 @@ public class NuxeoDriveFileSystemDeletionListener implements EventListener {
         extendedInfos.put("fileSystemItemName", logger.newExtendedInfo(fsItem.getName()));
         entry.setExtendedInfos(extendedInfos);
         logger.addLogEntries(Collections.singletonList(entry));
+
+        // Feed the change finder indexes if needed
+        AuditChangeFinder changeFinder = NuxeoDriveChangeJournalListener.getIndexingChangeFinder();
+        if (changeFinder != null) {
+            changeFinder.indexChange(doc.getCoreSession(), doc, entry, impactedUserName);
+        }
     }
 
 }
@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Invalidation of the synchronization root and collection sync root member caches of the {@link NuxeoDriveManager},
+ * broadcast to the other nodes of the cluster through the {@link CacheInvalidationBus}.
+ * <p>
+ * The invalidations impacting the users of a given document are resolved by each node against its own caches.
+ *
+ * @since 7.3
+ */
+public class CacheInvalidation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+
+        /**
+         * Synchronization roots of the user, or of all the users if no user name.
+         */
+        SYNCHRONIZATION_ROOTS,
+
+        /**
+         * Collection sync root members of the user, or of all the users if no user name.
+         */
+        COLLECTION_SYNC_ROOT_MEMBERS,
+
+        /**
+         * Both caches of the users having a synchronization root being the deleted document or one of its
+         * descendants.
+         */
+        DOCUMENT_DELETION,
+
+        /**
+         * Both caches of the users having a synchronization root being the updated document or one of its
+         * descendants, the synchronization roots being refreshed in the background.
+         */
+        SECURITY_UPDATE,
+
+        /**
+         * Collection sync root members of the users having the document, a collection, as a synchronization root.
+         */
+        COLLECTION_MEMBERSHIP
+    }
+
+    protected final String origin;
+
+    protected final Type type;
+
+    protected final String userName;
+
+    protected final String repositoryName;
+
+    protected final String docId;
+
+    protected final String docPath;
+
+    /**
+     * @param origin the identifier of the node publishing the invalidation
+     */
+    public CacheInvalidation(String origin, Type type, String userName, String repositoryName, String docId,
+            String docPath) {
+        this.origin = origin;
+        this.type = type;
+        this.userName = userName;
+        this.repositoryName = repositoryName;
+        this.docId = docId;
+        this.docPath = docPath;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public String getDocPath() {
+        return docPath;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CacheInvalidation)) {
+            return false;
+        }
+        CacheInvalidation other = (CacheInvalidation) obj;
+        return type == other.type && Objects.equals(origin, other.origin) && Objects.equals(userName, other.userName)
+                && Objects.equals(repositoryName, other.repositoryName) && Objects.equals(docId, other.docId)
+                && Objects.equals(docPath, other.docPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(origin, type, userName, repositoryName, docId, docPath);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(origin=%s, userName=%s, repositoryName=%s, docId=%s, docPath=%s)", type, origin,
+                userName, repositoryName, docId, docPath);
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+/**
+ * Broadcasts the {@link CacheInvalidation}s of the {@link NuxeoDriveManager} caches to all the nodes of the cluster,
+ * contributed to the {@code cacheInvalidationBus} extension point of the {@link NuxeoDriveManager}.
+ *
+ * @since 7.3
+ */
+public interface CacheInvalidationBus {
+
+    /**
+     * Receives the invalidations published on the bus.
+     */
+    interface Subscriber {
+
+        /**
+         * Called for each published invalidation, including the ones published by the subscriber itself, which are
+         * expected to be ignored.
+         */
+        void handleInvalidation(CacheInvalidation invalidation);
+    }
+
+    void subscribe(Subscriber subscriber);
+
+    void unsubscribe(Subscriber subscriber);
+
+    void publish(CacheInvalidation invalidation);
+
+}
@@ -64,4 +64,22 @@ public interface FileSystemChangeSummary extends Serializable {
 
     Boolean getHasTooManyChanges();
 
+    /**
+     * @return true if the change range held too many changes to be returned at once, in which case the summary only
+     *         holds the changes up to {@link #getUpperBound()} and the next changes are expected to be fetched right
+     *         away by passing this bound as the next lower bound. Defaults to false.
+     * @since 7.3
+     */
+    default Boolean getHasMoreChanges() {
+        return Boolean.FALSE;
+    }
+
+    /**
+     * Ignored by default, the next changes then being fetched on the next poll.
+     *
+     * @since 7.3
+     */
+    default void setHasMoreChanges(Boolean hasMoreChanges) {
+    }
+
 }
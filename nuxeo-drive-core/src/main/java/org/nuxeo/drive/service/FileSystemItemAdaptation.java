@@ -0,0 +1,163 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import org.nuxeo.drive.adapter.FileSystemItem;
+import org.nuxeo.drive.adapter.RootlessItemException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * Outcome of the adaptation of a document as a {@link FileSystemItem}, returned by
+ * {@link FileSystemItemAdapterService#adaptFileSystemItem(DocumentModel, boolean, boolean)} so that the expected
+ * failures, such as a document outside of any synchronization root, don't need an exception to be raised and caught.
+ *
+ * @since 7.3
+ */
+public final class FileSystemItemAdaptation {
+
+    public enum Status {
+        /** The document has been adapted, see {@link FileSystemItemAdaptation#getItem()}. */
+        ADAPTED,
+        /** No factory is able to adapt the document. */
+        NOT_ADAPTABLE,
+        /** The ancestry of the document to the top level folder cannot be found. */
+        ROOTLESS
+    }
+
+    protected static final FileSystemItemAdaptation NOT_ADAPTABLE = new FileSystemItemAdaptation(
+            Status.NOT_ADAPTABLE, null, null, null, null);
+
+    protected final Status status;
+
+    protected final FileSystemItem item;
+
+    protected final DocumentModel doc;
+
+    protected final String factoryName;
+
+    protected final RootlessItemException cause;
+
+    protected FileSystemItemAdaptation(Status status, FileSystemItem item, DocumentModel doc, String factoryName,
+            RootlessItemException cause) {
+        this.status = status;
+        this.item = item;
+        this.doc = doc;
+        this.factoryName = factoryName;
+        this.cause = cause;
+    }
+
+    public static FileSystemItemAdaptation adapted(FileSystemItem item) {
+        return new FileSystemItemAdaptation(Status.ADAPTED, item, null, null, null);
+    }
+
+    public static FileSystemItemAdaptation notAdaptable() {
+        return NOT_ADAPTABLE;
+    }
+
+    /**
+     * Returns the adaptation of the given item, not adaptable if null.
+     */
+    public static FileSystemItemAdaptation of(FileSystemItem item) {
+        return item != null ? adapted(item) : NOT_ADAPTABLE;
+    }
+
+    /**
+     * @param doc the document whose adaptation failed
+     * @param factoryName the name of the factory that failed to find the ancestry of the document, if known
+     * @param cause the exception raised by the factory, if any
+     */
+    public static FileSystemItemAdaptation rootless(DocumentModel doc, String factoryName,
+            RootlessItemException cause) {
+        return new FileSystemItemAdaptation(Status.ROOTLESS, null, doc, factoryName, cause);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isAdapted() {
+        return status == Status.ADAPTED;
+    }
+
+    public boolean isRootless() {
+        return status == Status.ROOTLESS;
+    }
+
+    /**
+     * Returns the adapted item, null if the document has not been adapted.
+     */
+    public FileSystemItem getItem() {
+        return item;
+    }
+
+    /**
+     * Returns the reason why the document is rootless, only formatted when asked for, null if not rootless.
+     */
+    public String getReason() {
+        if (status != Status.ROOTLESS) {
+            return null;
+        }
+        String reason = String.format("Cannot find path to registered top level when adapting document '%s' (path: %s)",
+                doc.getTitle(), doc.getPathAsString());
+        return factoryName != null ? reason + " with factory " + factoryName : reason;
+    }
+
+    /**
+     * Returns the adapted item, null if the document is not adaptable.
+     *
+     * @throws RootlessItemException if the document is rootless, for the callers expecting this exception, which is
+     *             raised without stack trace and formats its message only when asked for
+     */
+    public FileSystemItem getItemOrThrow() throws RootlessItemException {
+        if (status == Status.ROOTLESS) {
+            throw new RootlessAdaptationException(this);
+        }
+        return item;
+    }
+
+    @Override
+    public String toString() {
+        return status == Status.ADAPTED ? status + " " + item.getId() : status.toString();
+    }
+
+    /**
+     * Raised by {@link FileSystemItemAdaptation#getItemOrThrow()}, typically caught by the caller: doesn't fill its
+     * stack trace and formats its message from the adaptation on demand.
+     */
+    protected static final class RootlessAdaptationException extends RootlessItemException {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final transient FileSystemItemAdaptation adaptation;
+
+        protected RootlessAdaptationException(FileSystemItemAdaptation adaptation) {
+            super(adaptation.cause);
+            this.adaptation = adaptation;
+        }
+
+        @Override
+        public String getMessage() {
+            return adaptation != null ? adaptation.getReason() : super.getMessage();
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+}
@@ -20,6 +20,7 @@ import java.util.Set;
 
 import org.nuxeo.drive.adapter.FileSystemItem;
 import org.nuxeo.drive.adapter.FolderItem;
+import org.nuxeo.drive.adapter.RootlessItemException;
 import org.nuxeo.drive.service.impl.FileSystemItemAdapterServiceImpl;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -71,6 +72,36 @@ public interface FileSystemItemAdapterService {
     FileSystemItem getFileSystemItem(DocumentModel doc, boolean includeDeleted, boolean relaxSyncRootConstraint)
             throws ClientException;
 
+    /**
+     * Same as {@link #getFileSystemItem(DocumentModel, boolean, boolean)} except that the outcome of the adaptation is
+     * returned as a {@link FileSystemItemAdaptation} instead of throwing a {@link RootlessItemException} when the
+     * path to the top level folder cannot be found, which is cheaper for the callers expecting such documents.
+     * <p>
+     * The default implementation relies on {@link #getFileSystemItem(DocumentModel, boolean, boolean)}, thus is not
+     * cheaper: to be overridden.
+     *
+     * @since 7.3
+     */
+    default FileSystemItemAdaptation adaptFileSystemItem(DocumentModel doc, boolean includeDeleted,
+            boolean relaxSyncRootConstraint) throws ClientException {
+        try {
+            return FileSystemItemAdaptation.of(getFileSystemItem(doc, includeDeleted, relaxSyncRootConstraint));
+        } catch (RootlessItemException e) {
+            return FileSystemItemAdaptation.rootless(doc, null, e);
+        }
+    }
+
+    /**
+     * Same as {@link #getFileSystemItem(DocumentModel, boolean, boolean)} with {@code includeDeleted} set to true,
+     * used to adapt the ancestors of a document. The result, including a {@link RootlessItemException}, is memoized
+     * until the end of the current transaction so that the ancestor chain shared by the documents of a folder is only
+     * adapted once.
+     *
+     * @since 7.3
+     */
+    FileSystemItem getAncestorFileSystemItem(DocumentModel ancestor, boolean relaxSyncRootConstraint)
+            throws ClientException;
+
     /**
      * Gets the {@link FileSystemItem} for the given {@link DocumentModel} forcing its parent id with the given id. If
      * the document is in the "deleted" life cycle state it is not considered as adaptable as a {@link FileSystemItem},
@@ -110,6 +141,26 @@ public interface FileSystemItemAdapterService {
     FileSystemItem getFileSystemItem(DocumentModel doc, FolderItem parentItem, boolean includeDeleted,
             boolean relaxSyncRootConstraint) throws ClientException;
 
+    /**
+     * Same as {@link #getFileSystemItem(DocumentModel, FolderItem, boolean, boolean)} except that the outcome of the
+     * adaptation is returned as a {@link FileSystemItemAdaptation} instead of throwing a
+     * {@link RootlessItemException}.
+     * <p>
+     * The default implementation relies on {@link #getFileSystemItem(DocumentModel, FolderItem, boolean, boolean)},
+     * thus is not cheaper: to be overridden.
+     *
+     * @since 7.3
+     */
+    default FileSystemItemAdaptation adaptFileSystemItem(DocumentModel doc, FolderItem parentItem,
+            boolean includeDeleted, boolean relaxSyncRootConstraint) throws ClientException {
+        try {
+            return FileSystemItemAdaptation.of(getFileSystemItem(doc, parentItem, includeDeleted,
+                    relaxSyncRootConstraint));
+        } catch (RootlessItemException e) {
+            return FileSystemItemAdaptation.rootless(doc, null, e);
+        }
+    }
+
     /**
      * Gets the {@link FileSystemItemFactory} that can handle the the given {@link FileSystemItem} id.
      *
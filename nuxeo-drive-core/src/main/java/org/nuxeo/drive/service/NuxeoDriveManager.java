@@ -21,6 +21,7 @@ import java.security.Principal;
 import java.util.Map;
 import java.util.Set;
 
+import org.nuxeo.drive.service.impl.FacetSubscriptionStore;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -90,6 +91,46 @@ public interface NuxeoDriveManager {
      */
     public void handleFolderDeletion(IdRef ref) throws ClientException;
 
+    /**
+     * Method to be called by a CoreEvent listener monitoring documents deletions to invalidate the caches of the users
+     * impacted by the deletion of the given document.
+     * <p>
+     * The default implementation invalidates the caches of all the users.
+     *
+     * @since 7.3
+     */
+    public default void handleDocumentDeletion(DocumentModel doc) throws ClientException {
+        handleFolderDeletion(new IdRef(doc.getId()));
+        invalidateCollectionSyncRootMemberCache();
+    }
+
+    /**
+     * Method to be called by a CoreEvent listener monitoring documents undeletions to invalidate the caches of the
+     * users having a subscription to the given document, a deleted synchronization root being absent from the cached
+     * ones.
+     * <p>
+     * The default implementation invalidates the caches of all the users.
+     *
+     * @since 7.3
+     */
+    public default void handleDocumentUndeletion(DocumentModel doc) throws ClientException {
+        handleFolderDeletion(new IdRef(doc.getId()));
+        invalidateCollectionSyncRootMemberCache();
+    }
+
+    /**
+     * Method to be called by a CoreEvent listener monitoring security updates to refresh the caches of the users
+     * impacted by the security update of the given document.
+     * <p>
+     * The default implementation invalidates the caches of all the users.
+     *
+     * @since 7.3
+     */
+    public default void handleSecurityUpdate(DocumentModel doc) throws ClientException {
+        handleFolderDeletion(new IdRef(doc.getId()));
+        invalidateCollectionSyncRootMemberCache();
+    }
+
     /**
      * Gets a summary of document changes in all repositories for the given user's synchronization roots, since the
      * user's device last successful synchronization date.
@@ -139,6 +180,34 @@ public interface NuxeoDriveManager {
     public FileSystemChangeSummary getChangeSummaryIntegerBounds(Principal principal,
             Map<String, Set<IdRef>> lastSyncRootRefs, long lowerBound) throws ClientException;
 
+    /**
+     * Same as {@link #getChangeSummaryIntegerBounds(Principal, Map, long)} except that, if the summary is empty, the
+     * implementation may watch the changes for the given {@code watchTimeout} to answer the next requests of the user
+     * cheaply as long as nothing changes. The request never blocks waiting for a change.
+     * <p>
+     * The default implementation ignores {@code watchTimeout}.
+     *
+     * @param watchTimeout the time in milliseconds during which the next requests using the upper bound of an empty
+     *            summary as lower bound may be answered without querying the changes, capped by the server
+     *            configuration. Ignored if negative or zero.
+     * @since 7.3
+     */
+    public default FileSystemChangeSummary getChangeSummaryIntegerBounds(Principal principal,
+            Map<String, Set<IdRef>> lastSyncRootRefs, long lowerBound, long watchTimeout) throws ClientException {
+        return getChangeSummaryIntegerBounds(principal, lastSyncRootRefs, lowerBound);
+    }
+
+    /**
+     * Gets the {@link SubscriptionStore} holding the synchronization root subscriptions.
+     * <p>
+     * The default implementation returns a {@link FacetSubscriptionStore}, keeping the subscriptions on the documents.
+     *
+     * @since 7.3
+     */
+    public default SubscriptionStore getSubscriptionStore() throws ClientException {
+        return new FacetSubscriptionStore();
+    }
+
     /**
      * Gets the {@link FileSystemChangeFinder} member.
      */
@@ -174,6 +243,30 @@ public interface NuxeoDriveManager {
      */
     void invalidateCollectionSyncRootMemberCache();
 
+    /**
+     * Method to be called by a CoreEvent listener monitoring the additions to collections to update the collection
+     * sync root member cache of the users synchronizing the given collection.
+     * <p>
+     * The default implementation invalidates the collection sync root member cache of all the users.
+     *
+     * @since 7.3
+     */
+    default void handleAddedToCollection(DocumentModel doc, String collectionId) throws ClientException {
+        invalidateCollectionSyncRootMemberCache();
+    }
+
+    /**
+     * Method to be called by a CoreEvent listener monitoring the removals from collections to update the collection
+     * sync root member cache of the users synchronizing the given collection.
+     * <p>
+     * The default implementation invalidates the collection sync root member cache of all the users.
+     *
+     * @since 7.3
+     */
+    default void handleRemovedFromCollection(DocumentModel doc, String collectionId) throws ClientException {
+        invalidateCollectionSyncRootMemberCache();
+    }
+
     /**
      * Adds the given {@link DocumentModel} to the {@link #LOCALLY_EDITED_COLLECTION_NAME} collection.
      *
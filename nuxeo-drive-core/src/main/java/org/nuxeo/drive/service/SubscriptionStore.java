@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * Storage of the synchronization root subscriptions of the users, selected by the
+ * {@link org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl#SUBSCRIPTION_STORE_PROPERTY} Framework property.
+ *
+ * @since 7.3
+ * @see org.nuxeo.drive.service.impl.FacetSubscriptionStore
+ * @see org.nuxeo.drive.service.impl.DirectorySubscriptionStore
+ */
+public interface SubscriptionStore {
+
+    /**
+     * Enables or disables the subscription of the given user to the given document, adding the
+     * {@link org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl#NUXEO_DRIVE_FACET} to it if needed.
+     *
+     * @param session an unrestricted session
+     * @return the document, saved if modified
+     */
+    DocumentModel setSubscription(CoreSession session, DocumentModel doc, String userName, boolean enabled)
+            throws ClientException;
+
+    /**
+     * Returns the NXQL query of the synchronization roots of the given user in the repository of the given session,
+     * selecting {@code ecm:uuid} and {@code ecm:path}, or null if the user has no synchronization root in this
+     * repository.
+     */
+    String getSynchronizationRootsQuery(CoreSession session, String userName) throws ClientException;
+
+    /**
+     * Returns true if the given user, or any user if null, has an enabled subscription to the given document.
+     */
+    boolean isSubscribed(DocumentModel doc, String userName) throws ClientException;
+
+    /**
+     * Returns the names of the users having an enabled subscription to one of the given documents, whatever their
+     * life cycle state.
+     *
+     * @param session an unrestricted session
+     */
+    Set<String> getSubscribedUserNames(CoreSession session, Collection<String> docIds) throws ClientException;
+
+}
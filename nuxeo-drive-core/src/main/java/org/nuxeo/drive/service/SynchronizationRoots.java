@@ -21,17 +21,32 @@ import java.util.Set;
 
 import org.nuxeo.ecm.core.api.IdRef;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * Data transfer object to fetch the list of references of synchronization roots for a given repo and user.
+ * <p>
+ * Instances returned by {@link #intern()} are shared by all the users having the same synchronization roots and must
+ * not be modified.
  */
 public class SynchronizationRoots {
 
+    private static final Interner<SynchronizationRoots> INTERNER = Interners.newWeakInterner();
+
     protected final String repositoryName;
 
     protected final Set<String> paths;
 
     protected final Set<IdRef> refs;
 
+    /**
+     * Lazily computed hash of the repository name and root set, racy but idempotent.
+     *
+     * @since 7.3
+     */
+    protected int fingerprint;
+
     public SynchronizationRoots(String repositoryName, Set<String> paths, Set<IdRef> refs) {
         this.repositoryName = repositoryName;
         this.paths = paths;
@@ -56,4 +71,53 @@ public class SynchronizationRoots {
         return refs;
     }
 
+    /**
+     * Returns the canonical instance equal to these synchronization roots, with unmodifiable paths and references,
+     * shared until no longer referenced. Memory then scales with the number of distinct root sets rather than with
+     * the number of users.
+     *
+     * @since 7.3
+     */
+    public SynchronizationRoots intern() {
+        return INTERNER.intern(new SynchronizationRoots(repositoryName, Collections.unmodifiableSet(paths),
+                Collections.unmodifiableSet(refs)));
+    }
+
+    /**
+     * Synchronization roots are equal if they have the same repository name, paths and references, regardless of
+     * their order.
+     *
+     * @since 7.3
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SynchronizationRoots)) {
+            return false;
+        }
+        SynchronizationRoots other = (SynchronizationRoots) obj;
+        return hashCode() == other.hashCode() && repositoryName.equals(other.repositoryName)
+                && refs.equals(other.refs) && paths.equals(other.paths);
+    }
+
+    /**
+     * @since 7.3
+     */
+    @Override
+    public int hashCode() {
+        int h = fingerprint;
+        if (h == 0) {
+            h = 31 * (31 * repositoryName.hashCode() + paths.hashCode()) + refs.hashCode();
+            fingerprint = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(repositoryName=%s, refs=%s)", getClass().getSimpleName(), repositoryName, refs);
+    }
+
 }
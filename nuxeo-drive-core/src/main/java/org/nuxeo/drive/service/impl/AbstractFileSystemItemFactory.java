@@ -23,7 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.drive.adapter.FileSystemItem;
 import org.nuxeo.drive.adapter.FolderItem;
-import org.nuxeo.drive.adapter.impl.AbstractFileSystemItem;
+import org.nuxeo.drive.adapter.impl.FileSystemItemId;
 import org.nuxeo.drive.service.FileSystemItemAdapterService;
 import org.nuxeo.drive.service.FileSystemItemFactory;
 import org.nuxeo.drive.service.FileSystemItemManager;
@@ -118,13 +118,8 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
 
     @Override
     public boolean canHandleFileSystemItemId(String id) {
-        try {
-            parseFileSystemId(id);
-        } catch (ClientException e) {
-            log.trace(e.getMessage());
-            return false;
-        }
-        return true;
+        FileSystemItemId parsedId = FileSystemItemId.parse(id);
+        return parsedId != null && parsedId.hasFactoryName(name);
     }
 
     /**
@@ -135,9 +130,9 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
      */
     @Override
     public boolean exists(String id, Principal principal) throws ClientException {
-        String[] idFragments = parseFileSystemId(id);
-        String repositoryName = idFragments[1];
-        String docId = idFragments[2];
+        FileSystemItemId parsedId = parseId(id);
+        String repositoryName = parsedId.getRepositoryName();
+        String docId = parsedId.getDocId();
         try (CoreSession session = CoreInstance.openCoreSession(repositoryName, principal)) {
             DocumentModel doc = getDocumentById(docId, session);
             return isFileSystemItem(doc);
@@ -155,9 +150,9 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
 
     @Override
     public FileSystemItem getFileSystemItemById(String id, Principal principal) throws ClientException {
-        String[] idFragments = parseFileSystemId(id);
-        String repositoryName = idFragments[1];
-        String docId = idFragments[2];
+        FileSystemItemId parsedId = parseId(id);
+        String repositoryName = parsedId.getRepositoryName();
+        String docId = parsedId.getDocId();
         try (CoreSession session = CoreInstance.openCoreSession(repositoryName, principal)) {
             DocumentModel doc = getDocumentById(docId, session);
             return getFileSystemItem(doc);
@@ -175,9 +170,9 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
 
     @Override
     public FileSystemItem getFileSystemItemById(String id, String parentId, Principal principal) throws ClientException {
-        String[] idFragments = parseFileSystemId(id);
-        String repositoryName = idFragments[1];
-        String docId = idFragments[2];
+        FileSystemItemId parsedId = parseId(id);
+        String repositoryName = parsedId.getRepositoryName();
+        String docId = parsedId.getDocId();
         try (CoreSession session = CoreInstance.openCoreSession(repositoryName, principal)) {
             FileSystemItem parentItem = Framework.getService(FileSystemItemAdapterService.class).getFileSystemItemFactoryForId(
                     parentId).getFileSystemItemById(parentId, principal);
@@ -203,9 +198,9 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
     public DocumentModel getDocumentByFileSystemId(String id, Principal principal) throws ClientException {
         // Parse id, expecting
         // pattern:fileSystemItemFactoryName#repositoryName#docId
-        String[] idFragments = parseFileSystemId(id);
-        String repositoryName = idFragments[1];
-        String docId = idFragments[2];
+        FileSystemItemId parsedId = parseId(id);
+        String repositoryName = parsedId.getRepositoryName();
+        String docId = parsedId.getDocId();
         CoreSession session = Framework.getLocalService(FileSystemItemManager.class).getSession(repositoryName,
                 principal);
         return getDocumentById(docId, session);
@@ -232,11 +227,17 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
     }
 
     protected String[] parseFileSystemId(String id) throws ClientException {
+        return parseId(id).toArray();
+    }
 
-        // Parse id, expecting pattern:
-        // fileSystemItemFactoryName#repositoryName#docId
-        String[] idFragments = id.split(AbstractFileSystemItem.FILE_SYSTEM_ITEM_ID_SEPARATOR);
-        if (idFragments.length != 3) {
+    /**
+     * Parses the given id, expecting pattern: fileSystemItemFactoryName#repositoryName#docId.
+     *
+     * @since 7.3
+     */
+    protected FileSystemItemId parseId(String id) throws ClientException {
+        FileSystemItemId parsedId = FileSystemItemId.parse(id);
+        if (parsedId == null) {
             throw new ClientException(
                     String.format(
                             "FileSystemItem id %s cannot be handled by factory named %s. Should match the 'fileSystemItemFactoryName#repositoryName#docId' pattern.",
@@ -244,13 +245,12 @@ public abstract class AbstractFileSystemItemFactory implements FileSystemItemFac
         }
 
         // Check if factory name matches
-        String factoryName = idFragments[0];
-        if (!name.equals(factoryName)) {
+        if (!parsedId.hasFactoryName(name)) {
             throw new ClientException(String.format(
-                    "Factoy name [%s] parsed from id %s does not match the actual factory name [%s].", factoryName, id,
-                    name));
+                    "Factoy name [%s] parsed from id %s does not match the actual factory name [%s].",
+                    parsedId.getFactoryName(), id, name));
         }
-        return idFragments;
+        return parsedId;
     }
 
     protected DocumentModel getDocumentById(String docId, CoreSession session) throws ClientException {
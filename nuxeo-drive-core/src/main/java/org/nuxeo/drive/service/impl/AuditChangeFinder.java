@@ -16,9 +16,15 @@
  */
 package org.nuxeo.drive.service.impl;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -26,9 +32,9 @@ import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.drive.adapter.FileSystemItem;
-import org.nuxeo.drive.adapter.RootlessItemException;
 import org.nuxeo.drive.adapter.impl.AbstractFileSystemItem;
 import org.nuxeo.drive.service.FileSystemChangeFinder;
+import org.nuxeo.drive.service.FileSystemItemAdaptation;
 import org.nuxeo.drive.service.FileSystemItemAdapterService;
 import org.nuxeo.drive.service.FileSystemItemChange;
 import org.nuxeo.drive.service.NuxeoDriveEvents;
@@ -40,9 +46,13 @@ import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.platform.audit.api.AuditReader;
 import org.nuxeo.ecm.platform.audit.api.ExtendedInfo;
 import org.nuxeo.ecm.platform.audit.api.LogEntry;
+import org.nuxeo.ecm.platform.query.nxql.NXQLQueryBuilder;
 import org.nuxeo.runtime.api.Framework;
 
 /**
@@ -56,6 +66,54 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
 
     private static final Log log = LogFactory.getLog(AuditChangeFinder.class);
 
+    /**
+     * Change finder parameter used to choose how the changes are filtered on the synchronization roots, see
+     * {@link #ANCESTOR_ID_ROOT_FILTERING}. Defaults to filtering on the root paths.
+     *
+     * @since 7.3
+     */
+    public static final String ROOT_FILTERING_PARAMETER = "rootFiltering";
+
+    /**
+     * Filters the changes on the ids of the synchronization roots, relying on the {@link #ANCESTOR_IDS_EXTENDED_INFO}
+     * extended info of the document event entries. The filtering then survives root renames.
+     *
+     * @since 7.3
+     */
+    public static final String ANCESTOR_ID_ROOT_FILTERING = "ancestorId";
+
+    /**
+     * Extended info of the document event entries holding the ids of the synchronizable ancestors of the document,
+     * each one surrounded by {@link #ANCESTOR_IDS_SEPARATOR}. Copied by the audit from the event context property of
+     * the same name, set by the {@link org.nuxeo.drive.listener.NuxeoDriveAncestorIdsListener}.
+     *
+     * @since 7.3
+     */
+    public static final String ANCESTOR_IDS_EXTENDED_INFO = "nuxeoDriveAncestorIds";
+
+    /**
+     * @since 7.3
+     */
+    public static final String ANCESTOR_IDS_SEPARATOR = "|";
+
+    /**
+     * Ids of the document events taken into account, in addition to the life cycle transitions to a non deleted
+     * state.
+     *
+     * @since 7.3
+     */
+    // TODO: don't hardcode event ids (contribute them?)
+    public static final List<String> DOCUMENT_EVENT_IDS = Collections.unmodifiableList(Arrays.asList(
+            "documentCreated", "documentModified", "documentMoved", "documentCreatedByCopy", "documentRestored",
+            "addedToCollection"));
+
+    /**
+     * Maximum number of document ids of an NXQL query fetching the changed documents.
+     *
+     * @since 7.3
+     */
+    protected static final int DOCUMENT_BATCH_SIZE = 500;
+
     protected Map<String, String> parameters = new HashMap<String, String>();
 
     @Override
@@ -121,7 +179,7 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
         // need to be invalidated: let's make sure we perform a
         // query with the actual active roots.
         for (LogEntry entry : entries) {
-            if (NuxeoDriveEvents.EVENT_CATEGORY.equals(entry.getCategory())) {
+            if (isSyncRootChange(entry)) {
                 if (log.isDebugEnabled()) {
                     log.debug(String.format("Detected sync root change for user '%s' in audit log:"
                             + " invalidating the root cache and refetching the changes.", principalName));
@@ -142,9 +200,14 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
         if (entries.size() >= limit) {
             throw new TooManyChangesException("Too many changes found in the audit logs.");
         }
+        // Resolve the documents and adapt them as FileSystemItems once for
+        // all the entries, a document typically appearing in several ones
+        Map<String, DocumentModel> docs = getDocuments(session, entries);
+        Map<String, FileSystemItem> fsItems = new HashMap<String, FileSystemItem>();
         for (LogEntry entry : entries) {
             FileSystemItemChange change = null;
             DocumentRef docRef = new IdRef(entry.getDocUUID());
+            DocumentModel doc = docs.get(entry.getDocUUID());
             ExtendedInfo fsIdInfo = entry.getExtendedInfos().get("fileSystemItemId");
             if (fsIdInfo != null) {
                 // This document has been deleted, is an unregistered
@@ -165,8 +228,8 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
                 // based hierarchy implementation. It can also happen if this is
                 // a security update after which the current user still has
                 // access to the document.
-                if (session.exists(docRef)) {
-                    change = getFileSystemItemChange(session, docRef, entry, fsIdInfo.getValue(String.class));
+                if (doc != null) {
+                    change = getFileSystemItemChange(doc, fsItems, entry, fsIdInfo.getValue(String.class));
                     if (change != null) {
                         isChangeSet = true;
                     }
@@ -202,7 +265,7 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
                             "No extended info found in audit log entry, document %s has not been deleted nor is an unregistered synchronization root.",
                             docRef));
                 }
-                if (!session.exists(docRef)) {
+                if (doc == null) {
                     if (log.isDebugEnabled()) {
                         log.debug(String.format(
                                 "Document %s doesn't exist, not adding any entry to the change summary.", docRef));
@@ -214,7 +277,7 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
                 }
                 // Let's try to adapt the document as a FileSystemItem to
                 // provide it to the FileSystemItemChange entry.
-                change = getFileSystemItemChange(session, docRef, entry, null);
+                change = getFileSystemItemChange(doc, fsItems, entry, null);
                 if (change == null) {
                     // Non-adaptable documents are ignored
                     if (log.isDebugEnabled()) {
@@ -275,9 +338,59 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
         return entries.get(0).getId();
     }
 
-    @SuppressWarnings("unchecked")
     protected List<LogEntry> queryAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
             Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds, int limit) {
+        // we intentionally sort by eventDate even if the range filtering is
+        // done on the log id: eventDate is useful to reflect the ordering of
+        // events occurring inside the same transaction while the
+        // monotonic behavior of log id is useful for ensuring that consecutive
+        // range queries to the audit won't miss any events even when long
+        // running transactions are logged after a delay.
+        return queryAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                integerBounds, limit, "log.repositoryId asc, log.eventDate desc");
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected List<LogEntry> queryAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds,
+            int limit, String orderBy) {
+        List<LogEntry> entries = queryUnfilteredAuditEntries(session, activeRoots, collectionSyncRootMemberIds,
+                lowerBound, upperBound, integerBounds, limit, orderBy);
+
+        // Post filter the output to remove (un)registration that are unrelated
+        // to the current user.
+        List<LogEntry> postFilteredEntries = new ArrayList<LogEntry>();
+        String principalName = session.getPrincipal().getName();
+        for (LogEntry entry : entries) {
+            ExtendedInfo impactedUserInfo = entry.getExtendedInfos().get("impactedUserName");
+            if (impactedUserInfo != null && !principalName.equals(impactedUserInfo.getValue(String.class))) {
+                // ignore event that only impact other users
+                continue;
+            }
+            if (log.isDebugEnabled()) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Change with eventId=%d detected at eventDate=%s, logDate=%s: %s on %s",
+                            entry.getId(), entry.getEventDate(), entry.getLogDate(), entry.getEventId(),
+                            entry.getDocPath()));
+                }
+            }
+            postFilteredEntries.add(entry);
+        }
+        return postFilteredEntries;
+    }
+
+    /**
+     * Returns the change entries matching the query, before the post filtering done by
+     * {@link #queryAuditEntries(CoreSession, SynchronizationRoots, Set, long, long, boolean, int, String)}.
+     *
+     * @since 7.3
+     */
+    @SuppressWarnings("unchecked")
+    protected List<LogEntry> queryUnfilteredAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds,
+            int limit, String orderBy) {
         AuditReader auditService = Framework.getLocalService(AuditReader.class);
         // Set fixed query parameters
         Map<String, Object> params = new HashMap<String, Object>();
@@ -292,15 +405,14 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
             // detect changes under the currently active roots for the
             // current user
             auditQuerySb.append("(");
-            auditQuerySb.append("log.category = 'eventDocumentCategory'");
-            // TODO: don't hardcode event ids (contribute them?)
-            auditQuerySb.append(" and (log.eventId = 'documentCreated' or log.eventId = 'documentModified' or log.eventId = 'documentMoved' or log.eventId = 'documentCreatedByCopy' or log.eventId = 'documentRestored' or log.eventId = 'addedToCollection')");
-            auditQuerySb.append(" or ");
-            auditQuerySb.append("log.category = 'eventLifeCycleCategory'");
-            auditQuerySb.append(" and log.eventId = 'lifecycle_transition_event' and log.docLifeCycle != 'deleted' ");
+            auditQuerySb.append(getDocumentEventsClause());
             auditQuerySb.append(") and (");
             auditQuerySb.append("(");
-            auditQuerySb.append(getCurrentRootFilteringClause(activeRoots.getPaths(), params));
+            if (isAncestorIdRootFiltering()) {
+                auditQuerySb.append(getAncestorIdRootFilteringClause(activeRoots.getRefs(), params));
+            } else {
+                auditQuerySb.append(getCurrentRootFilteringClause(activeRoots.getPaths(), params));
+            }
             auditQuerySb.append(")");
             if (collectionSyncRootMemberIds != null && !collectionSyncRootMemberIds.isEmpty()) {
                 auditQuerySb.append(" or (");
@@ -320,13 +432,8 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
         auditQuerySb.append(")");
         auditQuerySb.append(") and (");
         auditQuerySb.append(getJPARangeClause(lowerBound, upperBound, integerBounds, params));
-        // we intentionally sort by eventDate even if the range filtering is
-        // done on the log id: eventDate is useful to reflect the ordering of
-        // events occurring inside the same transaction while the
-        // monotonic behavior of log id is useful for ensuring that consecutive
-        // range queries to the audit won't miss any events even when long
-        // running transactions are logged after a delay.
-        auditQuerySb.append(") order by log.repositoryId asc, log.eventDate desc");
+        auditQuerySb.append(") order by ");
+        auditQuerySb.append(orderBy);
         String auditQuery = auditQuerySb.toString();
 
         if (log.isDebugEnabled()) {
@@ -334,28 +441,97 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
                 log.debug("Querying audit log for changes: " + auditQuery + " with params: " + params);
             }
         }
-        List<LogEntry> entries = (List<LogEntry>) auditService.nativeQuery(auditQuery, params, 1, limit);
+        return (List<LogEntry>) auditService.nativeQuery(auditQuery, params, 1, limit);
+    }
 
-        // Post filter the output to remove (un)registration that are unrelated
-        // to the current user.
-        List<LogEntry> postFilteredEntries = new ArrayList<LogEntry>();
-        String principalName = session.getPrincipal().getName();
-        for (LogEntry entry : entries) {
-            ExtendedInfo impactedUserInfo = entry.getExtendedInfos().get("impactedUserName");
-            if (impactedUserInfo != null && !principalName.equals(impactedUserInfo.getValue(String.class))) {
-                // ignore event that only impact other users
-                continue;
+    /**
+     * Returns the greatest upper bound such that the changes in the (lowerBound, upperBound] log id range don't exceed
+     * the given limit, to be used as a continuation cursor when the whole range holds too many changes.
+     * <p>
+     * This is the id of the last entry scanned before post filtering, so that the cursor still moves forward when the
+     * post filtering removes all the entries of a page. Returns {@code lowerBound} if no progress can be made.
+     *
+     * @since 7.3
+     */
+    public long getPageUpperBound(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, int limit) {
+        if (limit <= 1) {
+            return lowerBound;
+        }
+        // Keep strictly below the limit, see getFileSystemChanges
+        List<LogEntry> entries = queryPageAuditEntries(session, activeRoots, collectionSyncRootMemberIds,
+                lowerBound, upperBound, limit - 1);
+        if (entries.isEmpty()) {
+            return lowerBound;
+        }
+        return entries.get(entries.size() - 1).getId();
+    }
+
+    /**
+     * Returns the first change entries in the given range sorted by ascending log id, before post filtering.
+     *
+     * @since 7.3
+     */
+    protected List<LogEntry> queryPageAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, int limit) {
+        return queryUnfilteredAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                true, limit, "log.id asc");
+    }
+
+    /**
+     * Returns true if the given entry is a "NuxeoDrive" event that might have changed the list of active roots.
+     *
+     * @since 7.3
+     */
+    protected boolean isSyncRootChange(LogEntry entry) {
+        return NuxeoDriveEvents.EVENT_CATEGORY.equals(entry.getCategory());
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected String getDocumentEventsClause() {
+        StringBuilder eventsClause = new StringBuilder();
+        eventsClause.append("log.category = 'eventDocumentCategory'");
+        eventsClause.append(" and (");
+        for (int i = 0; i < DOCUMENT_EVENT_IDS.size(); i++) {
+            if (i > 0) {
+                eventsClause.append(" or ");
             }
-            if (log.isDebugEnabled()) {
-                if (log.isDebugEnabled()) {
-                    log.debug(String.format("Change with eventId=%d detected at eventDate=%s, logDate=%s: %s on %s",
-                            entry.getId(), entry.getEventDate(), entry.getLogDate(), entry.getEventId(),
-                            entry.getDocPath()));
-                }
+            eventsClause.append(String.format("log.eventId = '%s'", DOCUMENT_EVENT_IDS.get(i)));
+        }
+        eventsClause.append(")");
+        eventsClause.append(" or ");
+        eventsClause.append("log.category = 'eventLifeCycleCategory'");
+        eventsClause.append(" and log.eventId = 'lifecycle_transition_event' and log.docLifeCycle != 'deleted' ");
+        return eventsClause.toString();
+    }
+
+    /**
+     * Matches the entries whose {@link #ANCESTOR_IDS_EXTENDED_INFO} extended info contains one of the given root ids.
+     * A correlated subquery is used so that the entries without this extended info are not excluded from the rest of
+     * the query by an inner join.
+     *
+     * @since 7.3
+     */
+    protected String getAncestorIdRootFilteringClause(Set<IdRef> rootRefs, Map<String, Object> params) {
+        StringBuilder ancestorIdClause = new StringBuilder();
+        ancestorIdClause.append("exists (select ancestorIds from LogEntry ancestorLog");
+        ancestorIdClause.append(" join ancestorLog.extendedInfos ancestorIds");
+        ancestorIdClause.append(" where ancestorLog.id = log.id and index(ancestorIds) = :ancestorIdsKey and (");
+        params.put("ancestorIdsKey", ANCESTOR_IDS_EXTENDED_INFO);
+        int rootIdCount = 0;
+        for (IdRef rootRef : rootRefs) {
+            rootIdCount++;
+            String rootIdParam = "rootId" + rootIdCount;
+            if (rootIdCount > 1) {
+                ancestorIdClause.append(" or ");
             }
-            postFilteredEntries.add(entry);
+            ancestorIdClause.append(String.format("ancestorIds.stringValue like :%s", rootIdParam));
+            params.put(rootIdParam, '%' + ANCESTOR_IDS_SEPARATOR + rootRef.toString() + ANCESTOR_IDS_SEPARATOR + '%');
         }
-        return postFilteredEntries;
+        ancestorIdClause.append("))");
+        return ancestorIdClause.toString();
     }
 
     protected String getCurrentRootFilteringClause(Set<String> rootPaths, Map<String, Object> params) {
@@ -399,22 +575,234 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
         }
     }
 
-    protected FileSystemItemChange getFileSystemItemChange(CoreSession session, DocumentRef docRef, LogEntry entry,
-            String expectedFileSystemItemId) throws ClientException {
-        DocumentModel doc = session.getDocument(docRef);
-        // TODO: check the facet, last root change and list of roots
-        // to have a special handling for the roots.
-        FileSystemItem fsItem = null;
-        try {
-            fsItem = Framework.getLocalService(FileSystemItemAdapterService.class).getFileSystemItem(doc);
-        } catch (RootlessItemException e) {
-            // Can happen for an unregistered synchronization root that cannot
-            // be adapted as a FileSystemItem: nothing to do.
-            if (log.isDebugEnabled()) {
-                log.debug(String.format(
-                        "RootlessItemException thrown while trying to adapt document %s as a FileSystemItem.", docRef));
+    /**
+     * Returns true if this change finder needs the drive relevant events to be passed to
+     * {@link #indexChange(CoreSession, DocumentModel, LogEntry, String)} at commit time.
+     *
+     * @since 7.3
+     */
+    public boolean isIndexingChanges() {
+        return false;
+    }
+
+    /**
+     * Called at commit time for each drive relevant event if {@link #isIndexingChanges()}, does nothing by default.
+     *
+     * @since 7.3
+     */
+    public void indexChange(CoreSession session, DocumentModel doc, LogEntry sourceEntry, String impactedUserName)
+            throws ClientException {
+    }
+
+    /**
+     * Returns the value of the {@link #ANCESTOR_IDS_EXTENDED_INFO} extended info for the given document, null if it has
+     * no synchronizable ancestor.
+     *
+     * @since 7.3
+     */
+    public String getAncestorIdsInfo(CoreSession session, DocumentModel doc) throws ClientException {
+        List<String> ancestorIds = getSynchronizableAncestorIds(session, doc);
+        if (ancestorIds.isEmpty()) {
+            return null;
+        }
+        StringBuilder ancestorIdsInfo = new StringBuilder(ANCESTOR_IDS_SEPARATOR);
+        for (String ancestorId : ancestorIds) {
+            ancestorIdsInfo.append(ancestorId);
+            ancestorIdsInfo.append(ANCESTOR_IDS_SEPARATOR);
+        }
+        return ancestorIdsInfo.toString();
+    }
+
+    /**
+     * Returns the ids of the given document and its ancestors that have the
+     * {@link NuxeoDriveManagerImpl#NUXEO_DRIVE_FACET} facet, ie. the ones that are or have been synchronization roots.
+     *
+     * @since 7.3
+     */
+    protected List<String> getSynchronizableAncestorIds(CoreSession session, final DocumentModel doc)
+            throws ClientException {
+        final List<String> ancestorIds = new ArrayList<String>();
+        UnrestrictedSessionRunner runner = new UnrestrictedSessionRunner(session) {
+            @Override
+            public void run() throws ClientException {
+                String query = String.format("SELECT ecm:uuid FROM Document WHERE ecm:mixinType = '%s'"
+                        + " AND ecm:uuid IN (%s)", NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET,
+                        getIdListLiteral(getAncestorIds(session, doc)));
+                IterableQueryResult results = session.queryAndFetch(query, NXQL.NXQL);
+                try {
+                    for (Map<String, Serializable> result : results) {
+                        ancestorIds.add(result.get("ecm:uuid").toString());
+                    }
+                } finally {
+                    results.close();
+                }
+            }
+        };
+        runner.runUnrestricted();
+        return ancestorIds;
+    }
+
+    /**
+     * Returns the id of the given document followed by the ids of its ancestors, the session is expected to be
+     * unrestricted.
+     *
+     * @since 7.3
+     */
+    protected List<String> getAncestorIds(CoreSession session, DocumentModel doc) throws ClientException {
+        List<String> ancestorIds = new ArrayList<String>();
+        ancestorIds.add(doc.getId());
+        for (DocumentRef parentRef : session.getParentDocumentRefs(doc.getRef())) {
+            ancestorIds.add(parentRef.toString());
+        }
+        return ancestorIds;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public static String getIdListLiteral(Collection<String> ids) {
+        StringBuilder idList = new StringBuilder();
+        for (String id : ids) {
+            if (idList.length() > 0) {
+                idList.append(", ");
+            }
+            idList.append(NXQLQueryBuilder.prepareStringLiteral(id, true, true));
+        }
+        return idList.toString();
+    }
+
+    /**
+     * Returns true if this change finder can be fed with the entries read by a {@link SharedChangeScanner}, ie. if
+     * {@link #scanAuditEntries(String, long, long, int)} and {@link #isChangeMatching(LogEntry, SynchronizationRoots,
+     * Set, String)} are consistent with {@link #queryAuditEntries(CoreSession, SynchronizationRoots, Set, long, long,
+     * boolean, int)}.
+     *
+     * @since 7.3
+     */
+    public boolean isSharedScanningSupported() {
+        return true;
+    }
+
+    /**
+     * Returns the entries of the given repository that might be relevant to any user, with an id in the given range,
+     * sorted by id.
+     *
+     * @since 7.3
+     */
+    @SuppressWarnings("unchecked")
+    public List<LogEntry> scanAuditEntries(String repositoryName, long lowerBound, long upperBound, int limit) {
+        AuditReader auditService = Framework.getLocalService(AuditReader.class);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("repositoryId", repositoryName);
+        StringBuilder auditQuerySb = new StringBuilder("from LogEntry log where ");
+        auditQuerySb.append("log.repositoryId = :repositoryId");
+        auditQuerySb.append(" and (");
+        auditQuerySb.append(getDocumentEventsClause());
+        auditQuerySb.append(" or log.category = '");
+        auditQuerySb.append(NuxeoDriveEvents.EVENT_CATEGORY);
+        auditQuerySb.append("') and (");
+        auditQuerySb.append(getJPARangeClause(lowerBound, upperBound, true, params));
+        auditQuerySb.append(") order by log.id asc");
+        String auditQuery = auditQuerySb.toString();
+        if (log.isDebugEnabled()) {
+            log.debug("Scanning audit log for changes: " + auditQuery + " with params: " + params);
+        }
+        return (List<LogEntry>) auditService.nativeQuery(auditQuery, params, 1, limit);
+    }
+
+    /**
+     * In-memory equivalent of the filtering done by {@link #queryAuditEntries(CoreSession, SynchronizationRoots, Set,
+     * long, long, boolean, int)}, including the post filtering on the impacted user name, the range clause excepted.
+     *
+     * @since 7.3
+     */
+    public boolean isChangeMatching(LogEntry entry, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, String principalName) {
+        ExtendedInfo impactedUserInfo = entry.getExtendedInfos().get("impactedUserName");
+        if (impactedUserInfo != null && !principalName.equals(impactedUserInfo.getValue(String.class))) {
+            return false;
+        }
+        if (NuxeoDriveEvents.EVENT_CATEGORY.equals(entry.getCategory())) {
+            return !NuxeoDriveEvents.ROOT_UNREGISTERED.equals(entry.getEventId());
+        }
+        if (activeRoots.getPaths().isEmpty()) {
+            return false;
+        }
+        if (!isDocumentEvent(entry)) {
+            return false;
+        }
+        if (collectionSyncRootMemberIds != null && collectionSyncRootMemberIds.contains(entry.getDocUUID())) {
+            return true;
+        }
+        if (isAncestorIdRootFiltering()) {
+            return isUnderActiveRootIds(entry, activeRoots.getRefs());
+        }
+        if (entry.getDocPath() != null) {
+            for (String rootPath : activeRoots.getPaths()) {
+                if (entry.getDocPath().startsWith(rootPath)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * In-memory equivalent of {@link #getDocumentEventsClause()}.
+     *
+     * @since 7.3
+     */
+    protected boolean isDocumentEvent(LogEntry entry) {
+        if ("eventDocumentCategory".equals(entry.getCategory())) {
+            return DOCUMENT_EVENT_IDS.contains(entry.getEventId());
+        }
+        return "eventLifeCycleCategory".equals(entry.getCategory())
+                && "lifecycle_transition_event".equals(entry.getEventId()) && entry.getDocLifeCycle() != null
+                && !"deleted".equals(entry.getDocLifeCycle());
+    }
+
+    /**
+     * In-memory equivalent of {@link #getAncestorIdRootFilteringClause(Set, Map)}.
+     *
+     * @since 7.3
+     */
+    protected boolean isUnderActiveRootIds(LogEntry entry, Set<IdRef> rootRefs) {
+        ExtendedInfo ancestorIdsInfo = entry.getExtendedInfos().get(ANCESTOR_IDS_EXTENDED_INFO);
+        String ancestorIds = ancestorIdsInfo != null ? ancestorIdsInfo.getValue(String.class) : null;
+        if (ancestorIds == null) {
+            return false;
+        }
+        for (IdRef rootRef : rootRefs) {
+            if (ancestorIds.contains(ANCESTOR_IDS_SEPARATOR + rootRef.toString() + ANCESTOR_IDS_SEPARATOR)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public boolean isAncestorIdRootFiltering() {
+        return ANCESTOR_ID_ROOT_FILTERING.equals(parameters.get(ROOT_FILTERING_PARAMETER));
+    }
+
+    /**
+     * Returns the {@link FileSystemItemChange} for the given entry and document, adapting the document as a
+     * {@link FileSystemItem} unless already done for a previous entry, see {@code fsItems}.
+     *
+     * @since 7.3
+     */
+    protected FileSystemItemChange getFileSystemItemChange(DocumentModel doc, Map<String, FileSystemItem> fsItems,
+            LogEntry entry, String expectedFileSystemItemId) throws ClientException {
+        DocumentRef docRef = doc.getRef();
+        FileSystemItem fsItem;
+        if (fsItems.containsKey(doc.getId())) {
+            fsItem = fsItems.get(doc.getId());
+        } else {
+            fsItem = getFileSystemItem(doc);
+            fsItems.put(doc.getId(), fsItem);
+        }
         if (fsItem == null) {
             if (log.isDebugEnabled()) {
                 log.debug(String.format("Document %s is not adaptable as a FileSystemItem, returning null.", docRef));
@@ -447,4 +835,58 @@ public class AuditChangeFinder implements FileSystemChangeFinder {
                 entry.getRepositoryId(), entry.getDocUUID(), fsItem);
     }
 
+    /**
+     * @since 7.3
+     */
+    protected FileSystemItem getFileSystemItem(DocumentModel doc) throws ClientException {
+        // TODO: check the facet, last root change and list of roots
+        // to have a special handling for the roots.
+        FileSystemItemAdapterService adapterService = Framework.getLocalService(FileSystemItemAdapterService.class);
+        FileSystemItemAdaptation adaptation = adapterService.adaptFileSystemItem(doc, false, false);
+        if (adaptation.isRootless()) {
+            // Can happen for an unregistered synchronization root that cannot
+            // be adapted as a FileSystemItem: nothing to do.
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Document %s cannot be adapted as a FileSystemItem: %s", doc.getRef(),
+                        adaptation.getReason()));
+            }
+        }
+        return adaptation.getItem();
+    }
+
+    /**
+     * Fetches the documents of the given entries by batches of {@link #DOCUMENT_BATCH_SIZE}, returning them by id.
+     * Documents that don't exist anymore or that are not accessible to the session user are not returned.
+     *
+     * @since 7.3
+     */
+    protected Map<String, DocumentModel> getDocuments(CoreSession session, List<LogEntry> entries)
+            throws ClientException {
+        Set<String> docIds = new LinkedHashSet<String>();
+        for (LogEntry entry : entries) {
+            if (entry.getDocUUID() != null) {
+                docIds.add(entry.getDocUUID());
+            }
+        }
+        Map<String, DocumentModel> docs = new HashMap<String, DocumentModel>(docIds.size());
+        List<String> batch = new ArrayList<String>(DOCUMENT_BATCH_SIZE);
+        Iterator<String> it = docIds.iterator();
+        while (it.hasNext()) {
+            batch.add(it.next());
+            if (batch.size() == DOCUMENT_BATCH_SIZE || !it.hasNext()) {
+                String query = String.format("SELECT * FROM Document WHERE ecm:uuid IN (%s)",
+                        getIdListLiteral(batch));
+                for (DocumentModel doc : session.query(query)) {
+                    docs.put(doc.getId(), doc);
+                }
+                batch.clear();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Fetched %d existing documents out of %d changed documents.", docs.size(),
+                    docIds.size()));
+        }
+        return docs;
+    }
+
 }
@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.io.Serializable;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.drive.service.CacheInvalidationBus;
+import org.nuxeo.drive.service.NuxeoDriveManager;
+
+/**
+ * XMap descriptor for contributions to the {@code cacheInvalidationBus} extension point of the
+ * {@link NuxeoDriveManager}.
+ *
+ * @since 7.3
+ */
+@XObject("cacheInvalidationBus")
+public class CacheInvalidationBusDescriptor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @XNode("@class")
+    protected Class<? extends CacheInvalidationBus> busClass;
+
+    public CacheInvalidationBus getBus() throws InstantiationException, IllegalAccessException {
+        return busClass.newInstance();
+    }
+
+    public Class<? extends CacheInvalidationBus> getBusClass() {
+        return busClass;
+    }
+
+    @Override
+    public String toString() {
+        return busClass.getName();
+    }
+
+}
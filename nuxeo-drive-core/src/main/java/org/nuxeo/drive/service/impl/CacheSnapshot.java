@@ -0,0 +1,318 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.nuxeo.drive.service.CacheInvalidation;
+import org.nuxeo.drive.service.SynchronizationRoots;
+import org.nuxeo.ecm.core.api.IdRef;
+
+/**
+ * Snapshot of the synchronization root and collection sync root member caches of the {@link NuxeoDriveManagerImpl},
+ * written to a local file so that a restarted node can serve the first requests of the users without computing their
+ * synchronization roots and collection sync root members all at once.
+ * <p>
+ * The snapshot holds the audit high-water mark, i.e. the change finder upper bound, read before copying the caches:
+ * the changes impacting the cached values that occurred after it are applied to the snapshot before using it, see
+ * {@link NuxeoDriveManagerImpl#pruneCacheSnapshot(CacheSnapshot)}. Once read, the entries of a user are handed over
+ * only once, on the first cache miss.
+ * <p>
+ * The synchronization roots are indexed by id and path so that a {@link CacheInvalidation} only removes the entries of
+ * the impacted users, as done by the {@link SynchronizationRootsCache}.
+ *
+ * @since 7.3
+ */
+public class CacheSnapshot {
+
+    protected static final int MAGIC = 0x4e584453;
+
+    protected static final int VERSION = 1;
+
+    protected final long highWaterMark;
+
+    protected final long timestamp;
+
+    protected final ConcurrentMap<String, Map<String, SynchronizationRoots>> syncRoots;
+
+    protected final ConcurrentMap<String, Map<String, Set<String>>> collectionSyncRootMemberIds;
+
+    /**
+     * User names by synchronization root id, prefixed by the repository name.
+     */
+    protected final Map<String, Set<String>> userNamesByRootId = new HashMap<String, Set<String>>();
+
+    /**
+     * User names by synchronization root path, prefixed by the repository name.
+     */
+    protected final NavigableMap<String, Set<String>> userNamesByRootPath = new TreeMap<String, Set<String>>();
+
+    public CacheSnapshot(long highWaterMark, long timestamp, Map<String, Map<String, SynchronizationRoots>> syncRoots,
+            Map<String, Map<String, Set<String>>> collectionSyncRootMemberIds) {
+        this.highWaterMark = highWaterMark;
+        this.timestamp = timestamp;
+        this.syncRoots = new ConcurrentHashMap<String, Map<String, SynchronizationRoots>>(syncRoots);
+        this.collectionSyncRootMemberIds = new ConcurrentHashMap<String, Map<String, Set<String>>>(
+                collectionSyncRootMemberIds);
+        // Never modified afterwards, the removed entries being ignored
+        for (Map.Entry<String, Map<String, SynchronizationRoots>> entry : syncRoots.entrySet()) {
+            for (SynchronizationRoots roots : entry.getValue().values()) {
+                for (IdRef ref : roots.getRefs()) {
+                    addUserName(userNamesByRootId, getKey(roots.getRepositoryName(), ref.toString()), entry.getKey());
+                }
+                for (String path : roots.getPaths()) {
+                    addUserName(userNamesByRootPath, getKey(roots.getRepositoryName(), path), entry.getKey());
+                }
+            }
+        }
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int size() {
+        return syncRoots.size();
+    }
+
+    /**
+     * Removes and returns the synchronization roots of the given user, or null if not held by the snapshot.
+     */
+    public Map<String, SynchronizationRoots> removeSynchronizationRoots(String userName) {
+        return syncRoots.remove(userName);
+    }
+
+    /**
+     * Removes and returns the collection sync root member ids of the given user, or null if not held by the snapshot.
+     */
+    public Map<String, Set<String>> removeCollectionSyncRootMemberIds(String userName) {
+        return collectionSyncRootMemberIds.remove(userName);
+    }
+
+    /**
+     * Removes the entries of the users impacted by the given invalidation.
+     *
+     * @return false if all the synchronization roots are impacted, the snapshot being useless
+     */
+    public boolean applyInvalidation(CacheInvalidation invalidation) {
+        String userName = invalidation.getUserName();
+        switch (invalidation.getType()) {
+        case SYNCHRONIZATION_ROOTS:
+            if (userName == null) {
+                return false;
+            }
+            syncRoots.remove(userName);
+            collectionSyncRootMemberIds.remove(userName);
+            return true;
+        case COLLECTION_SYNC_ROOT_MEMBERS:
+            if (userName == null) {
+                collectionSyncRootMemberIds.clear();
+            } else {
+                collectionSyncRootMemberIds.remove(userName);
+            }
+            return true;
+        case DOCUMENT_DELETION:
+        case SECURITY_UPDATE:
+            for (String impactedUserName : getImpactedUserNames(invalidation.getRepositoryName(),
+                    invalidation.getDocId(), invalidation.getDocPath())) {
+                syncRoots.remove(impactedUserName);
+                collectionSyncRootMemberIds.remove(impactedUserName);
+            }
+            return true;
+        case COLLECTION_MEMBERSHIP:
+            Set<String> userNames = userNamesByRootId.get(getKey(invalidation.getRepositoryName(),
+                    invalidation.getDocId()));
+            if (userNames != null) {
+                for (String impactedUserName : userNames) {
+                    collectionSyncRootMemberIds.remove(impactedUserName);
+                }
+            }
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the names of the users having a synchronization root being the given document or one of its
+     * descendants in the snapshot, whether their entries have been removed or not.
+     */
+    public Set<String> getImpactedUserNames(String repositoryName, String docId, String docPath) {
+        Set<String> userNames = new HashSet<String>();
+        if (docId != null) {
+            Set<String> rootIdUserNames = userNamesByRootId.get(getKey(repositoryName, docId));
+            if (rootIdUserNames != null) {
+                userNames.addAll(rootIdUserNames);
+            }
+        }
+        if (docPath != null) {
+            String key = getKey(repositoryName, docPath);
+            for (Map.Entry<String, Set<String>> entry : userNamesByRootPath.tailMap(key, true).entrySet()) {
+                String rootKey = entry.getKey();
+                if (!rootKey.startsWith(key)) {
+                    break;
+                }
+                if (rootKey.equals(key) || rootKey.startsWith(key + "/")) {
+                    userNames.addAll(entry.getValue());
+                }
+            }
+        }
+        return userNames;
+    }
+
+    protected static void addUserName(Map<String, Set<String>> index, String key, String userName) {
+        Set<String> userNames = index.get(key);
+        if (userNames == null) {
+            userNames = new HashSet<String>();
+            index.put(key, userNames);
+        }
+        userNames.add(userName);
+    }
+
+    protected static String getKey(String repositoryName, String value) {
+        return repositoryName + ":" + value;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file then moves it to the given file, so that a crash never leaves a
+     * truncated snapshot.
+     */
+    public void write(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(highWaterMark);
+            out.writeLong(timestamp);
+            out.writeInt(syncRoots.size());
+            for (Map.Entry<String, Map<String, SynchronizationRoots>> entry : syncRoots.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (SynchronizationRoots roots : entry.getValue().values()) {
+                    out.writeUTF(roots.getRepositoryName());
+                    writeStrings(out, roots.getPaths());
+                    out.writeInt(roots.getRefs().size());
+                    for (IdRef ref : roots.getRefs()) {
+                        out.writeUTF(ref.toString());
+                    }
+                }
+            }
+            out.writeInt(collectionSyncRootMemberIds.size());
+            for (Map.Entry<String, Map<String, Set<String>>> entry : collectionSyncRootMemberIds.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<String, Set<String>> repositoryEntry : entry.getValue().entrySet()) {
+                    out.writeUTF(repositoryEntry.getKey());
+                    writeStrings(out, repositoryEntry.getValue());
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot from the given file, interning the synchronization roots and collection sync root member ids
+     * as when computed.
+     *
+     * @throws IOException if the file cannot be read or is not a snapshot of the current version
+     */
+    public static CacheSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot of the current version: " + file);
+            }
+            long highWaterMark = in.readLong();
+            long timestamp = in.readLong();
+            int userCount = in.readInt();
+            Map<String, Map<String, SynchronizationRoots>> syncRoots = new HashMap<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                String userName = in.readUTF();
+                int repositoryCount = in.readInt();
+                Map<String, SynchronizationRoots> userRoots = new HashMap<String, SynchronizationRoots>();
+                for (int j = 0; j < repositoryCount; j++) {
+                    String repositoryName = in.readUTF();
+                    Set<String> paths = readStrings(in);
+                    int refCount = in.readInt();
+                    Set<IdRef> refs = new LinkedHashSet<IdRef>(refCount);
+                    for (int k = 0; k < refCount; k++) {
+                        refs.add(new IdRef(in.readUTF()));
+                    }
+                    userRoots.put(repositoryName, new SynchronizationRoots(repositoryName, paths, refs).intern());
+                }
+                syncRoots.put(userName, userRoots);
+            }
+            userCount = in.readInt();
+            Map<String, Map<String, Set<String>>> collectionSyncRootMemberIds = new HashMap<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                String userName = in.readUTF();
+                int repositoryCount = in.readInt();
+                // Concurrent as incrementally maintained once cached
+                Map<String, Set<String>> userMemberIds = new ConcurrentHashMap<String, Set<String>>();
+                for (int j = 0; j < repositoryCount; j++) {
+                    String repositoryName = in.readUTF();
+                    userMemberIds.put(repositoryName, CompactIdSet.of(readStrings(in)).intern());
+                }
+                collectionSyncRootMemberIds.put(userName, userMemberIds);
+            }
+            return new CacheSnapshot(highWaterMark, timestamp, syncRoots, collectionSyncRootMemberIds);
+        }
+    }
+
+    protected static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    protected static Set<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<String> strings = new LinkedHashSet<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+}
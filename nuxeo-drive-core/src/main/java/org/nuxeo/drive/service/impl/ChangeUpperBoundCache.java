@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.FileSystemChangeFinder;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Node-wide cache of the {@link FileSystemChangeFinder#getUpperBound()}, so that the polls of all the users read the
+ * audit high-water mark from memory instead of each querying the greatest audit log id.
+ * <p>
+ * The cached value is refreshed by the first request reading it once older than the maximum age, the other requests
+ * reading concurrently being served the previous value instead of waiting. This is safe with the id-based bounds: a
+ * stale upper bound is always lower than or equal to the actual one, thus the next change summary request just starts
+ * from there and no change is missed. The cached value never decreases.
+ *
+ * @since 7.3
+ */
+public class ChangeUpperBoundCache {
+
+    private static final Log log = LogFactory.getLog(ChangeUpperBoundCache.class);
+
+    protected final FileSystemChangeFinder changeFinder;
+
+    protected final long maxAge;
+
+    protected final Ticker ticker;
+
+    protected final ReentrantLock refreshLock = new ReentrantLock();
+
+    protected volatile long upperBound = -1;
+
+    /**
+     * {@link #ticker} time of the last refresh, only meaningful if {@link #initialized}.
+     */
+    protected volatile long refreshTime;
+
+    protected volatile boolean initialized;
+
+    /**
+     * @param maxAge the maximum age in milliseconds of the cached upper bound
+     */
+    public ChangeUpperBoundCache(FileSystemChangeFinder changeFinder, long maxAge) {
+        this(changeFinder, maxAge, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source of the maximum age, typically a fake one in tests
+     */
+    public ChangeUpperBoundCache(FileSystemChangeFinder changeFinder, long maxAge, Ticker ticker) {
+        this.changeFinder = changeFinder;
+        this.maxAge = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        this.ticker = ticker;
+    }
+
+    public long getUpperBound() {
+        if (initialized && !isExpired()) {
+            return upperBound;
+        }
+        if (initialized) {
+            if (!refreshLock.tryLock()) {
+                // Being refreshed by another request
+                return upperBound;
+            }
+        } else {
+            refreshLock.lock();
+        }
+        try {
+            if (!initialized || isExpired()) {
+                long newUpperBound = changeFinder.getUpperBound();
+                if (newUpperBound > upperBound) {
+                    upperBound = newUpperBound;
+                }
+                refreshTime = ticker.read();
+                initialized = true;
+                if (log.isTraceEnabled()) {
+                    log.trace("Refreshed change upper bound: " + upperBound);
+                }
+            }
+            return upperBound;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the next call to {@link #getUpperBound()} to query the change finder, typically when the audit log has
+     * been purged.
+     */
+    public void invalidate() {
+        refreshLock.lock();
+        try {
+            initialized = false;
+            upperBound = -1;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    protected boolean isExpired() {
+        return ticker.read() - refreshTime >= maxAge;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.IdRef;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps track of the empty change summaries recently returned to the users, so that their next change summary requests
+ * can be answered without resolving their synchronization roots nor querying the changes as long as the audit upper
+ * bound hasn't moved, see {@link NuxeoDriveManagerImpl#getChangeSummaryIntegerBounds(java.security.Principal, Map,
+ * long, long)}.
+ * <p>
+ * The audit is shared by the cluster nodes and every change relevant to Nuxeo Drive is logged in it, including the
+ * synchronization root (un)registrations and the collection membership changes. Relying on its upper bound thus doesn't
+ * depend on the node that committed the change, nor on the delay of the asynchronous audit logging: a change logged
+ * after the empty summary always moves the upper bound.
+ *
+ * @since 7.3
+ */
+public class ChangeWatchRegistry {
+
+    protected final Ticker ticker;
+
+    /** Published watches keyed by user name and lower bound. */
+    protected final Cache<String, ChangeWatch> watches;
+
+    /**
+     * @param maxWatches the maximum number of watches, the least recently published ones being evicted beyond
+     * @param maxWatchTimeout the maximum time in milliseconds a watch stays valid
+     */
+    public ChangeWatchRegistry(int maxWatches, long maxWatchTimeout) {
+        this(maxWatches, maxWatchTimeout, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source of the watch timeouts, typically a fake one in tests
+     */
+    public ChangeWatchRegistry(int maxWatches, long maxWatchTimeout, Ticker ticker) {
+        this.ticker = ticker;
+        watches = CacheBuilder.newBuilder().ticker(ticker).concurrencyLevel(4).maximumSize(maxWatches).expireAfterWrite(
+                maxWatchTimeout, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Publishes a watch for the given user, to be looked up by the next request of the user with the given upper bound
+     * of an empty change summary as lower bound, valid for the given timeout in milliseconds. Replaces the watch
+     * previously published for the same user and upper bound.
+     *
+     * @param activeRootRefs the active root references of the empty change summary, keyed by repository name
+     */
+    public void publish(String userName, long upperBound, Map<String, Set<IdRef>> activeRootRefs, long timeout) {
+        long expirationTime = ticker.read() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        watches.put(getKey(userName, upperBound), new ChangeWatch(upperBound, activeRootRefs, expirationTime));
+    }
+
+    /**
+     * Returns the watch published for the given user and lower bound, null if none or expired.
+     */
+    public ChangeWatch getWatch(String userName, long lowerBound) {
+        String key = getKey(userName, lowerBound);
+        ChangeWatch watch = watches.getIfPresent(key);
+        if (watch != null && ticker.read() - watch.expirationTime >= 0) {
+            watches.invalidate(key);
+            return null;
+        }
+        return watch;
+    }
+
+    public void clear() {
+        watches.invalidateAll();
+    }
+
+    public long size() {
+        return watches.size();
+    }
+
+    protected String getKey(String userName, long lowerBound) {
+        return userName + ":" + lowerBound;
+    }
+
+    /**
+     * Empty change summary returned to a user.
+     */
+    public static class ChangeWatch {
+
+        protected final long upperBound;
+
+        protected final Map<String, Set<IdRef>> activeRootRefs;
+
+        protected final long expirationTime;
+
+        protected ChangeWatch(long upperBound, Map<String, Set<IdRef>> activeRootRefs, long expirationTime) {
+            this.upperBound = upperBound;
+            this.activeRootRefs = activeRootRefs;
+            this.expirationTime = expirationTime;
+        }
+
+        public Map<String, Set<IdRef>> getActiveRootRefs() {
+            return activeRootRefs;
+        }
+
+        /**
+         * Returns true if the given current audit upper bound hasn't moved since the empty change summary and if the
+         * given request state is the one of the summary, in which case the changes don't need to be queried.
+         */
+        public boolean isQuiet(long currentUpperBound, Map<String, Set<IdRef>> lastActiveRootRefs) {
+            return currentUpperBound <= upperBound && lastActiveRootRefs.equals(activeRootRefs);
+        }
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Immutable set of document ids stored as sorted primitive arrays, used to cache the collection sync root member ids
+ * of the users, see {@link NuxeoDriveManagerImpl#getCollectionSyncRootMemberIds(java.security.Principal)}.
+ * <p>
+ * Ids in the canonical lowercase UUID form are stored as pairs of longs, 16 bytes per id, instead of a {@link String}
+ * wrapped in a {@link java.util.HashSet} entry. Other ids are kept as a sorted {@link String} array. Lookups are binary
+ * searches, iteration rebuilds the id strings so that the set can be passed as is to the change finder queries.
+ * <p>
+ * Equal sets are shared through {@link #intern()}, typically the ones of the users synchronizing the same collections.
+ *
+ * @since 7.3
+ */
+public final class CompactIdSet extends AbstractSet<String> {
+
+    public static final CompactIdSet EMPTY = new CompactIdSet(new long[0], new String[0]);
+
+    private static final Interner<CompactIdSet> INTERNER = Interners.newWeakInterner();
+
+    private static final int UUID_LENGTH = 36;
+
+    /**
+     * Most and least significant bits of the UUID ids, sorted by {@link UUID#compareTo(UUID)} order.
+     */
+    private final long[] uuidBits;
+
+    private final String[] otherIds;
+
+    private int hash;
+
+    private CompactIdSet(long[] uuidBits, String[] otherIds) {
+        this.uuidBits = uuidBits;
+        this.otherIds = otherIds;
+    }
+
+    public static CompactIdSet of(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return EMPTY;
+        }
+        if (ids instanceof CompactIdSet) {
+            return (CompactIdSet) ids;
+        }
+        List<UUID> uuids = new ArrayList<UUID>(ids.size());
+        List<String> others = new ArrayList<String>();
+        long[] bits = new long[2];
+        for (String id : ids) {
+            if (parseUUID(id, bits)) {
+                uuids.add(new UUID(bits[0], bits[1]));
+            } else {
+                others.add(id);
+            }
+        }
+        UUID[] sortedUUIDs = uuids.toArray(new UUID[uuids.size()]);
+        Arrays.sort(sortedUUIDs);
+        long[] uuidBits = new long[2 * sortedUUIDs.length];
+        int count = 0;
+        for (int i = 0; i < sortedUUIDs.length; i++) {
+            if (i > 0 && sortedUUIDs[i].equals(sortedUUIDs[i - 1])) {
+                continue;
+            }
+            uuidBits[2 * count] = sortedUUIDs[i].getMostSignificantBits();
+            uuidBits[2 * count + 1] = sortedUUIDs[i].getLeastSignificantBits();
+            count++;
+        }
+        if (2 * count < uuidBits.length) {
+            uuidBits = Arrays.copyOf(uuidBits, 2 * count);
+        }
+        String[] otherIds = others.toArray(new String[others.size()]);
+        Arrays.sort(otherIds);
+        count = 0;
+        for (int i = 0; i < otherIds.length; i++) {
+            if (i == 0 || !otherIds[i].equals(otherIds[i - 1])) {
+                otherIds[count++] = otherIds[i];
+            }
+        }
+        if (count < otherIds.length) {
+            otherIds = Arrays.copyOf(otherIds, count);
+        }
+        return new CompactIdSet(uuidBits, otherIds);
+    }
+
+    /**
+     * Returns the canonical instance equal to this set, shared until no longer referenced.
+     */
+    public CompactIdSet intern() {
+        return INTERNER.intern(this);
+    }
+
+    /**
+     * Returns a set holding the ids of this set and the given id, this set if it already holds it.
+     */
+    public CompactIdSet with(String id) {
+        if (contains(id)) {
+            return this;
+        }
+        return withChanges(Collections.singleton(id), Collections.<String> emptySet());
+    }
+
+    /**
+     * Returns a set holding the ids of this set but the given id, this set if it doesn't hold it.
+     */
+    public CompactIdSet without(String id) {
+        if (!contains(id)) {
+            return this;
+        }
+        return withChanges(Collections.<String> emptySet(), Collections.singleton(id));
+    }
+
+    /**
+     * Returns a set holding the ids of this set and the added ids but the removed ones, this set if unchanged.
+     * <p>
+     * The sorted arrays are merged in a single pass, without rebuilding the id strings of this set.
+     *
+     * @param addedIds the ids to add, unless also in {@code removedIds}
+     * @param removedIds the ids to remove
+     */
+    public CompactIdSet withChanges(Collection<String> addedIds, Collection<String> removedIds) {
+        if (addedIds.isEmpty() && removedIds.isEmpty()) {
+            return this;
+        }
+        CompactIdSet added = of(addedIds);
+        CompactIdSet removed = of(removedIds);
+        long[] mergedBits = mergeUUIDBits(uuidBits, added.uuidBits, removed);
+        String[] mergedOtherIds = mergeOtherIds(otherIds, added.otherIds, removed);
+        if (Arrays.equals(mergedBits, uuidBits) && Arrays.equals(mergedOtherIds, otherIds)) {
+            return this;
+        }
+        if (mergedBits.length == 0 && mergedOtherIds.length == 0) {
+            return EMPTY;
+        }
+        return new CompactIdSet(mergedBits, mergedOtherIds);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        String id = (String) o;
+        long[] bits = new long[2];
+        if (parseUUID(id, bits)) {
+            return indexOf(bits[0], bits[1]) >= 0;
+        }
+        return Arrays.binarySearch(otherIds, id) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return uuidBits.length / 2 + otherIds.length;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int uuidCount = uuidBits.length / 2;
+                String id;
+                if (index < uuidCount) {
+                    id = new UUID(uuidBits[2 * index], uuidBits[2 * index + 1]).toString();
+                } else {
+                    id = otherIds[index - uuidCount];
+                }
+                index++;
+                return id;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof CompactIdSet) {
+            CompactIdSet other = (CompactIdSet) o;
+            return Arrays.equals(uuidBits, other.uuidBits) && Arrays.equals(otherIds, other.otherIds);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // Cached as required for interning, racy but idempotent
+        int h = hash;
+        if (h == 0 && !isEmpty()) {
+            h = super.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    private int indexOf(long mostSigBits, long leastSigBits) {
+        int low = 0;
+        int high = uuidBits.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(uuidBits[2 * mid], mostSigBits);
+            if (cmp == 0) {
+                cmp = compare(uuidBits[2 * mid + 1], leastSigBits);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static long[] mergeUUIDBits(long[] bits, long[] addedBits, CompactIdSet removed) {
+        long[] merged = new long[bits.length + addedBits.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < bits.length || j < addedBits.length) {
+            int cmp;
+            if (i == bits.length) {
+                cmp = 1;
+            } else if (j == addedBits.length) {
+                cmp = -1;
+            } else {
+                cmp = compare(bits[i], addedBits[j]);
+                if (cmp == 0) {
+                    cmp = compare(bits[i + 1], addedBits[j + 1]);
+                }
+            }
+            long mostSigBits;
+            long leastSigBits;
+            if (cmp <= 0) {
+                mostSigBits = bits[i];
+                leastSigBits = bits[i + 1];
+                i += 2;
+                if (cmp == 0) {
+                    j += 2;
+                }
+            } else {
+                mostSigBits = addedBits[j];
+                leastSigBits = addedBits[j + 1];
+                j += 2;
+            }
+            if (removed.indexOf(mostSigBits, leastSigBits) < 0) {
+                merged[count++] = mostSigBits;
+                merged[count++] = leastSigBits;
+            }
+        }
+        return count < merged.length ? Arrays.copyOf(merged, count) : merged;
+    }
+
+    private static String[] mergeOtherIds(String[] ids, String[] addedIds, CompactIdSet removed) {
+        String[] merged = new String[ids.length + addedIds.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < ids.length || j < addedIds.length) {
+            int cmp;
+            if (i == ids.length) {
+                cmp = 1;
+            } else if (j == addedIds.length) {
+                cmp = -1;
+            } else {
+                cmp = ids[i].compareTo(addedIds[j]);
+            }
+            String id;
+            if (cmp <= 0) {
+                id = ids[i++];
+                if (cmp == 0) {
+                    j++;
+                }
+            } else {
+                id = addedIds[j++];
+            }
+            if (Arrays.binarySearch(removed.otherIds, id) < 0) {
+                merged[count++] = id;
+            }
+        }
+        return count < merged.length ? Arrays.copyOf(merged, count) : merged;
+    }
+
+    private static int compare(long x, long y) {
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+
+    /**
+     * Parses the given id if in the canonical lowercase UUID form, the only one {@link UUID#toString()} gives back.
+     *
+     * @param bits filled with the most and least significant bits
+     * @return true if the id was parsed
+     */
+    private static boolean parseUUID(String id, long[] bits) {
+        if (id.length() != UUID_LENGTH) {
+            return false;
+        }
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+                continue;
+            }
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return false;
+            }
+            if (i < 18) {
+                mostSigBits = (mostSigBits << 4) | digit;
+            } else {
+                leastSigBits = (leastSigBits << 4) | digit;
+            }
+        }
+        bits[0] = mostSigBits;
+        bits[1] = leastSigBits;
+        return true;
+    }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.SubscriptionStore;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.storage.sql.jdbc.db.Table;
+import org.nuxeo.ecm.directory.Directory;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.directory.api.DirectoryService;
+import org.nuxeo.ecm.directory.sql.SQLDirectory;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * {@link SubscriptionStore} keeping one entry per enabled subscription in the {@link #DIRECTORY_NAME} directory, keyed
+ * by user name, repository name and document id, so that a subscription update only reads and writes one row whatever
+ * the number of subscribers of the document.
+ * <p>
+ * The {@link NuxeoDriveManagerImpl#NUXEO_DRIVE_FACET} is still added to the synchronization roots, the file system
+ * item factories relying on it, but its subscription list is not maintained anymore. The existing subscriptions are
+ * copied from this list to the directory by {@link #activate()}, once per repository.
+ * <p>
+ * The directory is not deployed by default: the {@code nuxeodrive-subscription-directory-contrib.xml} contribution of
+ * the {@code nuxeo-drive-core} bundle must be copied to the server configuration when selecting this store.
+ *
+ * @since 7.3
+ */
+public class DirectorySubscriptionStore implements SubscriptionStore {
+
+    private static final Log log = LogFactory.getLog(DirectorySubscriptionStore.class);
+
+    public static final String DIRECTORY_NAME = "driveSubscriptions";
+
+    public static final String SCHEMA = "drivesubscription";
+
+    protected static final String ID_FIELD = "id";
+
+    protected static final String USERNAME_FIELD = "username";
+
+    protected static final String REPOSITORY_NAME_FIELD = "repositoryName";
+
+    protected static final String DOC_ID_FIELD = "docId";
+
+    protected static final String LAST_CHANGE_DATE_FIELD = "lastChangeDate";
+
+    /**
+     * User name and document id of the entry recording that the subscriptions of a repository have been migrated, no
+     * user nor document having an empty name or id.
+     */
+    protected static final String MIGRATION_MARKER = "";
+
+    /**
+     * Maximum number of document ids bound in a single {@link #getSubscribedUserNames(CoreSession, Collection)} query.
+     */
+    protected static final int QUERY_BATCH_SIZE = 500;
+
+    protected static final String USERNAME_INDEX = "drive_subscriptions_user_idx";
+
+    protected static final String DOC_ID_INDEX = "drive_subscriptions_doc_idx";
+
+    /**
+     * Makes this store ready to be used: checks that the {@link #DIRECTORY_NAME} directory is deployed, creates the
+     * indexes of its lookup columns if missing and migrates the subscriptions of the repositories not migrated yet, see
+     * {@link #migrate(CoreSession)}.
+     * <p>
+     * Must be called inside a transaction.
+     *
+     * @throws ClientException if the directory is not deployed or cannot be initialized
+     */
+    public void activate() throws ClientException {
+        SQLDirectory directory = getDirectory();
+        createIndexes(directory);
+        RepositoryManager repositoryManager = Framework.getLocalService(RepositoryManager.class);
+        for (String repositoryName : repositoryManager.getRepositoryNames()) {
+            new UnrestrictedSessionRunner(repositoryName) {
+                @Override
+                public void run() throws ClientException {
+                    migrateOnce(session);
+                }
+            }.runUnrestricted();
+        }
+    }
+
+    /**
+     * Migrates the subscriptions of the repository of the given session unless already done, recording the migration
+     * with an entry of the directory so that the subscriptions disabled since then are not restored.
+     *
+     * @param session an unrestricted session
+     */
+    protected void migrateOnce(CoreSession session) throws ClientException {
+        String repositoryName = session.getRepositoryName();
+        Session dirSession = openDirectorySession();
+        try {
+            if (dirSession.hasEntry(getId(MIGRATION_MARKER, repositoryName, MIGRATION_MARKER))) {
+                return;
+            }
+        } finally {
+            dirSession.close();
+        }
+        migrate(session);
+        dirSession = openDirectorySession();
+        try {
+            setSubscription(dirSession, MIGRATION_MARKER, repositoryName, MIGRATION_MARKER);
+        } finally {
+            dirSession.close();
+        }
+    }
+
+    /**
+     * Creates the indexes of the columns used to look up the subscriptions of a user or of a document, the id column
+     * only being indexed by the directory itself.
+     */
+    protected void createIndexes(SQLDirectory directory) throws ClientException {
+        Table table = directory.getTable();
+        Connection connection = directory.getConnection();
+        try {
+            Set<String> indexNames = getIndexNames(connection, table.getPhysicalName());
+            createIndex(connection, table, indexNames, USERNAME_INDEX, USERNAME_FIELD, REPOSITORY_NAME_FIELD);
+            createIndex(connection, table, indexNames, DOC_ID_INDEX, REPOSITORY_NAME_FIELD, DOC_ID_FIELD);
+        } catch (SQLException e) {
+            throw new ClientException(String.format("Cannot create the indexes of the %s directory", DIRECTORY_NAME),
+                    e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    protected void createIndex(Connection connection, Table table, Set<String> indexNames, String indexName,
+            String... columnNames) throws SQLException {
+        if (indexNames.contains(indexName.toLowerCase())) {
+            return;
+        }
+        StringBuilder columns = new StringBuilder();
+        for (String columnName : columnNames) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(table.getColumn(columnName).getQuotedName());
+        }
+        String sql = String.format("CREATE INDEX %s ON %s (%s)", indexName, table.getQuotedName(), columns);
+        if (log.isDebugEnabled()) {
+            log.debug(sql);
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * Returns the lower case names of the indexes of the given table, looking it up with the various cases databases
+     * store unquoted identifiers with.
+     */
+    protected Set<String> getIndexNames(Connection connection, String tableName) throws SQLException {
+        Set<String> indexNames = new HashSet<String>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new HashSet<String>(Arrays.asList(tableName, tableName.toUpperCase(),
+                tableName.toLowerCase()))) {
+            try (ResultSet rs = metaData.getIndexInfo(null, null, name, false, true)) {
+                while (rs.next()) {
+                    String indexName = rs.getString("INDEX_NAME");
+                    if (indexName != null) {
+                        indexNames.add(indexName.toLowerCase());
+                    }
+                }
+            }
+        }
+        return indexNames;
+    }
+
+    @Override
+    public DocumentModel setSubscription(CoreSession session, DocumentModel doc, String userName, boolean enabled)
+            throws ClientException {
+        Session dirSession = openDirectorySession();
+        try {
+            String id = getId(userName, doc.getRepositoryName(), doc.getId());
+            if (enabled) {
+                setSubscription(dirSession, userName, doc.getRepositoryName(), doc.getId());
+            } else if (dirSession.hasEntry(id)) {
+                dirSession.deleteEntry(id);
+            }
+        } finally {
+            dirSession.close();
+        }
+        if (!doc.hasFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET)) {
+            doc.addFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET);
+            return FacetSubscriptionStore.saveDocument(session, doc);
+        }
+        return doc;
+    }
+
+    @Override
+    public String getSynchronizationRootsQuery(CoreSession session, String userName) throws ClientException {
+        Set<String> docIds;
+        Session dirSession = openDirectorySession();
+        try {
+            Map<String, Serializable> filter = new HashMap<String, Serializable>();
+            filter.put(USERNAME_FIELD, userName);
+            filter.put(REPOSITORY_NAME_FIELD, session.getRepositoryName());
+            docIds = new HashSet<String>(dirSession.getProjection(filter, DOC_ID_FIELD));
+        } finally {
+            dirSession.close();
+        }
+        if (docIds.isEmpty()) {
+            return null;
+        }
+        String idList = AuditChangeFinder.getIdListLiteral(docIds);
+        return String.format("SELECT ecm:uuid, ecm:path FROM Document WHERE ecm:uuid IN (%s)"
+                + " AND ecm:currentLifeCycleState <> 'deleted'" + " ORDER BY dc:title, dc:created DESC", idList);
+    }
+
+    @Override
+    public boolean isSubscribed(DocumentModel doc, String userName) throws ClientException {
+        Session dirSession = openDirectorySession();
+        try {
+            if (userName != null) {
+                return dirSession.hasEntry(getId(userName, doc.getRepositoryName(), doc.getId()));
+            }
+            Map<String, Serializable> filter = new HashMap<String, Serializable>();
+            filter.put(REPOSITORY_NAME_FIELD, doc.getRepositoryName());
+            filter.put(DOC_ID_FIELD, doc.getId());
+            DocumentModelList entries = dirSession.query(filter, Collections.<String> emptySet(),
+                    Collections.<String, String> emptyMap(), false, 1, 0);
+            return !entries.isEmpty();
+        } finally {
+            dirSession.close();
+        }
+    }
+
+    /**
+     * Runs one {@code IN} query per {@link #QUERY_BATCH_SIZE} document ids, the directory API only supporting equality
+     * filters.
+     */
+    @Override
+    public Set<String> getSubscribedUserNames(CoreSession session, Collection<String> docIds) throws ClientException {
+        Set<String> userNames = new HashSet<String>();
+        if (docIds.isEmpty()) {
+            return userNames;
+        }
+        SQLDirectory directory = getDirectory();
+        Table table = directory.getTable();
+        List<String> ids = new ArrayList<String>(new HashSet<String>(docIds));
+        Connection connection = directory.getConnection();
+        try {
+            for (int i = 0; i < ids.size(); i += QUERY_BATCH_SIZE) {
+                List<String> batch = ids.subList(i, Math.min(i + QUERY_BATCH_SIZE, ids.size()));
+                StringBuilder params = new StringBuilder();
+                for (int j = 0; j < batch.size(); j++) {
+                    params.append(j == 0 ? "?" : ", ?");
+                }
+                String sql = String.format("SELECT DISTINCT %s FROM %s WHERE %s = ? AND %s IN (%s)",
+                        table.getColumn(USERNAME_FIELD).getQuotedName(), table.getQuotedName(),
+                        table.getColumn(REPOSITORY_NAME_FIELD).getQuotedName(),
+                        table.getColumn(DOC_ID_FIELD).getQuotedName(), params);
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    ps.setString(1, session.getRepositoryName());
+                    for (int j = 0; j < batch.size(); j++) {
+                        ps.setString(j + 2, batch.get(j));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            userNames.add(rs.getString(1));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new ClientException(String.format("Cannot query the subscribed users of documents %s", docIds), e);
+        } finally {
+            closeConnection(connection);
+        }
+        return userNames;
+    }
+
+    /**
+     * Copies the enabled subscriptions held by the {@link NuxeoDriveManagerImpl#DRIVE_SUBSCRIPTIONS_PROPERTY} of the
+     * documents of the repository of the given session to the directory, keeping the existing entries.
+     *
+     * @param session an unrestricted session
+     * @return the number of copied subscriptions
+     */
+    public int migrate(CoreSession session) throws ClientException {
+        String query = String.format("SELECT ecm:uuid, %s/*1/username FROM Document WHERE ecm:mixinType = '%s'"
+                + " AND %s/*1/enabled = 1", NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY,
+                NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET, NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY);
+        String repositoryName = session.getRepositoryName();
+        int count = 0;
+        Session dirSession = openDirectorySession();
+        try {
+            // Load the existing ids at once rather than looking up each subscription
+            Map<String, Serializable> filter = new HashMap<String, Serializable>();
+            filter.put(REPOSITORY_NAME_FIELD, repositoryName);
+            Set<String> existingIds = new HashSet<String>(dirSession.getProjection(filter, ID_FIELD));
+            IterableQueryResult results = session.queryAndFetch(query, NXQL.NXQL);
+            try {
+                for (Map<String, Serializable> result : results) {
+                    String docId = (String) result.get(NXQL.ECM_UUID);
+                    String userName = (String) result.get(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY
+                            + "/*1/username");
+                    if (userName != null && existingIds.add(getId(userName, repositoryName, docId))) {
+                        createEntry(dirSession, userName, repositoryName, docId);
+                        count++;
+                    }
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            dirSession.close();
+        }
+        log.info(String.format("Migrated %d Nuxeo Drive subscriptions of repository %s to the %s directory", count,
+                repositoryName, DIRECTORY_NAME));
+        return count;
+    }
+
+    protected void setSubscription(Session dirSession, String userName, String repositoryName, String docId)
+            throws ClientException {
+        String id = getId(userName, repositoryName, docId);
+        DocumentModel entry = dirSession.getEntry(id);
+        if (entry != null) {
+            entry.setProperty(SCHEMA, LAST_CHANGE_DATE_FIELD, Calendar.getInstance(NuxeoDriveManagerImpl.UTC));
+            dirSession.updateEntry(entry);
+        } else {
+            createEntry(dirSession, userName, repositoryName, docId);
+        }
+    }
+
+    protected void createEntry(Session dirSession, String userName, String repositoryName, String docId)
+            throws ClientException {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(ID_FIELD, getId(userName, repositoryName, docId));
+        fields.put(USERNAME_FIELD, userName);
+        fields.put(REPOSITORY_NAME_FIELD, repositoryName);
+        fields.put(DOC_ID_FIELD, docId);
+        fields.put(LAST_CHANGE_DATE_FIELD, Calendar.getInstance(NuxeoDriveManagerImpl.UTC));
+        dirSession.createEntry(fields);
+    }
+
+    protected String getId(String userName, String repositoryName, String docId) {
+        return userName + ":" + repositoryName + ":" + docId;
+    }
+
+    protected Session openDirectorySession() throws ClientException {
+        return Framework.getService(DirectoryService.class).open(DIRECTORY_NAME);
+    }
+
+    protected SQLDirectory getDirectory() throws ClientException {
+        Directory directory = Framework.getService(DirectoryService.class).getDirectory(DIRECTORY_NAME);
+        if (!(directory instanceof SQLDirectory)) {
+            throw new ClientException(String.format(
+                    "The %s SQL directory is not deployed, copy the nuxeodrive-subscription-directory-contrib.xml"
+                            + " contribution of the nuxeo-drive-core bundle to the server configuration",
+                    DIRECTORY_NAME));
+        }
+        return (SQLDirectory) directory;
+    }
+
+    protected void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.error("Cannot close connection", e);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.nuxeo.drive.service.SubscriptionStore;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
+import org.nuxeo.ecm.platform.ec.notification.NotificationConstants;
+import org.nuxeo.ecm.platform.query.nxql.NXQLQueryBuilder;
+
+/**
+ * Default {@link SubscriptionStore} keeping the subscriptions in the
+ * {@link NuxeoDriveManagerImpl#DRIVE_SUBSCRIPTIONS_PROPERTY} complex list of the
+ * {@link NuxeoDriveManagerImpl#NUXEO_DRIVE_FACET}.
+ *
+ * @since 7.3
+ */
+public class FacetSubscriptionStore implements SubscriptionStore {
+
+    @Override
+    public DocumentModel setSubscription(CoreSession session, DocumentModel doc, String userName, boolean enabled)
+            throws ClientException {
+        if (!doc.hasFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET)) {
+            doc.addFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET);
+        }
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> subscriptions = (List<Map<String, Object>>) doc.getPropertyValue(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY);
+        boolean updated = false;
+        for (Map<String, Object> subscription : subscriptions) {
+            if (userName.equals(subscription.get("username"))) {
+                subscription.put("enabled", enabled);
+                subscription.put("lastChangeDate", Calendar.getInstance(NuxeoDriveManagerImpl.UTC));
+                updated = true;
+                break;
+            }
+        }
+        if (!updated && enabled) {
+            Map<String, Object> subscription = new HashMap<String, Object>();
+            subscription.put("username", userName);
+            subscription.put("enabled", Boolean.TRUE);
+            subscription.put("lastChangeDate", Calendar.getInstance(NuxeoDriveManagerImpl.UTC));
+            subscriptions.add(subscription);
+        }
+        doc.setPropertyValue(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY, (Serializable) subscriptions);
+        return saveDocument(session, doc);
+    }
+
+    @Override
+    public String getSynchronizationRootsQuery(CoreSession session, String userName) {
+        return getSynchronizationRootsQuery(userName);
+    }
+
+    /**
+     * Returns the query of the synchronization roots of the given user, projecting their id and path so that no
+     * document needs to be loaded.
+     */
+    public static String getSynchronizationRootsQuery(String userName) {
+        return String.format("SELECT ecm:uuid, ecm:path FROM Document WHERE %s/*1/username = %s"
+                + " AND %s/*1/enabled = 1" + " AND ecm:currentLifeCycleState <> 'deleted'"
+                + " ORDER BY dc:title, dc:created DESC", NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY,
+                NXQLQueryBuilder.prepareStringLiteral(userName, true, true),
+                NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY);
+    }
+
+    @Override
+    public boolean isSubscribed(DocumentModel doc, String userName) throws ClientException {
+        if (!doc.hasFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> subscriptions = (List<Map<String, Object>>) doc.getPropertyValue(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY);
+        for (Map<String, Object> subscription : subscriptions) {
+            if (Boolean.TRUE.equals(subscription.get("enabled"))
+                    && (userName == null || userName.equals(subscription.get("username")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<String> getSubscribedUserNames(CoreSession session, Collection<String> docIds) throws ClientException {
+        Set<String> userNames = new HashSet<String>();
+        if (docIds.isEmpty()) {
+            return userNames;
+        }
+        IterableQueryResult results = session.queryAndFetch(getSubscribedUserNamesQuery(docIds), NXQL.NXQL);
+        try {
+            for (Map<String, Serializable> result : results) {
+                userNames.add((String) result.get(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY + "/*1/username"));
+            }
+        } finally {
+            results.close();
+        }
+        return userNames;
+    }
+
+    protected String getSubscribedUserNamesQuery(Collection<String> docIds) {
+        // No life cycle state filtering: a root being deleted must still
+        // notify its subscribers
+        return String.format("SELECT ecm:uuid, %s/*1/username FROM Document WHERE %s/*1/enabled = 1"
+                + " AND ecm:uuid IN (%s)", NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY,
+                NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY, AuditChangeFinder.getIdListLiteral(docIds));
+    }
+
+    /**
+     * Saves the given document without logging it in the audit nor notifying the users.
+     */
+    protected static DocumentModel saveDocument(CoreSession session, DocumentModel doc) throws ClientException {
+        doc.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, true);
+        doc.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, true);
+        DocumentModel savedDoc = session.saveDocument(doc);
+        doc.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, false);
+        doc.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, false);
+        return savedDoc;
+    }
+
+}
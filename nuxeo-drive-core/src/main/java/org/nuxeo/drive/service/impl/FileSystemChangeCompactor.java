@@ -0,0 +1,107 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.FileSystemItemChange;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+
+/**
+ * Collapses the consecutive creation and modification changes of a given file system item into a single change, so
+ * that the size of a change summary depends on the number of changed items rather than on the number of edits.
+ * <p>
+ * A run of such changes starting with a creation is replaced by the creation change, kept at its position and date so
+ * that the item is still created before its children, but holding the most recent state of the item: created +
+ * modified + modified becomes created. A run of modifications only is replaced by its most recent change. Any other
+ * change of the item, such as a move, a deletion or a security update, is kept as is and breaks the run since its
+ * ordering relative to the other changes matters to the client.
+ *
+ * @since 7.3
+ */
+public class FileSystemChangeCompactor {
+
+    private static final Log log = LogFactory.getLog(FileSystemChangeCompactor.class);
+
+    /**
+     * Compacts the given changes, expected to be sorted by descending event date as returned by the change finder. The
+     * relative ordering of the kept changes is preserved.
+     */
+    public List<FileSystemItemChange> compact(List<FileSystemItemChange> changes) {
+        List<FileSystemItemChange> compactedChanges = new ArrayList<FileSystemItemChange>(changes.size());
+        // Index in the compacted changes of the most recent change of the
+        // current run of each item
+        Map<String, Integer> runs = new HashMap<String, Integer>();
+        int removedCount = 0;
+        for (FileSystemItemChange change : changes) {
+            String key = change.getRepositoryId() + ":" + change.getFileSystemItemId();
+            if (!isCompactable(change)) {
+                runs.remove(key);
+                compactedChanges.add(change);
+                continue;
+            }
+            Integer runIndex = runs.get(key);
+            if (runIndex == null) {
+                if (!isCreation(change)) {
+                    runs.put(key, compactedChanges.size());
+                }
+                compactedChanges.add(change);
+            } else if (isCreation(change)) {
+                // Changes are iterated from the most recent one, the creation
+                // starts the run: keep it at its position with the most
+                // recent state of the item
+                FileSystemItemChange runChange = compactedChanges.set(runIndex, null);
+                removedCount++;
+                change.setFileSystemItem(runChange.getFileSystemItem());
+                change.setFileSystemItemName(runChange.getFileSystemItemName());
+                runs.remove(key);
+                compactedChanges.add(change);
+            }
+        }
+        if (removedCount > 0) {
+            List<FileSystemItemChange> keptChanges = new ArrayList<FileSystemItemChange>(compactedChanges.size()
+                    - removedCount);
+            for (FileSystemItemChange change : compactedChanges) {
+                if (change != null) {
+                    keptChanges.add(change);
+                }
+            }
+            compactedChanges = keptChanges;
+        }
+        if (log.isDebugEnabled() && compactedChanges.size() < changes.size()) {
+            log.debug(String.format("Compacted %d file system item changes into %d.", changes.size(),
+                    compactedChanges.size()));
+        }
+        return compactedChanges;
+    }
+
+    protected boolean isCompactable(FileSystemItemChange change) {
+        return change.getFileSystemItemId() != null && change.getFileSystemItem() != null
+                && (isCreation(change) || DocumentEventTypes.DOCUMENT_UPDATED.equals(change.getEventId()));
+    }
+
+    protected boolean isCreation(FileSystemItemChange change) {
+        return DocumentEventTypes.DOCUMENT_CREATED.equals(change.getEventId())
+                || DocumentEventTypes.DOCUMENT_CREATED_BY_COPY.equals(change.getEventId());
+    }
+
+}
@@ -44,6 +44,11 @@ public class FileSystemChangeSummaryImpl implements FileSystemChangeSummary {
 
     protected Boolean hasTooManyChanges = Boolean.FALSE;
 
+    /**
+     * @since 7.3
+     */
+    protected Boolean hasMoreChanges = Boolean.FALSE;
+
     protected String activeSynchronizationRootDefinitions;
 
     public FileSystemChangeSummaryImpl() {
@@ -123,12 +128,25 @@ public class FileSystemChangeSummaryImpl implements FileSystemChangeSummary {
         return this.hasTooManyChanges;
     }
 
+    @Override
+    public Boolean getHasMoreChanges() {
+        return hasMoreChanges;
+    }
+
+    @Override
+    public void setHasMoreChanges(Boolean hasMoreChanges) {
+        this.hasMoreChanges = hasMoreChanges;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(getClass().getSimpleName());
         sb.append("(");
         sb.append(String.format("upperBound=%d, ", getUpperBound()));
         sb.append(String.format("syncDate=%d, ", getSyncDate()));
+        if (Boolean.TRUE.equals(hasMoreChanges)) {
+            sb.append("hasMoreChanges=true, ");
+        }
         if (hasTooManyChanges) {
             sb.append("hasTooManyChanges=true");
         } else {
@@ -17,6 +17,7 @@
 package org.nuxeo.drive.service.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -29,12 +30,18 @@ import org.nuxeo.drive.adapter.FileSystemItem;
 import org.nuxeo.drive.adapter.FolderItem;
 import org.nuxeo.drive.adapter.NuxeoDriveContribException;
 import org.nuxeo.drive.adapter.RootlessItemException;
+import org.nuxeo.drive.adapter.impl.FileSystemItemId;
+import org.nuxeo.drive.service.FileSystemItemAdaptation;
+import org.nuxeo.drive.service.FileSystemItemAdaptation.Status;
 import org.nuxeo.drive.service.FileSystemItemAdapterService;
 import org.nuxeo.drive.service.FileSystemItemFactory;
+import org.nuxeo.drive.service.NuxeoDriveManager;
+import org.nuxeo.drive.service.SubscriptionStore;
 import org.nuxeo.drive.service.TopLevelFolderItemFactory;
 import org.nuxeo.drive.service.VirtualFolderItemFactory;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
@@ -66,6 +73,21 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
 
     protected List<FileSystemItemFactoryWrapper> fileSystemItemFactories;
 
+    /**
+     * Compiled from {@link #fileSystemItemFactories} when the active factories change.
+     *
+     * @since 7.3
+     */
+    protected volatile FileSystemItemFactoryDispatchTable factoryDispatchTable;
+
+    /**
+     * Active factories by name, the prefix of the ids of the items they build, see
+     * {@link #getFileSystemItemFactoryForId(String)}.
+     *
+     * @since 7.3
+     */
+    protected volatile Map<String, FileSystemItemFactory> factoriesByIdPrefix;
+
     /*------------------------ DefaultComponent -----------------------------*/
     @Override
     public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
@@ -118,6 +140,8 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
         activeTopLevelFolderItemFactoryRegistry = null;
         activeFileSystemItemFactoryRegistry = null;
         fileSystemItemFactories = null;
+        factoryDispatchTable = null;
+        factoriesByIdPrefix = null;
     }
 
     /**
@@ -131,35 +155,69 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
     /*------------------------ FileSystemItemAdapterService -----------------------*/
     @Override
     public FileSystemItem getFileSystemItem(DocumentModel doc) throws ClientException {
-        return getFileSystemItem(doc, false, null, false, false);
+        return adaptFileSystemItem(doc, false, null, false, false).getItemOrThrow();
     }
 
     @Override
     public FileSystemItem getFileSystemItem(DocumentModel doc, boolean includeDeleted) throws ClientException {
-        return getFileSystemItem(doc, false, null, includeDeleted, false);
+        return adaptFileSystemItem(doc, false, null, includeDeleted, false).getItemOrThrow();
     }
 
     @Override
     public FileSystemItem getFileSystemItem(DocumentModel doc, boolean includeDeleted, boolean relaxSyncRootConstraint)
             throws ClientException {
-        return getFileSystemItem(doc, false, null, includeDeleted, relaxSyncRootConstraint);
+        return adaptFileSystemItem(doc, false, null, includeDeleted, relaxSyncRootConstraint).getItemOrThrow();
+    }
+
+    @Override
+    public FileSystemItemAdaptation adaptFileSystemItem(DocumentModel doc, boolean includeDeleted,
+            boolean relaxSyncRootConstraint) throws ClientException {
+        return adaptFileSystemItem(doc, false, null, includeDeleted, relaxSyncRootConstraint);
     }
 
     @Override
     public FileSystemItem getFileSystemItem(DocumentModel doc, FolderItem parentItem) throws ClientException {
-        return getFileSystemItem(doc, true, parentItem, false, false);
+        return adaptFileSystemItem(doc, true, parentItem, false, false).getItemOrThrow();
     }
 
     @Override
     public FileSystemItem getFileSystemItem(DocumentModel doc, FolderItem parentItem, boolean includeDeleted)
             throws ClientException {
-        return getFileSystemItem(doc, true, parentItem, includeDeleted, false);
+        return adaptFileSystemItem(doc, true, parentItem, includeDeleted, false).getItemOrThrow();
     }
 
     @Override
     public FileSystemItem getFileSystemItem(DocumentModel doc, FolderItem parentItem, boolean includeDeleted,
             boolean relaxSyncRootConstraint) throws ClientException {
-        return getFileSystemItem(doc, true, parentItem, includeDeleted, relaxSyncRootConstraint);
+        return adaptFileSystemItem(doc, true, parentItem, includeDeleted, relaxSyncRootConstraint).getItemOrThrow();
+    }
+
+    @Override
+    public FileSystemItemAdaptation adaptFileSystemItem(DocumentModel doc, FolderItem parentItem,
+            boolean includeDeleted, boolean relaxSyncRootConstraint) throws ClientException {
+        return adaptFileSystemItem(doc, true, parentItem, includeDeleted, relaxSyncRootConstraint);
+    }
+
+    @Override
+    public FileSystemItem getAncestorFileSystemItem(DocumentModel ancestor, boolean relaxSyncRootConstraint)
+            throws ClientException {
+        Object cached = FileSystemItemAncestorCache.get(ancestor, relaxSyncRootConstraint);
+        if (cached == FileSystemItemAncestorCache.ROOTLESS) {
+            throw RootlessItemException.newMarker();
+        }
+        if (cached != null) {
+            return cached == FileSystemItemAncestorCache.NOT_ADAPTABLE ? null : (FileSystemItem) cached;
+        }
+        FileSystemItemAdaptation adaptation = adaptFileSystemItem(ancestor, false, null, true, relaxSyncRootConstraint);
+        if (adaptation.isRootless()) {
+            FileSystemItemAncestorCache.put(ancestor, relaxSyncRootConstraint, FileSystemItemAncestorCache.ROOTLESS);
+            // Only used to unwind the ancestor chain, no need for a stack trace
+            throw RootlessItemException.newMarker();
+        }
+        FileSystemItem ancestorItem = adaptation.getItem();
+        FileSystemItemAncestorCache.put(ancestor, relaxSyncRootConstraint,
+                ancestorItem != null ? ancestorItem : FileSystemItemAncestorCache.NOT_ADAPTABLE);
+        return ancestorItem;
     }
 
     /**
@@ -168,6 +226,14 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
      */
     @Override
     public FileSystemItemFactory getFileSystemItemFactoryForId(String id) throws ClientException {
+        // Most ids are prefixed by the name of the factory that built them
+        Map<String, FileSystemItemFactory> factoriesByName = factoriesByIdPrefix;
+        if (factoriesByName != null) {
+            FileSystemItemFactory factory = factoriesByName.get(FileSystemItemId.getFactoryName(id));
+            if (factory != null && factory.canHandleFileSystemItemId(id)) {
+                return factory;
+            }
+        }
         Iterator<FileSystemItemFactoryWrapper> factoriesIt = fileSystemItemFactories.iterator();
         while (factoriesIt.hasNext()) {
             FileSystemItemFactoryWrapper factoryWrapper = factoriesIt.next();
@@ -247,6 +313,18 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
     protected void setActiveFactories() {
         topLevelFolderItemFactory = topLevelFolderItemFactoryRegistry.getActiveFactory(activeTopLevelFolderItemFactoryRegistry.activeFactory);
         fileSystemItemFactories = fileSystemItemFactoryRegistry.getOrderedActiveFactories(activeFileSystemItemFactoryRegistry.activeFactories);
+        factoryDispatchTable = new FileSystemItemFactoryDispatchTable(fileSystemItemFactories);
+        Map<String, FileSystemItemFactory> factoriesByName = new HashMap<String, FileSystemItemFactory>();
+        for (FileSystemItemFactoryWrapper factoryWrapper : fileSystemItemFactories) {
+            FileSystemItemFactory factory = factoryWrapper.getFactory();
+            if (!factoriesByName.containsKey(factory.getName())) {
+                factoriesByName.put(factory.getName(), factory);
+            }
+        }
+        if (topLevelFolderItemFactory != null && !factoriesByName.containsKey(topLevelFolderItemFactory.getName())) {
+            factoriesByName.put(topLevelFolderItemFactory.getName(), topLevelFolderItemFactory);
+        }
+        factoriesByIdPrefix = factoriesByName;
     }
 
     /**
@@ -260,8 +338,8 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
      * <li>It is bound to a facet that matches one of the given doc's facets</li>
      * </ul>
      */
-    protected FileSystemItem getFileSystemItem(DocumentModel doc, boolean forceParentItem, FolderItem parentItem,
-            boolean includeDeleted, boolean relaxSyncRootConstraint) throws ClientException {
+    protected FileSystemItemAdaptation adaptFileSystemItem(DocumentModel doc, boolean forceParentItem,
+            FolderItem parentItem, boolean includeDeleted, boolean relaxSyncRootConstraint) throws ClientException {
 
         FileSystemItem fileSystemItem = null;
 
@@ -272,7 +350,7 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
             fileSystemItem = getTopLevelFolderItemFactory().getFileSystemItem(doc, includeDeleted);
         }
         if (fileSystemItem != null) {
-            return fileSystemItem;
+            return FileSystemItemAdaptation.adapted(fileSystemItem);
         } else {
             if (log.isDebugEnabled()) {
                 log.debug(String.format(
@@ -283,40 +361,38 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
 
         // Try the fileSystemItemFactories
         FileSystemItemFactoryWrapper matchingFactory = null;
-        Iterator<FileSystemItemFactoryWrapper> factoriesIt = fileSystemItemFactories.iterator();
-        while (factoriesIt.hasNext()) {
-            FileSystemItemFactoryWrapper factory = factoriesIt.next();
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("Trying to adapt document %s (path: %s) as a FileSystemItem with factory %s",
-                        doc.getId(), doc.getPathAsString(), factory.getFactory().getName()));
-            }
-            if (generalFactoryMatches(factory) || docTypeFactoryMatches(factory, doc)
-                    || facetFactoryMatches(factory, doc, relaxSyncRootConstraint)) {
-                matchingFactory = factory;
-                try {
-                    if (forceParentItem) {
-                        fileSystemItem = factory.getFactory().getFileSystemItem(doc, parentItem, includeDeleted,
-                                relaxSyncRootConstraint);
-                    } else {
-                        fileSystemItem = factory.getFactory().getFileSystemItem(doc, includeDeleted,
-                                relaxSyncRootConstraint);
+        FileSystemItemFactoryDispatchTable table = factoryDispatchTable;
+        if (table != null) {
+            Boolean isSyncRoot = null;
+            for (FileSystemItemFactoryDispatchTable.Candidate candidate : table.getCandidates(doc)) {
+                if (candidate.isSyncRootOnly()) {
+                    if (isSyncRoot == null) {
+                        isSyncRoot = syncRootFactoryMatches(doc, relaxSyncRootConstraint);
                     }
-                } catch (RootlessItemException e) {
-                    // Give more information in the exception message on the
-                    // document whose adaption failed to recursively find the
-                    // top level item.
-                    throw new RootlessItemException(String.format("Cannot find path to registered top"
-                            + " level when adapting document " + " '%s' (path: %s) with factory %s", doc.getTitle(),
-                            doc.getPathAsString(), factory.getFactory().getName()), e);
+                    if (!isSyncRoot) {
+                        continue;
+                    }
+                }
+                matchingFactory = candidate.getFactory();
+                FileSystemItemAdaptation adaptation = adaptFileSystemItem(matchingFactory, doc, forceParentItem,
+                        parentItem, includeDeleted, relaxSyncRootConstraint);
+                if (adaptation.getStatus() != Status.NOT_ADAPTABLE) {
+                    return adaptation;
                 }
-                if (fileSystemItem != null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug(String.format(
-                                "Adapted document '%s' (path: %s) to item with path %s with factory %s",
-                                doc.getTitle(), doc.getPathAsString(), fileSystemItem.getPath(),
-                                factory.getFactory().getName()));
+            }
+        } else {
+            // Dispatch table not compiled yet, walk the factories
+            Iterator<FileSystemItemFactoryWrapper> factoriesIt = fileSystemItemFactories.iterator();
+            while (factoriesIt.hasNext()) {
+                FileSystemItemFactoryWrapper factory = factoriesIt.next();
+                if (generalFactoryMatches(factory) || docTypeFactoryMatches(factory, doc)
+                        || facetFactoryMatches(factory, doc, relaxSyncRootConstraint)) {
+                    matchingFactory = factory;
+                    FileSystemItemAdaptation adaptation = adaptFileSystemItem(factory, doc, forceParentItem,
+                            parentItem, includeDeleted, relaxSyncRootConstraint);
+                    if (adaptation.getStatus() != Status.NOT_ADAPTABLE) {
+                        return adaptation;
                     }
-                    return fileSystemItem;
                 }
             }
         }
@@ -334,7 +410,46 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
                         doc.getId()));
             }
         }
-        return fileSystemItem;
+        return FileSystemItemAdaptation.notAdaptable();
+    }
+
+    /**
+     * Adapts the given document with the given matching factory. A {@link RootlessItemException} raised by the factory
+     * is returned as a {@link Status#ROOTLESS} outcome.
+     *
+     * @since 7.3
+     */
+    protected FileSystemItemAdaptation adaptFileSystemItem(FileSystemItemFactoryWrapper factory, DocumentModel doc,
+            boolean forceParentItem, FolderItem parentItem, boolean includeDeleted, boolean relaxSyncRootConstraint)
+            throws ClientException {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Trying to adapt document %s (path: %s) as a FileSystemItem with factory %s",
+                    doc.getId(), doc.getPathAsString(), factory.getFactory().getName()));
+        }
+        FileSystemItem fileSystemItem;
+        try {
+            if (forceParentItem) {
+                fileSystemItem = factory.getFactory().getFileSystemItem(doc, parentItem, includeDeleted,
+                        relaxSyncRootConstraint);
+            } else {
+                fileSystemItem = factory.getFactory().getFileSystemItem(doc, includeDeleted, relaxSyncRootConstraint);
+            }
+        } catch (RootlessItemException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Cannot find path to registered top level when adapting document %s"
+                        + " (path: %s) with factory %s", doc.getId(), doc.getPathAsString(),
+                        factory.getFactory().getName()));
+            }
+            return FileSystemItemAdaptation.rootless(doc, factory.getFactory().getName(), e);
+        }
+        if (fileSystemItem == null) {
+            return FileSystemItemAdaptation.notAdaptable();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Adapted document '%s' (path: %s) to item with path %s with factory %s",
+                    doc.getTitle(), doc.getPathAsString(), fileSystemItem.getPath(), factory.getFactory().getName()));
+        }
+        return FileSystemItemAdaptation.adapted(fileSystemItem);
     }
 
     protected boolean generalFactoryMatches(FileSystemItemFactoryWrapper factory) {
@@ -380,19 +495,16 @@ public class FileSystemItemAdapterServiceImpl extends DefaultComponent implement
         return false;
     }
 
-    @SuppressWarnings("unchecked")
-    protected boolean syncRootFactoryMatches(DocumentModel doc, boolean relaxSyncRootConstraint) throws ClientException {
+    protected boolean syncRootFactoryMatches(DocumentModel doc, boolean relaxSyncRootConstraint)
+            throws ClientException {
         String userName = doc.getCoreSession().getPrincipal().getName();
-        List<Map<String, Object>> subscriptions = (List<Map<String, Object>>) doc.getPropertyValue(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY);
-        for (Map<String, Object> subscription : subscriptions) {
-            if (Boolean.TRUE.equals(subscription.get("enabled"))
-                    && (userName.equals(subscription.get("username")) || relaxSyncRootConstraint)) {
-                if (log.isTraceEnabled()) {
-                    log.trace(String.format("Doc %s (path: %s) registered as a sync root for user %s", doc.getId(),
-                            doc.getPathAsString(), userName));
-                }
-                return true;
+        SubscriptionStore subscriptionStore = Framework.getLocalService(NuxeoDriveManager.class).getSubscriptionStore();
+        if (subscriptionStore.isSubscribed(doc, relaxSyncRootConstraint ? null : userName)) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Doc %s (path: %s) registered as a sync root for user %s", doc.getId(),
+                        doc.getPathAsString(), userName));
             }
+            return true;
         }
         return false;
     }
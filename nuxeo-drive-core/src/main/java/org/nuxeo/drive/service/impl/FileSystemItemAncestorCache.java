@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.naming.NamingException;
+import javax.transaction.RollbackException;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.adapter.FileSystemItem;
+import org.nuxeo.drive.adapter.RootlessItemException;
+import org.nuxeo.drive.adapter.impl.AbstractDocumentBackedFileSystemItem;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Transaction scoped cache of the {@link FileSystemItem} adaptations of the ancestors of a document, which an
+ * {@link AbstractDocumentBackedFileSystemItem} resolves recursively when no parent item is given. Adapting many
+ * documents of the same folder within a transaction therefore only adapts the ancestor chain once.
+ * <p>
+ * Entries are keyed by principal, repository, document id and path, so that moving an ancestor within the transaction
+ * does not hit a stale entry, and the whole cache of the current thread is cleared when the synchronization roots or
+ * the collection sync root members of a user are invalidated. Outside of a transaction nothing is cached.
+ *
+ * @since 7.3
+ */
+public final class FileSystemItemAncestorCache {
+
+    private static final Log log = LogFactory.getLog(FileSystemItemAncestorCache.class);
+
+    /** Marker of an ancestor not adaptable as a {@link FileSystemItem}. */
+    protected static final Object NOT_ADAPTABLE = new Object();
+
+    /** Marker of an ancestor for which a {@link RootlessItemException} was raised. */
+    protected static final Object ROOTLESS = new Object();
+
+    protected static final ThreadLocal<Entries> ENTRIES = new ThreadLocal<Entries>();
+
+    private FileSystemItemAncestorCache() {
+        // Static helper
+    }
+
+    /**
+     * Returns the cached adaptation of the given ancestor, either a {@link FileSystemItem}, {@link #NOT_ADAPTABLE} or
+     * {@link #ROOTLESS}, or null if not cached.
+     */
+    public static Object get(DocumentModel ancestor, boolean relaxSyncRootConstraint) {
+        Map<String, Object> entries = getEntries(false);
+        return entries != null ? entries.get(getKey(ancestor, relaxSyncRootConstraint)) : null;
+    }
+
+    /**
+     * Caches the given adaptation of the given ancestor, see {@link #get(DocumentModel, boolean)}.
+     */
+    public static void put(DocumentModel ancestor, boolean relaxSyncRootConstraint, Object item) {
+        Map<String, Object> entries = getEntries(true);
+        if (entries != null) {
+            entries.put(getKey(ancestor, relaxSyncRootConstraint), item);
+        }
+    }
+
+    /**
+     * Clears the cache of the current thread.
+     */
+    public static void clear() {
+        ENTRIES.remove();
+    }
+
+    protected static String getKey(DocumentModel ancestor, boolean relaxSyncRootConstraint) {
+        return ancestor.getCoreSession().getPrincipal().getName() + ':' + ancestor.getRepositoryName() + ':'
+                + relaxSyncRootConstraint + ':' + ancestor.getId() + ':' + ancestor.getPathAsString();
+    }
+
+    protected static Map<String, Object> getEntries(boolean create) {
+        if (!TransactionHelper.isTransactionActive()) {
+            return null;
+        }
+        try {
+            Transaction transaction = TransactionHelper.lookupTransactionManager().getTransaction();
+            Entries entries = ENTRIES.get();
+            if (entries != null && entries.transaction == transaction) {
+                return entries.items;
+            }
+            if (!create) {
+                return null;
+            }
+            entries = new Entries(transaction);
+            transaction.registerSynchronization(entries);
+            ENTRIES.set(entries);
+            return entries.items;
+        } catch (SystemException | NamingException | RollbackException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot bind the file system item ancestor cache to the current transaction", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Entries bound to a transaction, dropped when it completes.
+     */
+    protected static class Entries implements Synchronization {
+
+        protected final Transaction transaction;
+
+        protected final Map<String, Object> items = new HashMap<String, Object>();
+
+        protected Entries(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void beforeCompletion() {
+            // Nothing to do
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            items.clear();
+            if (ENTRIES.get() == this) {
+                ENTRIES.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * Dispatch table of the ordered active {@link FileSystemItemFactoryWrapper}s, compiled when the active factories
+ * change, giving the candidate factories of a document from its type and facets without walking the whole list and
+ * comparing the docType and facet of each factory.
+ * <p>
+ * A candidate is either a general factory, bound to no docType nor facet, or a factory bound to the document type or
+ * to one of its facets. The candidates only matching through the {@link NuxeoDriveManagerImpl#NUXEO_DRIVE_FACET} are
+ * flagged so that the caller checks the synchronization root subscription, once per document.
+ * <p>
+ * The candidates are memoized by document type and facet set, these combinations being few.
+ *
+ * @since 7.3
+ */
+public class FileSystemItemFactoryDispatchTable {
+
+    protected static final int MAX_MEMOIZED_KEYS = 1000;
+
+    protected final List<FileSystemItemFactoryWrapper> factories;
+
+    protected final BitSet generalFactories = new BitSet();
+
+    protected final Map<String, BitSet> docTypeFactories = new HashMap<String, BitSet>();
+
+    protected final Map<String, BitSet> facetFactories = new HashMap<String, BitSet>();
+
+    protected final ConcurrentMap<String, List<Candidate>> candidates = new ConcurrentHashMap<>();
+
+    public FileSystemItemFactoryDispatchTable(List<FileSystemItemFactoryWrapper> factories) {
+        this.factories = new ArrayList<FileSystemItemFactoryWrapper>(factories);
+        for (int i = 0; i < this.factories.size(); i++) {
+            FileSystemItemFactoryWrapper factory = this.factories.get(i);
+            boolean general = true;
+            if (!StringUtils.isEmpty(factory.getDocType())) {
+                index(docTypeFactories, factory.getDocType(), i);
+                general = false;
+            }
+            if (!StringUtils.isEmpty(factory.getFacet())) {
+                index(facetFactories, factory.getFacet(), i);
+                general = false;
+            }
+            if (general) {
+                generalFactories.set(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the ordered candidate factories of the given document.
+     */
+    public List<Candidate> getCandidates(DocumentModel doc) {
+        return getCandidates(doc.getType(), doc.getFacets());
+    }
+
+    /**
+     * Returns the ordered candidate factories of a document of the given type having the given facets.
+     */
+    public List<Candidate> getCandidates(String docType, Set<String> facets) {
+        String key = getKey(docType, facets);
+        List<Candidate> docCandidates = candidates.get(key);
+        if (docCandidates == null) {
+            docCandidates = computeCandidates(docType, facets);
+            if (candidates.size() < MAX_MEMOIZED_KEYS) {
+                candidates.putIfAbsent(key, docCandidates);
+            }
+        }
+        return docCandidates;
+    }
+
+    protected List<Candidate> computeCandidates(String docType, Set<String> facets) {
+        BitSet docTypeMatches = new BitSet();
+        if (docType != null && docTypeFactories.containsKey(docType)) {
+            docTypeMatches.or(docTypeFactories.get(docType));
+        }
+        BitSet facetMatches = new BitSet();
+        BitSet syncRootFacetMatches = new BitSet();
+        for (String facet : facets) {
+            BitSet factoryIndexes = facetFactories.get(facet);
+            if (factoryIndexes != null) {
+                if (NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET.equals(facet)) {
+                    syncRootFacetMatches.or(factoryIndexes);
+                } else {
+                    facetMatches.or(factoryIndexes);
+                }
+            }
+        }
+        BitSet matches = new BitSet();
+        matches.or(generalFactories);
+        matches.or(docTypeMatches);
+        matches.or(facetMatches);
+        List<Candidate> docCandidates = new ArrayList<Candidate>();
+        for (int i = 0; i < factories.size(); i++) {
+            if (matches.get(i)) {
+                docCandidates.add(new Candidate(factories.get(i), false));
+            } else if (syncRootFacetMatches.get(i)) {
+                docCandidates.add(new Candidate(factories.get(i), true));
+            }
+        }
+        return Collections.unmodifiableList(docCandidates);
+    }
+
+    protected String getKey(String docType, Set<String> facets) {
+        StringBuilder key = new StringBuilder(docType);
+        for (String facet : new TreeSet<String>(facets)) {
+            key.append('/').append(facet);
+        }
+        return key.toString();
+    }
+
+    protected void index(Map<String, BitSet> factoryIndexes, String key, int index) {
+        BitSet indexes = factoryIndexes.get(key);
+        if (indexes == null) {
+            indexes = new BitSet();
+            factoryIndexes.put(key, indexes);
+        }
+        indexes.set(index);
+    }
+
+    /**
+     * A candidate factory, only matching if the document is a synchronization root of the current user when
+     * {@link #isSyncRootOnly()}.
+     */
+    public static final class Candidate {
+
+        protected final FileSystemItemFactoryWrapper factory;
+
+        protected final boolean syncRootOnly;
+
+        protected Candidate(FileSystemItemFactoryWrapper factory, boolean syncRootOnly) {
+            this.factory = factory;
+            this.syncRootOnly = syncRootOnly;
+        }
+
+        public FileSystemItemFactoryWrapper getFactory() {
+            return factory;
+        }
+
+        public boolean isSyncRootOnly() {
+            return syncRootOnly;
+        }
+    }
+
+}
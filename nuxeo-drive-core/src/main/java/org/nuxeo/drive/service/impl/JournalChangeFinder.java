@@ -0,0 +1,313 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.listener.NuxeoDriveChangeJournalListener;
+import org.nuxeo.drive.service.FileSystemChangeFinder;
+import org.nuxeo.drive.service.SynchronizationRoots;
+import org.nuxeo.ecm.collections.api.CollectionConstants;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
+import org.nuxeo.ecm.core.persistence.PersistenceProvider;
+import org.nuxeo.ecm.core.persistence.PersistenceProvider.RunCallback;
+import org.nuxeo.ecm.core.persistence.PersistenceProvider.RunVoid;
+import org.nuxeo.ecm.core.persistence.PersistenceProviderFactory;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
+import org.nuxeo.ecm.platform.audit.api.AuditLogger;
+import org.nuxeo.ecm.platform.audit.api.ExtendedInfo;
+import org.nuxeo.ecm.platform.audit.api.LogEntry;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Implementation of {@link FileSystemChangeFinder} reading a per-user change journal instead of filtering the whole
+ * audit log with the paths of the synchronization roots of the current user.
+ * <p>
+ * The journal is fed by the {@link NuxeoDriveChangeJournalListener} and the
+ * {@link org.nuxeo.drive.listener.NuxeoDriveFileSystemDeletionListener} through a {@link JournalWork} run after the
+ * commit: each event relevant to Nuxeo Drive is copied to a {@link JournalEntry} for every user having an enabled
+ * subscription on a synchronization root containing the source document. The change query then boils down to a range
+ * scan on the (user name, repository, id) index of the journal table, whatever the number of synchronization roots of
+ * the user.
+ * <p>
+ * The journal is stored in its own table, outside of the audit log, through the {@link #PERSISTENCE_UNIT} persistence
+ * unit: the {@code nuxeodrive-journal-persistence-contrib.xml} contribution of the {@code nuxeo-drive-core} bundle must
+ * be copied to the server configuration when selecting this change finder. The integer bounds are journal entry ids,
+ * see {@link #getUpperBound()}.
+ *
+ * @since 7.3
+ */
+public class JournalChangeFinder extends AuditChangeFinder {
+
+    private static final long serialVersionUID = -3463455962458549335L;
+
+    private static final Log log = LogFactory.getLog(JournalChangeFinder.class);
+
+    public static final String PERSISTENCE_UNIT = "nxdrive-journal";
+
+    protected static final String FILE_SYSTEM_ITEM_ID_EXTENDED_INFO = "fileSystemItemId";
+
+    protected static final String FILE_SYSTEM_ITEM_NAME_EXTENDED_INFO = "fileSystemItemName";
+
+    protected static final String[] COPIED_EXTENDED_INFOS = new String[] { FILE_SYSTEM_ITEM_ID_EXTENDED_INFO,
+            FILE_SYSTEM_ITEM_NAME_EXTENDED_INFO };
+
+    protected transient volatile PersistenceProvider persistenceProvider;
+
+    @Override
+    public boolean isIndexingChanges() {
+        return true;
+    }
+
+    /**
+     * The journal is already per user, nothing to share.
+     */
+    @Override
+    public boolean isSharedScanningSupported() {
+        return false;
+    }
+
+    /**
+     * Resolves the synchronization roots candidates for the given document, the document being possibly about to be
+     * removed, then leaves the fan-out to the journals of the impacted users to a {@link JournalWork} run after the
+     * commit.
+     */
+    @Override
+    public void indexChange(CoreSession session, DocumentModel doc, LogEntry sourceEntry, String impactedUserName)
+            throws ClientException {
+        List<String> candidateRootIds = null;
+        if (impactedUserName == null) {
+            candidateRootIds = getCandidateRootIds(session, doc);
+        }
+        WorkManager workManager = Framework.getLocalService(WorkManager.class);
+        workManager.schedule(new JournalWork(sourceEntry, impactedUserName, candidateRootIds), Scheduling.ENQUEUE,
+                true);
+    }
+
+    /**
+     * Adds the given entries to the journal.
+     */
+    public void addToJournal(final List<JournalEntry> journalEntries) throws ClientException {
+        getOrCreatePersistenceProvider().run(true, new RunVoid() {
+            @Override
+            public void runWith(EntityManager em) throws ClientException {
+                for (JournalEntry journalEntry : journalEntries) {
+                    em.persist(journalEntry);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the ids of the given document, its ancestors and its collections, to which a user must be subscribed for
+     * the document changes to be added to his journal.
+     */
+    protected List<String> getCandidateRootIds(CoreSession session, final DocumentModel doc) throws ClientException {
+        final List<String> candidateRootIds = new ArrayList<String>();
+        UnrestrictedSessionRunner runner = new UnrestrictedSessionRunner(session) {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() throws ClientException {
+                candidateRootIds.addAll(getAncestorIds(session, doc));
+                if (doc.hasSchema(CollectionConstants.COLLECTION_MEMBER_SCHEMA_NAME)) {
+                    List<String> collectionIds = (List<String>) doc.getPropertyValue(CollectionConstants.DOCUMENT_COLLECTION_IDS_PROPERTY_NAME);
+                    if (collectionIds != null) {
+                        candidateRootIds.addAll(collectionIds);
+                    }
+                }
+            }
+        };
+        runner.runUnrestricted();
+        return candidateRootIds;
+    }
+
+    /**
+     * Return the last id of the journal table to be used as the upper bound of the id range clause in the change
+     * query.
+     */
+    @Override
+    public long getUpperBound() {
+        Long maxId = getOrCreatePersistenceProvider().run(false, new RunCallback<Long>() {
+            @Override
+            public Long runWith(EntityManager em) throws ClientException {
+                return (Long) em.createQuery("select max(log.id) from DriveJournalEntry log").getSingleResult();
+            }
+        });
+        if (maxId == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Found no journal entries, returning -1");
+            }
+            return -1;
+        }
+        return maxId;
+    }
+
+    @Override
+    protected List<LogEntry> queryAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds, int limit) {
+        // See AuditChangeFinder#queryAuditEntries about sorting by eventDate
+        return queryAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                integerBounds, limit, "log.eventDate desc");
+    }
+
+    /**
+     * Queries the journal of the current user, then filters the entries on the active roots and collection sync root
+     * members since the subscriptions may have changed after the journal was fed, the "NuxeoDrive" events excepted.
+     * <p>
+     * The entries are returned unfiltered when reaching the limit, so that the caller doesn't miss the overflow.
+     */
+    @Override
+    protected List<LogEntry> queryAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds,
+            int limit, String orderBy) {
+        List<LogEntry> entries = queryUnfilteredAuditEntries(session, activeRoots, collectionSyncRootMemberIds,
+                lowerBound, upperBound, integerBounds, limit, orderBy);
+        if (entries.size() >= limit) {
+            return entries;
+        }
+        List<LogEntry> matchingEntries = new ArrayList<LogEntry>(entries.size());
+        for (LogEntry entry : entries) {
+            if (isSyncRootChange(entry) || isUnderActiveRoots(entry, activeRoots, collectionSyncRootMemberIds)) {
+                matchingEntries.add(entry);
+            }
+        }
+        return matchingEntries;
+    }
+
+    /**
+     * Queries the journal of the current user.
+     */
+    @Override
+    protected List<LogEntry> queryUnfilteredAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds,
+            final int limit, String orderBy) {
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("userName", session.getPrincipal().getName());
+        params.put("repositoryId", session.getRepositoryName());
+
+        StringBuilder journalQuerySb = new StringBuilder("from DriveJournalEntry log where ");
+        journalQuerySb.append("log.userName = :userName");
+        journalQuerySb.append(" and log.repositoryId = :repositoryId");
+        journalQuerySb.append(" and (");
+        journalQuerySb.append(getJPARangeClause(lowerBound, upperBound, integerBounds, params));
+        journalQuerySb.append(") order by ");
+        journalQuerySb.append(orderBy);
+        final String journalQuery = journalQuerySb.toString();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Querying change journal: " + journalQuery + " with params: " + params);
+        }
+        List<JournalEntry> journalEntries = getOrCreatePersistenceProvider().run(false,
+                new RunCallback<List<JournalEntry>>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public List<JournalEntry> runWith(EntityManager em) throws ClientException {
+                        Query query = em.createQuery(journalQuery);
+                        for (Map.Entry<String, Object> param : params.entrySet()) {
+                            query.setParameter(param.getKey(), param.getValue());
+                        }
+                        query.setMaxResults(limit);
+                        return query.getResultList();
+                    }
+                });
+        AuditLogger logger = Framework.getLocalService(AuditLogger.class);
+        List<LogEntry> entries = new ArrayList<LogEntry>(journalEntries.size());
+        for (JournalEntry journalEntry : journalEntries) {
+            entries.add(toLogEntry(logger, journalEntry));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a detached log entry holding the fields of the given journal entry, the journal entry id being used as
+     * the log entry id.
+     */
+    protected LogEntry toLogEntry(AuditLogger logger, JournalEntry journalEntry) {
+        LogEntry entry = logger.newLogEntry();
+        entry.setId(journalEntry.getId());
+        entry.setLogDate(journalEntry.getLogDate());
+        entry.setEventId(journalEntry.getEventId());
+        entry.setEventDate(journalEntry.getEventDate());
+        entry.setCategory(journalEntry.getCategory());
+        entry.setPrincipalName(journalEntry.getPrincipalName());
+        entry.setDocUUID(journalEntry.getDocUUID());
+        entry.setDocPath(journalEntry.getDocPath());
+        entry.setDocType(journalEntry.getDocType());
+        entry.setDocLifeCycle(journalEntry.getDocLifeCycle());
+        entry.setRepositoryId(journalEntry.getRepositoryId());
+        Map<String, ExtendedInfo> extendedInfos = new HashMap<String, ExtendedInfo>();
+        if (journalEntry.getFileSystemItemId() != null) {
+            extendedInfos.put(FILE_SYSTEM_ITEM_ID_EXTENDED_INFO,
+                    logger.newExtendedInfo(journalEntry.getFileSystemItemId()));
+        }
+        if (journalEntry.getFileSystemItemName() != null) {
+            extendedInfos.put(FILE_SYSTEM_ITEM_NAME_EXTENDED_INFO,
+                    logger.newExtendedInfo(journalEntry.getFileSystemItemName()));
+        }
+        entry.setExtendedInfos(extendedInfos);
+        return entry;
+    }
+
+    /**
+     * Returns the provider of the {@link #PERSISTENCE_UNIT} persistence unit, opening it on first call.
+     */
+    public PersistenceProvider getOrCreatePersistenceProvider() {
+        PersistenceProvider provider = persistenceProvider;
+        if (provider == null) {
+            synchronized (this) {
+                provider = persistenceProvider;
+                if (provider == null) {
+                    PersistenceProviderFactory factory = Framework.getLocalService(PersistenceProviderFactory.class);
+                    provider = factory.newProvider(PERSISTENCE_UNIT);
+                    provider.openPersistenceUnit();
+                    persistenceProvider = provider;
+                }
+            }
+        }
+        return provider;
+    }
+
+    protected boolean isUnderActiveRoots(LogEntry entry, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds) {
+        if (collectionSyncRootMemberIds != null && collectionSyncRootMemberIds.contains(entry.getDocUUID())) {
+            return true;
+        }
+        if (activeRoots == null || entry.getDocPath() == null) {
+            return false;
+        }
+        for (String rootPath : activeRoots.getPaths()) {
+            if (entry.getDocPath().startsWith(rootPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
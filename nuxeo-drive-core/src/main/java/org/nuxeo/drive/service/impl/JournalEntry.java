@@ -0,0 +1,211 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * Entry of the per-user change journal read by the {@link JournalChangeFinder}, stored in its own
+ * {@link #TABLE_NAME} table of the {@link JournalChangeFinder#PERSISTENCE_UNIT} persistence unit.
+ * <p>
+ * Holds the event and document fields of the source audit entry along with the user whose journal it belongs to, the
+ * (user name, repository, id) index backing the change query.
+ *
+ * @since 7.3
+ */
+@Entity(name = "DriveJournalEntry")
+@Table(name = JournalEntry.TABLE_NAME)
+@org.hibernate.annotations.Table(appliesTo = JournalEntry.TABLE_NAME, indexes = { @Index(
+        name = "NXP_DRIVE_JOURNAL_USER_IDX", columnNames = { "JOURNAL_USER_NAME", "JOURNAL_REPOSITORY_ID",
+                "JOURNAL_ID" }) })
+public class JournalEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String TABLE_NAME = "NXP_DRIVE_JOURNAL";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "JOURNAL_ID", nullable = false)
+    protected long id;
+
+    @Column(name = "JOURNAL_USER_NAME", nullable = false)
+    protected String userName;
+
+    @Column(name = "JOURNAL_REPOSITORY_ID")
+    protected String repositoryId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "JOURNAL_DATE")
+    protected Date logDate;
+
+    @Column(name = "JOURNAL_EVENT_ID")
+    protected String eventId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "JOURNAL_EVENT_DATE")
+    protected Date eventDate;
+
+    @Column(name = "JOURNAL_CATEGORY")
+    protected String category;
+
+    @Column(name = "JOURNAL_PRINCIPAL_NAME")
+    protected String principalName;
+
+    @Column(name = "JOURNAL_DOC_UUID")
+    protected String docUUID;
+
+    @Column(name = "JOURNAL_DOC_PATH", length = 1024)
+    protected String docPath;
+
+    @Column(name = "JOURNAL_DOC_TYPE")
+    protected String docType;
+
+    @Column(name = "JOURNAL_DOC_LIFE_CYCLE")
+    protected String docLifeCycle;
+
+    @Column(name = "JOURNAL_FS_ITEM_ID", length = 1024)
+    protected String fileSystemItemId;
+
+    @Column(name = "JOURNAL_FS_ITEM_NAME", length = 1024)
+    protected String fileSystemItemName;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+
+    public String getRepositoryId() {
+        return repositoryId;
+    }
+
+    public void setRepositoryId(String repositoryId) {
+        this.repositoryId = repositoryId;
+    }
+
+    public Date getLogDate() {
+        return logDate;
+    }
+
+    public void setLogDate(Date logDate) {
+        this.logDate = logDate;
+    }
+
+    public String getEventId() {
+        return eventId;
+    }
+
+    public void setEventId(String eventId) {
+        this.eventId = eventId;
+    }
+
+    public Date getEventDate() {
+        return eventDate;
+    }
+
+    public void setEventDate(Date eventDate) {
+        this.eventDate = eventDate;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public String getPrincipalName() {
+        return principalName;
+    }
+
+    public void setPrincipalName(String principalName) {
+        this.principalName = principalName;
+    }
+
+    public String getDocUUID() {
+        return docUUID;
+    }
+
+    public void setDocUUID(String docUUID) {
+        this.docUUID = docUUID;
+    }
+
+    public String getDocPath() {
+        return docPath;
+    }
+
+    public void setDocPath(String docPath) {
+        this.docPath = docPath;
+    }
+
+    public String getDocType() {
+        return docType;
+    }
+
+    public void setDocType(String docType) {
+        this.docType = docType;
+    }
+
+    public String getDocLifeCycle() {
+        return docLifeCycle;
+    }
+
+    public void setDocLifeCycle(String docLifeCycle) {
+        this.docLifeCycle = docLifeCycle;
+    }
+
+    public String getFileSystemItemId() {
+        return fileSystemItemId;
+    }
+
+    public void setFileSystemItemId(String fileSystemItemId) {
+        this.fileSystemItemId = fileSystemItemId;
+    }
+
+    public String getFileSystemItemName() {
+        return fileSystemItemName;
+    }
+
+    public void setFileSystemItemName(String fileSystemItemName) {
+        this.fileSystemItemName = fileSystemItemName;
+    }
+
+}
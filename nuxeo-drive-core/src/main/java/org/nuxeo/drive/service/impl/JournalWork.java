@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.listener.NuxeoDriveChangeJournalListener;
+import org.nuxeo.drive.service.NuxeoDriveManager;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.platform.audit.api.ExtendedInfo;
+import org.nuxeo.ecm.platform.audit.api.LogEntry;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Copies a change entry to the journal of the impacted users once the transaction of the change has been committed,
+ * see {@link JournalChangeFinder#indexChange(org.nuxeo.ecm.core.api.CoreSession, org.nuxeo.ecm.core.api.DocumentModel,
+ * LogEntry, String)}.
+ * <p>
+ * Only holds the fields of the source entry, the synchronization root candidates being resolved beforehand since the
+ * document may not exist anymore.
+ *
+ * @since 7.3
+ */
+public class JournalWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(JournalWork.class);
+
+    protected final String eventId;
+
+    protected final Date eventDate;
+
+    protected final String category;
+
+    protected final String principalName;
+
+    protected final String docUUID;
+
+    protected final String docPath;
+
+    protected final String docType;
+
+    protected final String docLifeCycle;
+
+    protected final HashMap<String, String> extendedInfos = new HashMap<String, String>();
+
+    protected final String impactedUserName;
+
+    protected final ArrayList<String> candidateRootIds;
+
+    /**
+     * @param impactedUserName the only user whose journal is impacted, null to impact the users subscribed to one of
+     *            the given candidate roots
+     */
+    public JournalWork(LogEntry sourceEntry, String impactedUserName, List<String> candidateRootIds) {
+        setDocument(sourceEntry.getRepositoryId(), sourceEntry.getDocUUID());
+        eventId = sourceEntry.getEventId();
+        eventDate = sourceEntry.getEventDate();
+        category = sourceEntry.getCategory();
+        principalName = sourceEntry.getPrincipalName();
+        docUUID = sourceEntry.getDocUUID();
+        docPath = sourceEntry.getDocPath();
+        docType = sourceEntry.getDocType();
+        docLifeCycle = sourceEntry.getDocLifeCycle();
+        Map<String, ExtendedInfo> sourceExtendedInfos = sourceEntry.getExtendedInfos();
+        if (sourceExtendedInfos != null) {
+            for (String key : JournalChangeFinder.COPIED_EXTENDED_INFOS) {
+                ExtendedInfo info = sourceExtendedInfos.get(key);
+                if (info != null) {
+                    extendedInfos.put(key, info.getValue(String.class));
+                }
+            }
+        }
+        this.impactedUserName = impactedUserName;
+        this.candidateRootIds = candidateRootIds != null ? new ArrayList<String>(candidateRootIds) : null;
+    }
+
+    @Override
+    public String getTitle() {
+        return String.format("Nuxeo Drive change journal: %s on %s", eventId, docUUID);
+    }
+
+    @Override
+    public void work() {
+        AuditChangeFinder changeFinder = NuxeoDriveChangeJournalListener.getIndexingChangeFinder();
+        if (!(changeFinder instanceof JournalChangeFinder)) {
+            // The change finder has been replaced meanwhile
+            return;
+        }
+        Set<String> userNames;
+        if (impactedUserName != null) {
+            userNames = Collections.singleton(impactedUserName);
+        } else {
+            initSession();
+            NuxeoDriveManager driveManager = Framework.getLocalService(NuxeoDriveManager.class);
+            userNames = driveManager.getSubscriptionStore().getSubscribedUserNames(session, candidateRootIds);
+        }
+        if (userNames.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("No user subscribed to a synchronization root containing document %s,"
+                        + " not adding event '%s' to any journal.", docUUID, eventId));
+            }
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Adding event '%s' on document %s to the journal of users %s.", eventId,
+                    docUUID, userNames));
+        }
+        List<JournalEntry> journalEntries = new ArrayList<JournalEntry>(userNames.size());
+        for (String userName : userNames) {
+            journalEntries.add(newJournalEntry(userName));
+        }
+        ((JournalChangeFinder) changeFinder).addToJournal(journalEntries);
+    }
+
+    protected JournalEntry newJournalEntry(String userName) {
+        JournalEntry entry = new JournalEntry();
+        entry.setUserName(userName);
+        entry.setRepositoryId(repositoryName);
+        entry.setLogDate(new Date());
+        entry.setEventId(eventId);
+        entry.setEventDate(eventDate);
+        entry.setCategory(category);
+        entry.setPrincipalName(principalName);
+        entry.setDocUUID(docUUID);
+        entry.setDocPath(docPath);
+        entry.setDocType(docType);
+        entry.setDocLifeCycle(docLifeCycle);
+        entry.setFileSystemItemId(extendedInfos.get(JournalChangeFinder.FILE_SYSTEM_ITEM_ID_EXTENDED_INFO));
+        entry.setFileSystemItemName(extendedInfos.get(JournalChangeFinder.FILE_SYSTEM_ITEM_NAME_EXTENDED_INFO));
+        return entry;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.CacheInvalidation;
+import org.nuxeo.drive.service.CacheInvalidationBus;
+
+/**
+ * In-JVM {@link CacheInvalidationBus} synchronously delivering the invalidations to all the subscribers of the JVM,
+ * typically used to test several {@link NuxeoDriveManagerImpl} instances standing for the nodes of a cluster.
+ *
+ * @since 7.3
+ */
+public class LocalCacheInvalidationBus implements CacheInvalidationBus {
+
+    private static final Log log = LogFactory.getLog(LocalCacheInvalidationBus.class);
+
+    protected static final Set<Subscriber> SUBSCRIBERS = new CopyOnWriteArraySet<Subscriber>();
+
+    @Override
+    public void subscribe(Subscriber subscriber) {
+        SUBSCRIBERS.add(subscriber);
+    }
+
+    @Override
+    public void unsubscribe(Subscriber subscriber) {
+        SUBSCRIBERS.remove(subscriber);
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        for (Subscriber subscriber : SUBSCRIBERS) {
+            try {
+                subscriber.handleInvalidation(invalidation);
+            } catch (RuntimeException e) {
+                log.error("Error while handling cache invalidation " + invalidation, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+
+/**
+ * Exposes the statistics of the Nuxeo Drive caches and the time spent loading their entries through a
+ * {@link MetricRegistry}, all the metric names being prefixed by {@link #PREFIX}.
+ * <p>
+ * For each cache, gauges are registered for the size, the hit and miss counts, the hit rate and the eviction count,
+ * and a timer records the load time histogram.
+ *
+ * @since 7.3
+ */
+public class NuxeoDriveCacheMetrics {
+
+    public static final String PREFIX = "org.nuxeo.drive";
+
+    protected static final MetricFilter FILTER = new MetricFilter() {
+        @Override
+        public boolean matches(String name, Metric metric) {
+            return name.startsWith(PREFIX + ".");
+        }
+    };
+
+    protected final MetricRegistry registry;
+
+    protected JmxReporter jmxReporter;
+
+    public NuxeoDriveCacheMetrics(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registers the gauges of the given cache, expected to record its stats, replacing the ones of a previously
+     * registered cache with the same name.
+     */
+    public void registerCache(String cacheName, final Cache<?, ?> cache) {
+        register(cacheName, "size", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+        register(cacheName, "hitCount", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().hitCount();
+            }
+        });
+        register(cacheName, "missCount", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().missCount();
+            }
+        });
+        register(cacheName, "hitRate", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return cache.stats().hitRate();
+            }
+        });
+        register(cacheName, "evictionCount", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().evictionCount();
+            }
+        });
+    }
+
+    /**
+     * Returns the timer recording the time spent loading the entries of the given cache.
+     */
+    public Timer getLoadTimer(String cacheName) {
+        return registry.timer(MetricRegistry.name(PREFIX, cacheName, "load"));
+    }
+
+    /**
+     * Exposes the metrics through JMX in the {@link #PREFIX} domain.
+     */
+    public synchronized void startJmxReporter() {
+        if (jmxReporter == null) {
+            jmxReporter = JmxReporter.forRegistry(registry).inDomain(PREFIX).filter(FILTER).build();
+            jmxReporter.start();
+        }
+    }
+
+    /**
+     * Stops the JMX reporter and removes all the metrics.
+     */
+    public synchronized void stop() {
+        if (jmxReporter != null) {
+            jmxReporter.stop();
+            jmxReporter = null;
+        }
+        registry.removeMatching(FILTER);
+    }
+
+    protected void register(String cacheName, String metricName, Gauge<?> gauge) {
+        String name = MetricRegistry.name(PREFIX, cacheName, metricName);
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+
+}
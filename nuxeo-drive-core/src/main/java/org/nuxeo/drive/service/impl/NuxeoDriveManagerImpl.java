@@ -19,85 +19,333 @@ package org.nuxeo.drive.service.impl;
 
 import static org.nuxeo.ecm.platform.query.nxql.CoreQueryDocumentPageProvider.CORE_SESSION_PROPERTY;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.Principal;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.naming.NamingException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.Environment;
 import org.nuxeo.common.utils.Path;
+import org.nuxeo.drive.service.CacheInvalidation;
+import org.nuxeo.drive.service.CacheInvalidation.Type;
+import org.nuxeo.drive.service.CacheInvalidationBus;
 import org.nuxeo.drive.service.FileSystemChangeFinder;
 import org.nuxeo.drive.service.FileSystemChangeSummary;
 import org.nuxeo.drive.service.FileSystemItemChange;
 import org.nuxeo.drive.service.NuxeoDriveEvents;
 import org.nuxeo.drive.service.NuxeoDriveManager;
+import org.nuxeo.drive.service.SubscriptionStore;
 import org.nuxeo.drive.service.SynchronizationRoots;
 import org.nuxeo.drive.service.TooManyChangesException;
+import org.nuxeo.drive.service.impl.ChangeWatchRegistry.ChangeWatch;
 import org.nuxeo.ecm.collections.api.CollectionConstants;
 import org.nuxeo.ecm.collections.api.CollectionManager;
 import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.ClientRuntimeException;
 import org.nuxeo.ecm.core.api.CoreInstance;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.LifeCycleConstants;
 import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
 import org.nuxeo.ecm.core.api.event.CoreEventConstants;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
 import org.nuxeo.ecm.core.api.repository.RepositoryManager;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventService;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
 import org.nuxeo.ecm.core.query.sql.NXQL;
-import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
-import org.nuxeo.ecm.platform.ec.notification.NotificationConstants;
+import org.nuxeo.ecm.platform.audit.api.AuditReader;
+import org.nuxeo.ecm.platform.audit.api.LogEntry;
 import org.nuxeo.ecm.platform.query.api.PageProvider;
 import org.nuxeo.ecm.platform.query.api.PageProviderService;
-import org.nuxeo.ecm.platform.query.nxql.NXQLQueryBuilder;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 /**
  * Manage list of NuxeoDrive synchronization roots and devices for a given nuxeo user.
  */
-public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriveManager {
+public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriveManager,
+        CacheInvalidationBus.Subscriber {
 
     private static final Log log = LogFactory.getLog(NuxeoDriveManagerImpl.class);
 
     public static final String CHANGE_FINDER_EP = "changeFinder";
 
+    /**
+     * @since 7.3
+     */
+    public static final String CACHE_INVALIDATION_BUS_EP = "cacheInvalidationBus";
+
+    /**
+     * Name of the synchronization root cache in the metrics, see {@link NuxeoDriveCacheMetrics}.
+     *
+     * @since 7.3
+     */
+    public static final String SYNC_ROOT_CACHE_NAME = "syncRootCache";
+
+    /**
+     * Name of the collection sync root member cache in the metrics, see {@link NuxeoDriveCacheMetrics}.
+     *
+     * @since 7.3
+     */
+    public static final String COLLECTION_SYNC_ROOT_MEMBER_CACHE_NAME = "collectionSyncRootMemberCache";
+
+    /**
+     * Framework property allowing to disable the exposure of the cache metrics through JMX in the
+     * {@code org.nuxeo.drive} domain, enabled by default.
+     *
+     * @since 7.3
+     */
+    public static final String CACHE_METRICS_JMX_ENABLED_PROPERTY = "org.nuxeo.drive.metrics.jmx.enabled";
+
     public static final String NUXEO_DRIVE_FACET = "DriveSynchronized";
 
     public static final String DRIVE_SUBSCRIPTIONS_PROPERTY = "drv:subscriptions";
 
     public static final String DOCUMENT_CHANGE_LIMIT_PROPERTY = "org.nuxeo.drive.document.change.limit";
 
+    /**
+     * Framework property enabling the {@link SharedChangeScanner}, false by default.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SCANNER_ENABLED_PROPERTY = "org.nuxeo.drive.change.scanner.enabled";
+
+    /**
+     * Framework property holding the maximum number of audit entries kept in memory by the {@link SharedChangeScanner}
+     * for each repository, 10000 by default.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SCANNER_WINDOW_SIZE_PROPERTY = "org.nuxeo.drive.change.scanner.windowSize";
+
+    /**
+     * Framework property holding the interval in milliseconds between two background scans of the
+     * {@link SharedChangeScanner}, 5000 by default.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SCANNER_INTERVAL_PROPERTY = "org.nuxeo.drive.change.scanner.interval";
+
+    /**
+     * Framework property holding the maximum time in milliseconds a change watch published by an empty change summary
+     * stays valid, 60000 by default, see {@link #getChangeSummaryIntegerBounds(Principal, Map, long, long)}.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SUMMARY_MAX_WATCH_TIMEOUT_PROPERTY = "org.nuxeo.drive.change.summary"
+            + ".maxWatchTimeout";
+
+    /**
+     * Framework property holding the maximum number of change watches at the same time, 10000 by default. Beyond this
+     * number, the least recently published watches are evicted and the changes of the next requests of their users are
+     * queried.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SUMMARY_MAX_WATCHES_PROPERTY = "org.nuxeo.drive.change.summary.maxWatches";
+
+    /**
+     * Framework property allowing to persist the synchronization root and collection sync root member caches to a
+     * local snapshot periodically and on shutdown, reloaded on startup, disabled by default. See {@link CacheSnapshot}.
+     *
+     * @since 7.3
+     */
+    public static final String CACHE_SNAPSHOT_ENABLED_PROPERTY = "org.nuxeo.drive.cacheSnapshot.enabled";
+
+    /**
+     * Framework property holding the path of the cache snapshot file, {@code nuxeo-drive/cache.snapshot} in the data
+     * directory by default.
+     *
+     * @since 7.3
+     */
+    public static final String CACHE_SNAPSHOT_FILE_PROPERTY = "org.nuxeo.drive.cacheSnapshot.file";
+
+    /**
+     * Framework property holding the interval in milliseconds between two cache snapshots, 300000 by default.
+     *
+     * @since 7.3
+     */
+    public static final String CACHE_SNAPSHOT_INTERVAL_PROPERTY = "org.nuxeo.drive.cacheSnapshot.interval";
+
+    /**
+     * Audit events after which the cached synchronization roots or collection sync root members may be stale.
+     *
+     * @since 7.3
+     */
+    protected static final String[] CACHE_IMPACTING_EVENTS = new String[] { NuxeoDriveEvents.ROOT_REGISTERED,
+            NuxeoDriveEvents.ROOT_UNREGISTERED, NuxeoDriveEvents.DELETED_EVENT, NuxeoDriveEvents.SECURITY_UPDATED_EVENT,
+            DocumentEventTypes.DOCUMENT_MOVED, DocumentEventTypes.DOCUMENT_REMOVED,
+            DocumentEventTypes.DOCUMENT_SECURITY_UPDATED, LifeCycleConstants.TRANSITION_EVENT,
+            CollectionConstants.ADDED_TO_COLLECTION, CollectionConstants.REMOVED_FROM_COLLECTION };
+
+    /**
+     * Maximum number of audit entries applied to a cache snapshot when loading it, discarded if more.
+     *
+     * @since 7.3
+     */
+    protected static final int CACHE_SNAPSHOT_MAX_ENTRIES = 10000;
+
+    /**
+     * Margin in milliseconds applied to the snapshot date when looking for the events impacting it, the event date of
+     * an audit entry being the one of the event, not of its commit.
+     *
+     * @since 7.3
+     */
+    protected static final long CACHE_SNAPSHOT_VALIDATION_MARGIN = 600000;
+
+    /**
+     * Framework property enabling the compaction of the change summaries by the {@link FileSystemChangeCompactor},
+     * false by default.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_COMPACTION_ENABLED_PROPERTY = "org.nuxeo.drive.change.compaction.enabled";
+
+    /**
+     * Framework property enabling the pagination of the change summaries, false by default. When enabled, a change
+     * range holding too many changes is narrowed down to a page whose upper bound is returned as a continuation cursor,
+     * see {@link FileSystemChangeSummary#getHasMoreChanges()}, instead of flagging the summary with
+     * {@link FileSystemChangeSummary#getHasTooManyChanges()}.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_PAGINATION_ENABLED_PROPERTY = "org.nuxeo.drive.change.pagination.enabled";
+
+    /**
+     * Framework property enabling getting the changes of several repositories concurrently, true by default. If false,
+     * the repositories are queried sequentially.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SUMMARY_PARALLEL_ENABLED_PROPERTY = "org.nuxeo.drive.change.summary.parallel";
+
+    /**
+     * Framework property holding the number of threads used to get the changes of several repositories concurrently,
+     * 4 by default.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SUMMARY_POOL_SIZE_PROPERTY = "org.nuxeo.drive.change.summary.poolSize";
+
+    /**
+     * Framework property holding the time in milliseconds allowed to get the changes of the repositories when done
+     * concurrently, 30000 by default. If the timeout expires, the returned summary holds no changes and its upper bound
+     * is the requested lower bound so that the same range is queried again by the next call.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_SUMMARY_REPOSITORY_TIMEOUT_PROPERTY = "org.nuxeo.drive.change.summary"
+            + ".repositoryTimeout";
+
+    /**
+     * Framework property holding the maximum age in milliseconds of the change upper bound cached for all the change
+     * summary requests, 0 by default meaning that the change finder is queried for each request.
+     *
+     * @since 7.3
+     * @see ChangeUpperBoundCache
+     */
+    public static final String CHANGE_UPPER_BOUND_MAX_AGE_PROPERTY = "org.nuxeo.drive.change.upperBound.maxAge";
+
+    /**
+     * Framework property holding the age in milliseconds after which the synchronization roots of a user are refreshed
+     * in the background, 60000 by default.
+     *
+     * @since 7.3
+     */
+    public static final String SYNC_ROOTS_REFRESH_INTERVAL_PROPERTY = "org.nuxeo.drive.syncRoots.refreshInterval";
+
+    /**
+     * Framework property holding the time in milliseconds after which the synchronization roots of a user that have
+     * not been read are evicted from the cache, 1800000 by default.
+     *
+     * @since 7.3
+     */
+    public static final String SYNC_ROOTS_EXPIRE_AFTER_ACCESS_PROPERTY = "org.nuxeo.drive.syncRoots.expireAfterAccess";
+
+    /**
+     * Framework property holding the time in milliseconds after which the collection sync root member ids of a user
+     * are evicted from the cache, 60000 by default. May be raised when a {@link CacheInvalidationBus} is contributed.
+     *
+     * @since 7.3
+     */
+    public static final String COLLECTION_SYNC_ROOT_MEMBERS_TTL_PROPERTY = "org.nuxeo.drive.collectionSyncRootMembers"
+            + ".ttl";
+
+    /**
+     * Framework property selecting the {@link SubscriptionStore} holding the synchronization root subscriptions:
+     * "facet" (default) for the {@link #DRIVE_SUBSCRIPTIONS_PROPERTY} of the synchronization roots, "directory" for
+     * the {@link DirectorySubscriptionStore#DIRECTORY_NAME} directory. The latter is not deployed by default, see
+     * {@link DirectorySubscriptionStore#activate()}.
+     *
+     * @since 7.3
+     */
+    public static final String SUBSCRIPTION_STORE_PROPERTY = "org.nuxeo.drive.subscriptionStore";
+
     public static final TimeZone UTC = TimeZone.getTimeZone("UTC");
 
     protected static final long COLLECTION_CONTENT_PAGE_SIZE = 1000L;
 
     /**
-     * Cache holding the synchronization roots for a given user (first map key) and repository (second map key).
+     * @since 7.3
      */
-    protected Cache<String, Map<String, SynchronizationRoots>> syncRootCache;
+    protected volatile SubscriptionStore subscriptionStore;
+
+    /**
+     * Cache holding the synchronization roots for a given user and repository (map key).
+     */
+    protected SynchronizationRootsCache syncRootCache;
 
     /**
      * Cache holding the collection sync root member ids for a given user (first map key) and repository (second map
@@ -105,43 +353,392 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
      */
     protected Cache<String, Map<String, Set<String>>> collectionSyncRootMemberCache;
 
+    /**
+     * Incremented on each collection membership change or collection sync root member cache invalidation.
+     *
+     * @since 7.3
+     */
+    protected final AtomicLong collectionMembershipGeneration = new AtomicLong();
+
     protected static ChangeFinderRegistry changeFinderRegistry;
 
     protected FileSystemChangeFinder changeFinder;
 
+    /**
+     * Null if disabled, see {@link #initChangeScanner()}.
+     *
+     * @since 7.3
+     */
+    protected volatile SharedChangeScanner changeScanner;
+
+    /**
+     * @since 7.3
+     */
+    protected ChangeWatchRegistry changeWatches;
+
+    /**
+     * @since 7.3
+     */
+    protected long maxWatchTimeout;
+
+    /**
+     * @since 7.3
+     */
+    protected FileSystemChangeCompactor changeCompactor = new FileSystemChangeCompactor();
+
+    /**
+     * Null if the repositories are queried sequentially, see {@link #initChangeSummaryExecutor()}.
+     *
+     * @since 7.3
+     */
+    protected volatile ExecutorService changeSummaryExecutor;
+
+    /**
+     * @since 7.3
+     */
+    protected volatile long changeSummaryRepositoryTimeout;
+
+    /**
+     * Null if disabled, see {@link #initChangeUpperBoundCache()}.
+     *
+     * @since 7.3
+     */
+    protected volatile ChangeUpperBoundCache changeUpperBoundCache;
+
+    /**
+     * Identifies this node in the published cache invalidations.
+     *
+     * @since 7.3
+     */
+    protected final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * @since 7.3
+     */
+    protected final LinkedList<CacheInvalidationBusDescriptor> invalidationBusDescriptors = new LinkedList<>();
+
+    /**
+     * @since 7.3
+     */
+    protected volatile CacheInvalidationBus invalidationBus;
+
+    /**
+     * @since 7.3
+     */
+    protected final ThreadLocal<TransactionCacheUpdates> transactionCacheUpdates = new ThreadLocal<>();
+
+    /**
+     * @since 7.3
+     */
+    protected volatile CacheSnapshot cacheSnapshot;
+
+    /**
+     * @since 7.3
+     */
+    protected ScheduledExecutorService cacheSnapshotExecutor;
+
+    /**
+     * @since 7.3
+     */
+    protected final NuxeoDriveCacheMetrics cacheMetrics = new NuxeoDriveCacheMetrics(
+            SharedMetricRegistries.getOrCreate(MetricsService.class.getName()));
+
     public NuxeoDriveManagerImpl() {
-        syncRootCache = CacheBuilder.newBuilder().concurrencyLevel(4).maximumSize(10000).expireAfterWrite(1,
-                TimeUnit.MINUTES).build();
+        long refreshInterval = Long.parseLong(Framework.getProperty(SYNC_ROOTS_REFRESH_INTERVAL_PROPERTY, "60000"));
+        long expireAfterAccess = Long.parseLong(Framework.getProperty(SYNC_ROOTS_EXPIRE_AFTER_ACCESS_PROPERTY,
+                "1800000"));
+        syncRootCache = new SynchronizationRootsCache(new SynchronizationRootsCache.Loader() {
+            @Override
+            public Map<String, SynchronizationRoots> load(Principal principal) throws ClientException {
+                CacheSnapshot snapshot = cacheSnapshot;
+                if (snapshot != null) {
+                    Map<String, SynchronizationRoots> roots = snapshot.removeSynchronizationRoots(principal.getName());
+                    if (roots != null) {
+                        return roots;
+                    }
+                }
+                Timer.Context timerContext = cacheMetrics.getLoadTimer(SYNC_ROOT_CACHE_NAME).time();
+                try {
+                    return computeSynchronizationRoots(principal);
+                } finally {
+                    timerContext.stop();
+                }
+            }
+        }, refreshInterval, expireAfterAccess);
+        long collectionSyncRootMembersTTL = Long.parseLong(Framework.getProperty(
+                COLLECTION_SYNC_ROOT_MEMBERS_TTL_PROPERTY, "60000"));
         collectionSyncRootMemberCache = CacheBuilder.newBuilder().concurrencyLevel(4).maximumSize(10000).expireAfterWrite(
-                1, TimeUnit.MINUTES).build();
+                collectionSyncRootMembersTTL, TimeUnit.MILLISECONDS).recordStats().build();
     }
 
     protected void clearCache() {
-        log.debug("Invalidating synchronization root cache and collection sync root member cache for all users");
-        syncRootCache.invalidateAll();
-        collectionSyncRootMemberCache.invalidateAll();
+        invalidateCaches(Type.SYNCHRONIZATION_ROOTS, null, null, null, null);
+        invalidateCaches(Type.COLLECTION_SYNC_ROOT_MEMBERS, null, null, null, null);
     }
 
     @Override
     public void invalidateSynchronizationRootsCache(String userName) {
-        if (log.isDebugEnabled()) {
-            log.debug("Invalidating synchronization root cache for user: " + userName);
-        }
-        syncRootCache.invalidate(userName);
+        invalidateCaches(Type.SYNCHRONIZATION_ROOTS, userName, null, null, null);
     }
 
     @Override
     public void invalidateCollectionSyncRootMemberCache(String userName) {
+        invalidateCaches(Type.COLLECTION_SYNC_ROOT_MEMBERS, userName, null, null, null);
+    }
+
+    @Override
+    public void invalidateCollectionSyncRootMemberCache() {
+        invalidateCaches(Type.COLLECTION_SYNC_ROOT_MEMBERS, null, null, null, null);
+    }
+
+    /**
+     * Applies the given invalidation to the local caches then broadcasts it to the other nodes once the current
+     * transaction is committed, see {@link #publishInvalidationAfterCommit(CacheInvalidation)}.
+     *
+     * @since 7.3
+     */
+    protected void invalidateCaches(Type type, String userName, String repositoryName, String docId, String docPath) {
+        CacheInvalidation invalidation = new CacheInvalidation(nodeId, type, userName, repositoryName, docId, docPath);
+        // The ancestors adapted so far in the current transaction may not be adaptable the same way anymore
+        FileSystemItemAncestorCache.clear();
+        applyInvalidation(invalidation);
+        publishInvalidationAfterCommit(invalidation);
+    }
+
+    /**
+     * Broadcasts the given invalidation to the other nodes once the current transaction is committed, so that they
+     * don't recompute their caches from the state preceding the commit, immediately if there is no transaction.
+     * <p>
+     * Since the local caches may also have been loaded meanwhile from this state, or from the one of the current
+     * transaction, the invalidation is applied again to them when the transaction completes, whatever its outcome.
+     *
+     * @since 7.3
+     */
+    protected void publishInvalidationAfterCommit(CacheInvalidation invalidation) {
+        TransactionCacheUpdates updates = getTransactionCacheUpdates();
+        if (updates != null) {
+            updates.invalidations.add(invalidation);
+        } else {
+            publishInvalidation(invalidation);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected void publishInvalidation(CacheInvalidation invalidation) {
+        CacheInvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(invalidation);
+        }
+    }
+
+    /**
+     * Returns the cache updates bound to the current transaction, null if there is no transaction.
+     *
+     * @since 7.3
+     */
+    protected TransactionCacheUpdates getTransactionCacheUpdates() {
+        if (!TransactionHelper.isTransactionActiveOrMarkedRollback()) {
+            return null;
+        }
+        try {
+            Transaction transaction = TransactionHelper.lookupTransactionManager().getTransaction();
+            TransactionCacheUpdates updates = transactionCacheUpdates.get();
+            if (updates != null && updates.transaction == transaction) {
+                return updates;
+            }
+            updates = new TransactionCacheUpdates(transaction);
+            transaction.registerSynchronization(updates);
+            transactionCacheUpdates.set(updates);
+            return updates;
+        } catch (RollbackException e) {
+            // Marked for rollback: the updates are never applied nor
+            // published
+            return new TransactionCacheUpdates(null);
+        } catch (SystemException | NamingException e) {
+            log.warn("Cannot bind the Nuxeo Drive cache updates to the current transaction", e);
+            return null;
+        }
+    }
+
+    /**
+     * Applies the invalidations published by the other nodes.
+     *
+     * @since 7.3
+     */
+    @Override
+    public void handleInvalidation(CacheInvalidation invalidation) {
+        if (!nodeId.equals(invalidation.getOrigin())) {
+            applyInvalidation(invalidation);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected void applyInvalidation(CacheInvalidation invalidation) {
         if (log.isDebugEnabled()) {
-            log.debug("Invalidating collection sync root member cache for user: " + userName);
+            log.debug("Applying cache invalidation " + invalidation);
+        }
+        String userName = invalidation.getUserName();
+        CacheSnapshot snapshot = cacheSnapshot;
+        if (snapshot != null && !snapshot.applyInvalidation(invalidation)) {
+            cacheSnapshot = null;
+        }
+        switch (invalidation.getType()) {
+        case SYNCHRONIZATION_ROOTS:
+            if (userName == null) {
+                syncRootCache.invalidateAll();
+            } else {
+                syncRootCache.invalidate(userName);
+            }
+            break;
+        case COLLECTION_SYNC_ROOT_MEMBERS:
+            collectionMembershipGeneration.incrementAndGet();
+            if (userName == null) {
+                collectionSyncRootMemberCache.invalidateAll();
+            } else {
+                collectionSyncRootMemberCache.invalidate(userName);
+            }
+            break;
+        case DOCUMENT_DELETION:
+        case SECURITY_UPDATE:
+            collectionMembershipGeneration.incrementAndGet();
+            for (String impactedUserName : syncRootCache.getImpactedUserNames(invalidation.getRepositoryName(),
+                    invalidation.getDocId(), invalidation.getDocPath())) {
+                if (invalidation.getType() == Type.SECURITY_UPDATE) {
+                    syncRootCache.refresh(impactedUserName);
+                } else {
+                    syncRootCache.invalidate(impactedUserName);
+                }
+                collectionSyncRootMemberCache.invalidate(impactedUserName);
+            }
+            break;
+        case COLLECTION_MEMBERSHIP:
+            collectionMembershipGeneration.incrementAndGet();
+            for (String impactedUserName : syncRootCache.getUserNames(invalidation.getRepositoryName(),
+                    invalidation.getDocId())) {
+                collectionSyncRootMemberCache.invalidate(impactedUserName);
+            }
+            break;
+        default:
+            log.error("Unknown cache invalidation type: " + invalidation.getType());
         }
-        collectionSyncRootMemberCache.invalidate(userName);
     }
 
+    /**
+     * Adds the given document to the cached collection sync root member ids of the users having the given collection
+     * as a synchronization root once the current transaction is committed, the other nodes invalidating the cached
+     * member ids of these users.
+     *
+     * @since 7.3
+     */
     @Override
-    public void invalidateCollectionSyncRootMemberCache() {
-        log.debug("Invalidating collection sync root member cache for all users");
-        collectionSyncRootMemberCache.invalidateAll();
+    public void handleAddedToCollection(DocumentModel doc, String collectionId) throws ClientException {
+        String repositoryName = doc.getRepositoryName();
+        for (String userName : syncRootCache.getUserNames(repositoryName, collectionId)) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Adding %s to collection sync root member cache for user %s", doc.getId(),
+                        userName));
+            }
+            updateCollectionSyncRootMemberIdsAfterCommit(userName, repositoryName, doc.getId(), true);
+        }
+        publishInvalidationAfterCommit(new CacheInvalidation(nodeId, Type.COLLECTION_MEMBERSHIP, null, repositoryName,
+                collectionId, null));
+    }
+
+    /**
+     * Removes the given document from the cached collection sync root member ids of the users having the given
+     * collection as a synchronization root once the current transaction is committed, unless it is still a member of
+     * another collection synchronized by the user.
+     *
+     * @since 7.3
+     */
+    @Override
+    public void handleRemovedFromCollection(DocumentModel doc, String collectionId) throws ClientException {
+        String repositoryName = doc.getRepositoryName();
+        Set<IdRef> otherCollectionRefs = new HashSet<IdRef>();
+        if (doc.hasSchema(CollectionConstants.COLLECTION_MEMBER_SCHEMA_NAME)) {
+            @SuppressWarnings("unchecked")
+            List<String> collectionIds = (List<String>) doc.getPropertyValue(
+                    CollectionConstants.DOCUMENT_COLLECTION_IDS_PROPERTY_NAME);
+            if (collectionIds != null) {
+                for (String otherCollectionId : collectionIds) {
+                    if (!collectionId.equals(otherCollectionId)) {
+                        otherCollectionRefs.add(new IdRef(otherCollectionId));
+                    }
+                }
+            }
+        }
+        for (String userName : syncRootCache.getUserNames(repositoryName, collectionId)) {
+            SynchronizationRoots roots = syncRootCache.getIfPresent(userName, repositoryName);
+            if (roots != null && !Collections.disjoint(roots.getRefs(), otherCollectionRefs)) {
+                continue;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Removing %s from collection sync root member cache for user %s",
+                        doc.getId(), userName));
+            }
+            updateCollectionSyncRootMemberIdsAfterCommit(userName, repositoryName, doc.getId(), false);
+        }
+        publishInvalidationAfterCommit(new CacheInvalidation(nodeId, Type.COLLECTION_MEMBERSHIP, null, repositoryName,
+                collectionId, null));
+    }
+
+    /**
+     * Queues the given collection sync root member change until the current transaction is committed, a rollback
+     * leaving the cached member ids untouched, applies it immediately if there is no transaction.
+     *
+     * @since 7.3
+     */
+    protected void updateCollectionSyncRootMemberIdsAfterCommit(String userName, String repositoryName,
+            String docId, boolean add) {
+        TransactionCacheUpdates updates = getTransactionCacheUpdates();
+        if (updates != null) {
+            updates.addCollectionMemberChange(userName, repositoryName, docId, add);
+        } else {
+            collectionMembershipGeneration.incrementAndGet();
+            Set<String> docIds = Collections.singleton(docId);
+            Set<String> noDocIds = Collections.emptySet();
+            updateCachedCollectionSyncRootMemberIds(userName, repositoryName, add ? docIds : noDocIds,
+                    add ? noDocIds : docIds, null);
+        }
+    }
+
+    /**
+     * Replaces the cached collection sync root member ids of the given user and repository, if any, by a copy holding
+     * the added document ids but not the removed ones. The member ids being immutable {@link CompactIdSet}s, the change
+     * summary requests in progress keep working on the previous ones.
+     *
+     * @param updatedMemberIdsCache if not null, the sets already updated with the same changes, by previous member ids,
+     *            to share them between the users having the same member ids without merging them again
+     * @since 7.3
+     */
+    protected void updateCachedCollectionSyncRootMemberIds(String userName, String repositoryName,
+            Set<String> addedDocIds, Set<String> removedDocIds, Map<Set<String>, CompactIdSet> updatedMemberIdsCache) {
+        // Not recorded in the cache stats
+        Map<String, Set<String>> collSyncRootMemberIds = collectionSyncRootMemberCache.asMap().get(userName);
+        if (collSyncRootMemberIds == null) {
+            return;
+        }
+        synchronized (collSyncRootMemberIds) {
+            Set<String> memberIds = collSyncRootMemberIds.get(repositoryName);
+            if (memberIds == null) {
+                return;
+            }
+            CompactIdSet updatedMemberIds = updatedMemberIdsCache != null ? updatedMemberIdsCache.get(memberIds)
+                    : null;
+            if (updatedMemberIds == null) {
+                updatedMemberIds = CompactIdSet.of(memberIds).withChanges(addedDocIds, removedDocIds).intern();
+                if (updatedMemberIdsCache != null) {
+                    updatedMemberIdsCache.put(memberIds, updatedMemberIds);
+                }
+            }
+            if (updatedMemberIds != memberIds) {
+                collSyncRootMemberIds.put(repositoryName, updatedMemberIds);
+            }
+        }
     }
 
     @Override
@@ -212,30 +809,8 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
 
                 fireEvent(newRootContainer, session, NuxeoDriveEvents.ABOUT_TO_REGISTER_ROOT, userName);
 
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> subscriptions = (List<Map<String, Object>>) newRootContainer.getPropertyValue(DRIVE_SUBSCRIPTIONS_PROPERTY);
-                boolean updated = false;
-                for (Map<String, Object> subscription : subscriptions) {
-                    if (userName.equals(subscription.get("username"))) {
-                        subscription.put("enabled", Boolean.TRUE);
-                        subscription.put("lastChangeDate", Calendar.getInstance(UTC));
-                        updated = true;
-                        break;
-                    }
-                }
-                if (!updated) {
-                    Map<String, Object> subscription = new HashMap<String, Object>();
-                    subscription.put("username", userName);
-                    subscription.put("enabled", Boolean.TRUE);
-                    subscription.put("lastChangeDate", Calendar.getInstance(UTC));
-                    subscriptions.add(subscription);
-                }
-                newRootContainer.setPropertyValue(DRIVE_SUBSCRIPTIONS_PROPERTY, (Serializable) subscriptions);
-                newRootContainer.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, true);
-                newRootContainer.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, true);
-                DocumentModel savedNewRootContainer = session.saveDocument(newRootContainer);
-                newRootContainer.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, false);
-                newRootContainer.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, false);
+                DocumentModel savedNewRootContainer = getSubscriptionStore().setSubscription(session,
+                        newRootContainer, userName, true);
                 fireEvent(savedNewRootContainer, session, NuxeoDriveEvents.ROOT_REGISTERED, userName);
                 session.save();
             }
@@ -258,21 +833,7 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
                     rootContainer.addFacet(NUXEO_DRIVE_FACET);
                 }
                 fireEvent(rootContainer, session, NuxeoDriveEvents.ABOUT_TO_UNREGISTER_ROOT, userName);
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> subscriptions = (List<Map<String, Object>>) rootContainer.getPropertyValue(DRIVE_SUBSCRIPTIONS_PROPERTY);
-                for (Map<String, Object> subscription : subscriptions) {
-                    if (userName.equals(subscription.get("username"))) {
-                        subscription.put("enabled", Boolean.FALSE);
-                        subscription.put("lastChangeDate", Calendar.getInstance(UTC));
-                        break;
-                    }
-                }
-                rootContainer.setPropertyValue(DRIVE_SUBSCRIPTIONS_PROPERTY, (Serializable) subscriptions);
-                rootContainer.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, true);
-                rootContainer.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, true);
-                session.saveDocument(rootContainer);
-                rootContainer.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, false);
-                rootContainer.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, false);
+                getSubscriptionStore().setSubscription(session, rootContainer, userName, false);
                 fireEvent(rootContainer, session, NuxeoDriveEvents.ROOT_UNREGISTERED, userName);
                 session.save();
             }
@@ -293,6 +854,44 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         clearCache();
     }
 
+    /**
+     * Only invalidates the caches of the users having a synchronization root being the deleted document or one of its
+     * descendants.
+     *
+     * @since 7.3
+     */
+    @Override
+    public void handleDocumentDeletion(DocumentModel doc) throws ClientException {
+        invalidateCaches(Type.DOCUMENT_DELETION, null, doc.getRepositoryName(), doc.getId(), doc.getPathAsString());
+    }
+
+    /**
+     * Invalidates the caches of the users subscribed to the undeleted document. The undeletion of an ancestor of a
+     * synchronization root is handled when the root itself is undeleted, the life cycle transition being followed by
+     * the descendants.
+     *
+     * @since 7.3
+     */
+    @Override
+    public void handleDocumentUndeletion(DocumentModel doc) throws ClientException {
+        for (String userName : getSubscribedUserNames(doc.getRepositoryName(), Collections.singleton(doc.getId()))) {
+            invalidateSynchronizationRootsCache(userName);
+            invalidateCollectionSyncRootMemberCache(userName);
+        }
+    }
+
+    /**
+     * Only refreshes the caches of the users having a synchronization root being the updated document or one of its
+     * descendants. The synchronization roots are refreshed in the background, the change finder only returning the
+     * changes readable by the user anyway.
+     *
+     * @since 7.3
+     */
+    @Override
+    public void handleSecurityUpdate(DocumentModel doc) throws ClientException {
+        invalidateCaches(Type.SECURITY_UPDATE, null, doc.getRepositoryName(), doc.getId(), doc.getPathAsString());
+    }
+
     protected void fireEvent(DocumentModel sourceDocument, CoreSession session, String eventName,
             String impactedUserName) throws ClientException {
         EventService eventService = Framework.getLocalService(EventService.class);
@@ -338,6 +937,48 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         return getChangeSummary(principal, lastSyncRootRefs, roots, collectionSyncRootMemberIds, lowerBound, true);
     }
 
+    /**
+     * Same as {@link #getChangeSummaryIntegerBounds(Principal, Map, long)} except that an empty summary publishes a
+     * {@link ChangeWatchRegistry.ChangeWatch} valid for {@code watchTimeout} milliseconds, capped by the
+     * {@link #CHANGE_SUMMARY_MAX_WATCH_TIMEOUT_PROPERTY} Framework property. As long as the audit upper bound doesn't
+     * move, the next requests with the upper bound of this summary as lower bound are answered with an empty summary
+     * without resolving the synchronization roots nor querying the changes, so that devices can poll at a high rate at
+     * no cost.
+     * <p>
+     * The request never waits and the current transaction is left untouched. The number of watches is capped by the
+     * {@link #CHANGE_SUMMARY_MAX_WATCHES_PROPERTY} Framework property.
+     *
+     * @since 7.3
+     */
+    @Override
+    public FileSystemChangeSummary getChangeSummaryIntegerBounds(Principal principal,
+            Map<String, Set<IdRef>> lastSyncRootRefs, long lowerBound, long watchTimeout) throws ClientException {
+        long timeout = Math.min(watchTimeout, maxWatchTimeout);
+        if (timeout <= 0 || lowerBound < 0) {
+            return getChangeSummaryIntegerBounds(principal, lastSyncRootRefs, lowerBound);
+        }
+        String userName = principal.getName();
+        ChangeWatch watch = changeWatches.getWatch(userName, lowerBound);
+        if (watch != null && watch.isQuiet(getChangeUpperBound(), lastSyncRootRefs)) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("No change logged since %d, not querying the changes for user %s.",
+                        lowerBound, userName));
+            }
+            long syncDate = System.currentTimeMillis();
+            syncDate = syncDate - (syncDate % 1000);
+            return new FileSystemChangeSummaryImpl(new ArrayList<FileSystemItemChange>(), watch.getActiveRootRefs(),
+                    syncDate, lowerBound, Boolean.FALSE);
+        }
+        FileSystemChangeSummary summary = getChangeSummaryIntegerBounds(principal, lastSyncRootRefs, lowerBound);
+        if (summary.getFileSystemChanges().isEmpty() && !summary.getHasTooManyChanges()
+                && !summary.getHasMoreChanges()) {
+            changeWatches.publish(userName, summary.getUpperBound(),
+                    RootDefinitionsHelper.parseRootDefinitions(summary.getActiveSynchronizationRootDefinitions()),
+                    timeout);
+        }
+        return summary;
+    }
+
     protected FileSystemChangeSummary getChangeSummary(Principal principal, Map<String, Set<IdRef>> lastActiveRootRefs,
             Map<String, SynchronizationRoots> roots, Map<String, Set<String>> collectionSyncRootMemberIds,
             long lowerBound, boolean integerBounds) throws ClientException {
@@ -345,7 +986,7 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         long syncDate;
         long upperBound;
         if (integerBounds) {
-            upperBound = changeFinder.getUpperBound();
+            upperBound = getChangeUpperBound();
             // Truncate sync date to 0 milliseconds
             syncDate = System.currentTimeMillis();
             syncDate = syncDate - (syncDate % 1000);
@@ -354,6 +995,8 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
             syncDate = upperBound;
         }
         Boolean hasTooManyChanges = Boolean.FALSE;
+        Boolean hasMoreChanges = Boolean.FALSE;
+        boolean timedOut = false;
         int limit = Integer.parseInt(Framework.getProperty(DOCUMENT_CHANGE_LIMIT_PROPERTY, "1000"));
 
         // Compute the list of all repositories to consider for the aggregate
@@ -364,57 +1007,291 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         allRepositories.addAll(collectionSyncRootMemberIds.keySet());
 
         if (!allRepositories.isEmpty() && lowerBound >= 0 && upperBound > lowerBound) {
-            for (String repositoryName : allRepositories) {
-                try (CoreSession session = CoreInstance.openCoreSession(repositoryName, principal)) {
-                    // Get document changes
-                    Set<IdRef> lastRefs = lastActiveRootRefs.get(repositoryName);
-                    if (lastRefs == null) {
-                        lastRefs = Collections.emptySet();
+            boolean paginated = integerBounds && changeFinder instanceof AuditChangeFinder
+                    && Boolean.parseBoolean(Framework.getProperty(CHANGE_PAGINATION_ENABLED_PROPERTY));
+            ExecutorService executor = allRepositories.size() > 1 ? changeSummaryExecutor : null;
+            boolean rangeNarrowed;
+            do {
+                rangeNarrowed = false;
+                allChanges.clear();
+                List<RepositoryChanges> allRepositoryChanges;
+                if (executor != null) {
+                    allRepositoryChanges = getRepositoryChangesInParallel(executor, allRepositories, principal,
+                            lastActiveRootRefs, roots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                            integerBounds, limit, paginated);
+                    if (allRepositoryChanges == null) {
+                        // Don't make any progress so that the same range is
+                        // queried again by the next call
+                        timedOut = true;
+                        upperBound = lowerBound;
+                        if (!integerBounds) {
+                            syncDate = lowerBound;
+                        }
+                        hasMoreChanges = Boolean.FALSE;
+                        break;
                     }
-                    SynchronizationRoots activeRoots = roots.get(repositoryName);
-                    if (activeRoots == null) {
-                        activeRoots = SynchronizationRoots.getEmptyRoots(repositoryName);
+                } else {
+                    allRepositoryChanges = new ArrayList<RepositoryChanges>();
+                    for (String repositoryName : allRepositories) {
+                        RepositoryChanges repositoryChanges = getRepositoryChanges(repositoryName, principal,
+                                lastActiveRootRefs, roots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                                integerBounds, limit, paginated);
+                        allRepositoryChanges.add(repositoryChanges);
+                        if (repositoryChanges.isTooManyChanges()) {
+                            break;
+                        }
                     }
-                    Set<String> repoCollectionSyncRootMemberIds = collectionSyncRootMemberIds.get(repositoryName);
-                    if (repoCollectionSyncRootMemberIds == null) {
-                        repoCollectionSyncRootMemberIds = Collections.emptySet();
+                }
+                // Merge the changes in the repository order
+                boolean tooManyChanges = false;
+                long pageUpperBound = upperBound;
+                for (RepositoryChanges repositoryChanges : allRepositoryChanges) {
+                    if (repositoryChanges.isTooManyChanges()) {
+                        tooManyChanges = true;
+                        pageUpperBound = Math.min(pageUpperBound, repositoryChanges.pageUpperBound);
+                    } else {
+                        allChanges.addAll(repositoryChanges.changes);
                     }
-                    List<FileSystemItemChange> changes;
-                    if (integerBounds) {
-                        changes = changeFinder.getFileSystemChangesIntegerBounds(session, lastRefs, activeRoots,
-                                repoCollectionSyncRootMemberIds, lowerBound, upperBound, limit);
+                }
+                if (tooManyChanges) {
+                    if (pageUpperBound > lowerBound && pageUpperBound < upperBound) {
+                        if (log.isDebugEnabled()) {
+                            log.debug(String.format("Too many changes for user %s between %d and %d, narrowing the"
+                                    + " upper bound to %d.", principal.getName(), lowerBound, upperBound,
+                                    pageUpperBound));
+                        }
+                        // Start over with all the repositories since the
+                        // upper bound is shared
+                        upperBound = pageUpperBound;
+                        hasMoreChanges = Boolean.TRUE;
+                        rangeNarrowed = true;
                     } else {
-                        changes = changeFinder.getFileSystemChanges(session, lastRefs, activeRoots, lowerBound,
-                                upperBound, limit);
+                        hasTooManyChanges = Boolean.TRUE;
+                        hasMoreChanges = Boolean.FALSE;
+                        allChanges.clear();
                     }
-                    allChanges.addAll(changes);
-                } catch (TooManyChangesException e) {
-                    hasTooManyChanges = Boolean.TRUE;
-                    allChanges.clear();
-                    break;
                 }
-            }
+            } while (rangeNarrowed);
+        }
+
+        if (!allChanges.isEmpty()
+                && Boolean.parseBoolean(Framework.getProperty(CHANGE_COMPACTION_ENABLED_PROPERTY))) {
+            allChanges = changeCompactor.compact(allChanges);
         }
 
         // Send back to the client the list of currently active roots to be able
         // to efficiently detect root unregistration events for the next
         // incremental change summary
         Map<String, Set<IdRef>> activeRootRefs = new HashMap<String, Set<IdRef>>();
-        for (Map.Entry<String, SynchronizationRoots> rootsEntry : roots.entrySet()) {
-            activeRootRefs.put(rootsEntry.getKey(), rootsEntry.getValue().getRefs());
+        if (timedOut) {
+            // Keep the previous roots for the root unregistrations not to be
+            // missed by the next call
+            activeRootRefs.putAll(lastActiveRootRefs);
+        } else {
+            for (Map.Entry<String, SynchronizationRoots> rootsEntry : roots.entrySet()) {
+                activeRootRefs.put(rootsEntry.getKey(), rootsEntry.getValue().getRefs());
+            }
+        }
+        FileSystemChangeSummary summary = new FileSystemChangeSummaryImpl(allChanges, activeRootRefs, syncDate,
+                upperBound, hasTooManyChanges);
+        summary.setHasMoreChanges(hasMoreChanges);
+        return summary;
+    }
+
+    /**
+     * Gets the changes of the given repository, computing the page upper bound if there are too many changes and the
+     * pagination is enabled.
+     *
+     * @since 7.3
+     */
+    protected RepositoryChanges getRepositoryChanges(String repositoryName, Principal principal,
+            Map<String, Set<IdRef>> lastActiveRootRefs, Map<String, SynchronizationRoots> roots,
+            Map<String, Set<String>> collectionSyncRootMemberIds, long lowerBound, long upperBound,
+            boolean integerBounds, int limit, boolean paginated) throws ClientException {
+        try (CoreSession session = CoreInstance.openCoreSession(repositoryName, principal)) {
+            // Get document changes
+            Set<IdRef> lastRefs = lastActiveRootRefs.get(repositoryName);
+            if (lastRefs == null) {
+                lastRefs = Collections.emptySet();
+            }
+            SynchronizationRoots activeRoots = roots.get(repositoryName);
+            if (activeRoots == null) {
+                activeRoots = SynchronizationRoots.getEmptyRoots(repositoryName);
+            }
+            Set<String> repoCollectionSyncRootMemberIds = collectionSyncRootMemberIds.get(repositoryName);
+            if (repoCollectionSyncRootMemberIds == null) {
+                repoCollectionSyncRootMemberIds = Collections.emptySet();
+            }
+            try {
+                return new RepositoryChanges(getFileSystemChanges(session, lastRefs, activeRoots,
+                        repoCollectionSyncRootMemberIds, lowerBound, upperBound, integerBounds, limit), -1);
+            } catch (TooManyChangesException e) {
+                long pageUpperBound = lowerBound;
+                if (paginated) {
+                    pageUpperBound = ((AuditChangeFinder) changeFinder).getPageUpperBound(session, activeRoots,
+                            repoCollectionSyncRootMemberIds, lowerBound, upperBound, limit);
+                }
+                return new RepositoryChanges(null, pageUpperBound);
+            }
+        }
+    }
+
+    /**
+     * Gets the changes of the given repositories concurrently using the given executor, each task running in its own
+     * transaction.
+     *
+     * @return the changes in the order of the given repositories, or null if the
+     *         {@link #CHANGE_SUMMARY_REPOSITORY_TIMEOUT_PROPERTY} timeout expired
+     * @since 7.3
+     */
+    protected List<RepositoryChanges> getRepositoryChangesInParallel(ExecutorService executor,
+            Set<String> repositoryNames, final Principal principal, final Map<String, Set<IdRef>> lastActiveRootRefs,
+            final Map<String, SynchronizationRoots> roots, final Map<String, Set<String>> collectionSyncRootMemberIds,
+            final long lowerBound, final long upperBound, final boolean integerBounds, final int limit,
+            final boolean paginated) throws ClientException {
+        long timeout = changeSummaryRepositoryTimeout;
+        List<Future<RepositoryChanges>> futures = new ArrayList<Future<RepositoryChanges>>(repositoryNames.size());
+        for (final String repositoryName : repositoryNames) {
+            futures.add(executor.submit(new Callable<RepositoryChanges>() {
+                @Override
+                public RepositoryChanges call() throws ClientException {
+                    boolean txStarted = TransactionHelper.startTransaction();
+                    try {
+                        return getRepositoryChanges(repositoryName, principal, lastActiveRootRefs, roots,
+                                collectionSyncRootMemberIds, lowerBound, upperBound, integerBounds, limit, paginated);
+                    } finally {
+                        if (txStarted) {
+                            TransactionHelper.commitOrRollbackTransaction();
+                        }
+                    }
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        List<RepositoryChanges> allRepositoryChanges = new ArrayList<RepositoryChanges>(futures.size());
+        try {
+            for (Future<RepositoryChanges> future : futures) {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                allRepositoryChanges.add(future.get(remaining, TimeUnit.MILLISECONDS));
+            }
+            return allRepositoryChanges;
+        } catch (TimeoutException e) {
+            log.warn(String.format("Timeout of %d ms expired while getting the changes of repositories %s for user %s,"
+                    + " returning no changes.", timeout, repositoryNames, principal.getName()));
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ClientException) {
+                throw (ClientException) e.getCause();
+            }
+            throw new ClientException(e.getCause());
+        } finally {
+            for (Future<RepositoryChanges> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the upper bound of the change query, read from the {@link ChangeUpperBoundCache} if enabled by the
+     * {@link #CHANGE_UPPER_BOUND_MAX_AGE_PROPERTY} Framework property.
+     *
+     * @since 7.3
+     */
+    protected long getChangeUpperBound() {
+        ChangeUpperBoundCache cache = changeUpperBoundCache;
+        if (cache == null) {
+            return changeFinder.getUpperBound();
+        }
+        return cache.getUpperBound();
+    }
+
+    /**
+     * Builds the executor used to get the changes of several repositories concurrently, unless disabled by the
+     * {@link #CHANGE_SUMMARY_PARALLEL_ENABLED_PROPERTY} Framework property, stopping the previous one if any. Called at
+     * application start, can be called again to take into account a change of the related Framework properties.
+     *
+     * @since 7.3
+     */
+    public synchronized void initChangeSummaryExecutor() {
+        stopChangeSummaryExecutor();
+        changeSummaryRepositoryTimeout = Long.parseLong(Framework.getProperty(
+                CHANGE_SUMMARY_REPOSITORY_TIMEOUT_PROPERTY, "30000"));
+        if (!Boolean.parseBoolean(Framework.getProperty(CHANGE_SUMMARY_PARALLEL_ENABLED_PROPERTY, "true"))) {
+            return;
+        }
+        int poolSize = Integer.parseInt(Framework.getProperty(CHANGE_SUMMARY_POOL_SIZE_PROPERTY, "4"));
+        changeSummaryExecutor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+
+            protected final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Nuxeo-Drive-ChangeSummary-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected synchronized void stopChangeSummaryExecutor() {
+        if (changeSummaryExecutor != null) {
+            changeSummaryExecutor.shutdownNow();
+            changeSummaryExecutor = null;
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected List<FileSystemItemChange> getFileSystemChanges(CoreSession session, Set<IdRef> lastRefs,
+            SynchronizationRoots activeRoots, Set<String> collectionSyncRootMemberIds, long lowerBound,
+            long upperBound, boolean integerBounds, int limit) throws ClientException, TooManyChangesException {
+        if (!integerBounds) {
+            return changeFinder.getFileSystemChanges(session, lastRefs, activeRoots, lowerBound, upperBound, limit);
+        }
+        List<FileSystemItemChange> changes = null;
+        SharedChangeScanner scanner = changeScanner;
+        if (scanner != null) {
+            changes = scanner.getFileSystemChanges(session, lastRefs, activeRoots, collectionSyncRootMemberIds,
+                    lowerBound, upperBound, limit);
+        }
+        if (changes == null) {
+            changes = changeFinder.getFileSystemChangesIntegerBounds(session, lastRefs, activeRoots,
+                    collectionSyncRootMemberIds, lowerBound, upperBound, limit);
+        }
+        return changes;
+    }
+
+    /**
+     * Builds and starts the {@link SharedChangeScanner} of the current change finder if enabled by the
+     * {@link #CHANGE_SCANNER_ENABLED_PROPERTY} Framework property and supported by the change finder, stopping the
+     * previous one if any. Called when the change finder is initialized, can be called again to take into account a
+     * change of the related Framework properties.
+     *
+     * @since 7.3
+     */
+    public synchronized void initChangeScanner() {
+        stopChangeScanner();
+        if (Boolean.parseBoolean(Framework.getProperty(CHANGE_SCANNER_ENABLED_PROPERTY))
+                && changeFinder instanceof AuditChangeFinder
+                && ((AuditChangeFinder) changeFinder).isSharedScanningSupported()) {
+            int windowSize = Integer.parseInt(Framework.getProperty(CHANGE_SCANNER_WINDOW_SIZE_PROPERTY, "10000"));
+            long scanInterval = Long.parseLong(Framework.getProperty(CHANGE_SCANNER_INTERVAL_PROPERTY, "5000"));
+            SharedChangeScanner scanner = new SharedChangeScanner((AuditChangeFinder) changeFinder, windowSize);
+            scanner.start(scanInterval);
+            changeScanner = scanner;
         }
-        return new FileSystemChangeSummaryImpl(allChanges, activeRootRefs, syncDate, upperBound, hasTooManyChanges);
     }
 
     @Override
     public Map<String, SynchronizationRoots> getSynchronizationRoots(Principal principal) throws ClientException {
-        String userName = principal.getName();
-        Map<String, SynchronizationRoots> syncRoots = syncRootCache.getIfPresent(userName);
-        if (syncRoots == null) {
-            syncRoots = computeSynchronizationRoots(computeSyncRootsQuery(userName), principal);
-            syncRootCache.put(userName, syncRoots);
-        }
-        return syncRoots;
+        return syncRootCache.get(principal);
     }
 
     @Override
@@ -422,8 +1299,24 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         String userName = principal.getName();
         Map<String, Set<String>> collSyncRootMemberIds = collectionSyncRootMemberCache.getIfPresent(userName);
         if (collSyncRootMemberIds == null) {
-            collSyncRootMemberIds = computeCollectionSyncRootMemberIds(principal);
-            collectionSyncRootMemberCache.put(userName, collSyncRootMemberIds);
+            long generation = collectionMembershipGeneration.get();
+            CacheSnapshot snapshot = cacheSnapshot;
+            if (snapshot != null) {
+                collSyncRootMemberIds = snapshot.removeCollectionSyncRootMemberIds(userName);
+            }
+            if (collSyncRootMemberIds == null) {
+                Timer.Context timerContext = cacheMetrics.getLoadTimer(COLLECTION_SYNC_ROOT_MEMBER_CACHE_NAME).time();
+                try {
+                    collSyncRootMemberIds = computeCollectionSyncRootMemberIds(principal);
+                } finally {
+                    timerContext.stop();
+                }
+            }
+            // Don't cache member ids missing a membership change that
+            // occurred during the computation
+            if (collectionMembershipGeneration.get() == generation) {
+                collectionSyncRootMemberCache.put(userName, collSyncRootMemberIds);
+            }
         }
         return collSyncRootMemberIds;
     }
@@ -435,8 +1328,43 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         return syncRoots.getRefs().contains(doc.getRef());
     }
 
+    /**
+     * Computes the synchronization roots of the given principal in all the repositories, running the projection query
+     * provided by the {@link SubscriptionStore} once per repository.
+     *
+     * @since 7.3
+     */
+    protected Map<String, SynchronizationRoots> computeSynchronizationRoots(Principal principal)
+            throws ClientException {
+        Map<String, SynchronizationRoots> syncRoots = new HashMap<String, SynchronizationRoots>();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        RepositoryManager repositoryManager = Framework.getLocalService(RepositoryManager.class);
+        for (String repositoryName : repositoryManager.getRepositoryNames()) {
+            try (CoreSession session = CoreInstance.openCoreSession(repositoryName, principal)) {
+                String query = subscriptionStore.getSynchronizationRootsQuery(session, principal.getName());
+                if (query != null) {
+                    syncRoots.putAll(queryAndFecthSynchronizationRoots(session, query));
+                } else {
+                    syncRoots.put(repositoryName, new SynchronizationRoots(repositoryName,
+                            Collections.<String> emptySet(), Collections.<IdRef> emptySet()).intern());
+                }
+            }
+        }
+        return syncRoots;
+    }
+
+    /**
+     * Computes the synchronization roots of the given principal in all the repositories by running the given query in
+     * each of them, or the one provided by the {@link SubscriptionStore} if null.
+     *
+     * @deprecated since 7.3, the query depends on the repository, use {@link #computeSynchronizationRoots(Principal)}
+     */
+    @Deprecated
     protected Map<String, SynchronizationRoots> computeSynchronizationRoots(String query, Principal principal)
             throws ClientException {
+        if (query == null) {
+            return computeSynchronizationRoots(principal);
+        }
         Map<String, SynchronizationRoots> syncRoots = new HashMap<String, SynchronizationRoots>();
         RepositoryManager repositoryManager = Framework.getLocalService(RepositoryManager.class);
         for (String repositoryName : repositoryManager.getRepositoryNames()) {
@@ -447,6 +1375,10 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         return syncRoots;
     }
 
+    /**
+     * Reads the synchronization root ids and paths from the results of the given query, only falling back on loading
+     * the document when the path is not part of the results.
+     */
     protected Map<String, SynchronizationRoots> queryAndFecthSynchronizationRoots(CoreSession session, String query)
             throws ClientException {
         Map<String, SynchronizationRoots> syncRoots = new HashMap<String, SynchronizationRoots>();
@@ -455,21 +1387,26 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         IterableQueryResult results = session.queryAndFetch(query, NXQL.NXQL);
         try {
             for (Map<String, Serializable> result : results) {
-                IdRef docRef = new IdRef(result.get("ecm:uuid").toString());
+                IdRef docRef = new IdRef(result.get(NXQL.ECM_UUID).toString());
                 references.add(docRef);
-                paths.add(session.getDocument(docRef).getPathAsString());
+                Serializable path = result.get(NXQL.ECM_PATH);
+                paths.add(path != null ? path.toString() : session.getDocument(docRef).getPathAsString());
             }
         } finally {
             results.close();
         }
-        SynchronizationRoots repoSyncRoots = new SynchronizationRoots(session.getRepositoryName(), paths, references);
+        // Shared by the users having the same synchronization roots
+        SynchronizationRoots repoSyncRoots = new SynchronizationRoots(session.getRepositoryName(), paths,
+                references).intern();
         syncRoots.put(session.getRepositoryName(), repoSyncRoots);
         return syncRoots;
     }
 
     @SuppressWarnings("unchecked")
     protected Map<String, Set<String>> computeCollectionSyncRootMemberIds(Principal principal) throws ClientException {
-        Map<String, Set<String>> collectionSyncRootMemberIds = new HashMap<String, Set<String>>();
+        // Concurrent as the member ids of a repository are replaced when
+        // incrementally maintained, see handleAddedToCollection
+        Map<String, Set<String>> collectionSyncRootMemberIds = new ConcurrentHashMap<String, Set<String>>();
         PageProviderService pageProviderService = Framework.getLocalService(PageProviderService.class);
         RepositoryManager repositoryManager = Framework.getLocalService(RepositoryManager.class);
         for (String repositoryName : repositoryManager.getRepositoryNames()) {
@@ -491,7 +1428,7 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
                         }
                     }
                 }
-                collectionSyncRootMemberIds.put(repositoryName, collectionMemberIds);
+                collectionSyncRootMemberIds.put(repositoryName, CompactIdSet.of(collectionMemberIds).intern());
             }
         }
         return collectionSyncRootMemberIds;
@@ -507,6 +1444,37 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         }
     }
 
+    /**
+     * Returns the selected subscription store, activating it on the first call.
+     *
+     * @throws ClientException if the store cannot be activated, the activation being retried on the next call
+     */
+    @Override
+    public SubscriptionStore getSubscriptionStore() throws ClientException {
+        SubscriptionStore store = subscriptionStore;
+        if (store == null) {
+            store = initSubscriptionStore();
+        }
+        return store;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected synchronized SubscriptionStore initSubscriptionStore() throws ClientException {
+        if (subscriptionStore == null) {
+            if ("directory".equals(Framework.getProperty(SUBSCRIPTION_STORE_PROPERTY))) {
+                DirectorySubscriptionStore store = new DirectorySubscriptionStore();
+                // Don't lose the subscriptions held by the facet so far
+                store.activate();
+                subscriptionStore = store;
+            } else {
+                subscriptionStore = new FacetSubscriptionStore();
+            }
+        }
+        return subscriptionStore;
+    }
+
     @Override
     public FileSystemChangeFinder getChangeFinder() {
         return changeFinder;
@@ -516,16 +1484,24 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
     @Deprecated
     public void setChangeFinder(FileSystemChangeFinder changeFinder) {
         this.changeFinder = changeFinder;
+        initChangeScanner();
+        initChangeUpperBoundCache();
     }
 
     /**
+     * Returns the query of the synchronization roots of the given user in the default repository, as provided by the
+     * {@link SubscriptionStore}, or null if the user has no synchronization root in this repository.
+     *
      * @since 5.9.5
+     * @deprecated since 7.3, the query depends on the repository, use
+     *             {@link SubscriptionStore#getSynchronizationRootsQuery(CoreSession, String)}
      */
-    protected String computeSyncRootsQuery(String username) {
-        return String.format("SELECT ecm:uuid FROM Document WHERE %s/*1/username = %s" + " AND %s/*1/enabled = 1"
-                + " AND ecm:currentLifeCycleState <> 'deleted'" + " ORDER BY dc:title, dc:created DESC",
-                DRIVE_SUBSCRIPTIONS_PROPERTY, NXQLQueryBuilder.prepareStringLiteral(username, true, true),
-                DRIVE_SUBSCRIPTIONS_PROPERTY);
+    @Deprecated
+    protected String computeSyncRootsQuery(String username) throws ClientException {
+        RepositoryManager repositoryManager = Framework.getLocalService(RepositoryManager.class);
+        try (CoreSession session = CoreInstance.openCoreSessionSystem(repositoryManager.getDefaultRepositoryName())) {
+            return getSubscriptionStore().getSynchronizationRootsQuery(session, username);
+        }
     }
 
     @Override
@@ -560,6 +1536,8 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
     public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
         if (CHANGE_FINDER_EP.equals(extensionPoint)) {
             changeFinderRegistry.addContribution((ChangeFinderDescriptor) contribution);
+        } else if (CACHE_INVALIDATION_BUS_EP.equals(extensionPoint)) {
+            invalidationBusDescriptors.add((CacheInvalidationBusDescriptor) contribution);
         } else {
             log.error("Unknown extension point " + extensionPoint);
         }
@@ -569,6 +1547,8 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
     public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
         if (CHANGE_FINDER_EP.equals(extensionPoint)) {
             changeFinderRegistry.removeContribution((ChangeFinderDescriptor) contribution);
+        } else if (CACHE_INVALIDATION_BUS_EP.equals(extensionPoint)) {
+            invalidationBusDescriptors.remove(contribution);
         } else {
             log.error("Unknown extension point " + extensionPoint);
         }
@@ -580,12 +1560,29 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
         if (changeFinderRegistry == null) {
             changeFinderRegistry = new ChangeFinderRegistry();
         }
+        int maxWatches = Integer.parseInt(Framework.getProperty(CHANGE_SUMMARY_MAX_WATCHES_PROPERTY, "10000"));
+        maxWatchTimeout = Long.parseLong(Framework.getProperty(CHANGE_SUMMARY_MAX_WATCH_TIMEOUT_PROPERTY, "60000"));
+        changeWatches = new ChangeWatchRegistry(maxWatches, Math.max(maxWatchTimeout, 1));
+        cacheMetrics.registerCache(SYNC_ROOT_CACHE_NAME, syncRootCache.getCache());
+        cacheMetrics.registerCache(COLLECTION_SYNC_ROOT_MEMBER_CACHE_NAME, collectionSyncRootMemberCache);
+        if (Boolean.parseBoolean(Framework.getProperty(CACHE_METRICS_JMX_ENABLED_PROPERTY, "true"))) {
+            cacheMetrics.startJmxReporter();
+        }
     }
 
     @Override
     public void deactivate(ComponentContext context) {
         super.deactivate(context);
+        // Before the caches are cleared
+        stopCacheSnapshots();
         changeFinderRegistry = null;
+        stopChangeScanner();
+        stopChangeSummaryExecutor();
+        changeUpperBoundCache = null;
+        syncRootCache.shutdown();
+        stopInvalidationBus();
+        cacheMetrics.stop();
+        changeWatches.clear();
     }
 
     /**
@@ -594,10 +1591,403 @@ public class NuxeoDriveManagerImpl extends DefaultComponent implements NuxeoDriv
     @Override
     public void applicationStarted(ComponentContext context) {
         initChangeFinder();
+        initChangeSummaryExecutor();
+        initInvalidationBus();
+        initCacheSnapshots();
+        // Activate the subscription store before serving any request
+        boolean txStarted = TransactionHelper.startTransaction();
+        try {
+            initSubscriptionStore();
+        } catch (ClientException e) {
+            log.error("Cannot activate the Nuxeo Drive subscription store, will retry on first use", e);
+            if (txStarted) {
+                TransactionHelper.setTransactionRollbackOnly();
+            }
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
     }
 
     protected void initChangeFinder() {
         changeFinder = changeFinderRegistry.changeFinder;
+        // The scanner and the upper bound cache are bound to the change
+        // finder
+        initChangeScanner();
+        initChangeUpperBoundCache();
+    }
+
+    /**
+     * Subscribes to the last contributed {@link CacheInvalidationBus}, if any.
+     *
+     * @since 7.3
+     */
+    protected synchronized void initInvalidationBus() {
+        stopInvalidationBus();
+        if (invalidationBusDescriptors.isEmpty()) {
+            return;
+        }
+        CacheInvalidationBusDescriptor descriptor = invalidationBusDescriptors.getLast();
+        try {
+            CacheInvalidationBus bus = descriptor.getBus();
+            bus.subscribe(this);
+            invalidationBus = bus;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ClientRuntimeException("Cannot instantiate cache invalidation bus " + descriptor, e);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected synchronized void stopInvalidationBus() {
+        if (invalidationBus != null) {
+            invalidationBus.unsubscribe(this);
+            invalidationBus = null;
+        }
+    }
+
+    /**
+     * Builds the {@link ChangeUpperBoundCache} of the current change finder if enabled by the
+     * {@link #CHANGE_UPPER_BOUND_MAX_AGE_PROPERTY} Framework property.
+     *
+     * @since 7.3
+     */
+    protected void initChangeUpperBoundCache() {
+        long maxAge = Long.parseLong(Framework.getProperty(CHANGE_UPPER_BOUND_MAX_AGE_PROPERTY, "0"));
+        if (maxAge <= 0 || changeFinder == null) {
+            changeUpperBoundCache = null;
+        } else {
+            changeUpperBoundCache = new ChangeUpperBoundCache(changeFinder, maxAge);
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected synchronized void stopChangeScanner() {
+        if (changeScanner != null) {
+            changeScanner.stop();
+            changeScanner = null;
+        }
+    }
+
+    /**
+     * Loads the cache snapshot if valid, its entries being handed over to the caches on the first request of each
+     * user, then schedules the periodic snapshots.
+     *
+     * @since 7.3
+     */
+    protected synchronized void initCacheSnapshots() {
+        if (!Boolean.parseBoolean(Framework.getProperty(CACHE_SNAPSHOT_ENABLED_PROPERTY, "false"))) {
+            return;
+        }
+        File file = getCacheSnapshotFile();
+        if (file.isFile()) {
+            boolean txStarted = TransactionHelper.startTransaction();
+            try {
+                CacheSnapshot snapshot = CacheSnapshot.read(file);
+                if (pruneCacheSnapshot(snapshot)) {
+                    log.info(String.format("Loaded Nuxeo Drive cache snapshot of %d users from %s", snapshot.size(),
+                            file));
+                    cacheSnapshot = snapshot;
+                } else {
+                    log.info(String.format("Discarding Nuxeo Drive cache snapshot from %s impacted by changes since %s",
+                            file, new Date(snapshot.getTimestamp())));
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot load Nuxeo Drive cache snapshot from " + file, e);
+            } finally {
+                if (txStarted) {
+                    TransactionHelper.commitOrRollbackTransaction();
+                }
+            }
+        }
+        long interval = Long.parseLong(Framework.getProperty(CACHE_SNAPSHOT_INTERVAL_PROPERTY, "300000"));
+        cacheSnapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Nuxeo-Drive-CacheSnapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        cacheSnapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                saveCacheSnapshot();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic snapshots and takes a last one.
+     *
+     * @since 7.3
+     */
+    protected synchronized void stopCacheSnapshots() {
+        if (cacheSnapshotExecutor != null) {
+            cacheSnapshotExecutor.shutdownNow();
+            cacheSnapshotExecutor = null;
+            saveCacheSnapshot();
+        }
+        cacheSnapshot = null;
+    }
+
+    /**
+     * Applies to the given snapshot the audit entries impacting the cached values logged since it was taken, i.e.
+     * above its high-water mark: the entries of the users having a synchronization root being the impacted document
+     * or one of its descendants are removed, including on hard deletions and on deletions or security updates of an
+     * ancestor of a root. The undeletions remove the entries of the users subscribed to the document.
+     *
+     * @return false if the snapshot must be discarded: the audit log is behind its high-water mark, a root has been
+     *         (un)registered or a document moved, or there are too many entries to apply
+     * @since 7.3
+     */
+    public boolean pruneCacheSnapshot(CacheSnapshot snapshot) {
+        long upperBound = changeFinder.getUpperBound();
+        if (upperBound == snapshot.getHighWaterMark()) {
+            return true;
+        }
+        if (upperBound < snapshot.getHighWaterMark()) {
+            return false;
+        }
+        AuditReader auditReader = Framework.getService(AuditReader.class);
+        Date limit = new Date(snapshot.getTimestamp() - CACHE_SNAPSHOT_VALIDATION_MARGIN);
+        Map<String, Set<String>> transitionDocIds = new HashMap<String, Set<String>>();
+        int pageSize = 1000;
+        for (int page = 1; page <= CACHE_SNAPSHOT_MAX_ENTRIES / pageSize; page++) {
+            List<LogEntry> entries = auditReader.queryLogsByPage(CACHE_IMPACTING_EVENTS, limit, null, null, page,
+                    pageSize);
+            for (LogEntry entry : entries) {
+                // The event date being the one of the event, not of its
+                // commit, the entries preceding the snapshot are queried too
+                if (entry.getId() <= snapshot.getHighWaterMark()) {
+                    continue;
+                }
+                String eventId = entry.getEventId();
+                String repositoryName = entry.getRepositoryId();
+                if (NuxeoDriveEvents.ROOT_REGISTERED.equals(eventId)
+                        || NuxeoDriveEvents.ROOT_UNREGISTERED.equals(eventId)
+                        || DocumentEventTypes.DOCUMENT_MOVED.equals(eventId)) {
+                    // The impacted user or previous path is unknown
+                    return false;
+                }
+                if (CollectionConstants.ADDED_TO_COLLECTION.equals(eventId)
+                        || CollectionConstants.REMOVED_FROM_COLLECTION.equals(eventId)) {
+                    // Logged on the member, the collection is unknown
+                    snapshot.applyInvalidation(new CacheInvalidation(nodeId, Type.COLLECTION_SYNC_ROOT_MEMBERS, null,
+                            null, null, null));
+                } else if (LifeCycleConstants.TRANSITION_EVENT.equals(eventId)
+                        && !LifeCycleConstants.DELETED_STATE.equals(entry.getDocLifeCycle())) {
+                    Set<String> docIds = transitionDocIds.get(repositoryName);
+                    if (docIds == null) {
+                        docIds = new HashSet<String>();
+                        transitionDocIds.put(repositoryName, docIds);
+                    }
+                    docIds.add(entry.getDocUUID());
+                } else {
+                    snapshot.applyInvalidation(new CacheInvalidation(nodeId, Type.DOCUMENT_DELETION, null,
+                            repositoryName, entry.getDocUUID(), entry.getDocPath()));
+                }
+            }
+            if (entries.size() < pageSize) {
+                for (Map.Entry<String, Set<String>> docIds : transitionDocIds.entrySet()) {
+                    for (String userName : getSubscribedUserNames(docIds.getKey(), docIds.getValue())) {
+                        snapshot.applyInvalidation(new CacheInvalidation(nodeId, Type.SYNCHRONIZATION_ROOTS,
+                                userName, null, null, null));
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected Set<String> getSubscribedUserNames(String repositoryName, final Set<String> docIds)
+            throws ClientException {
+        final Set<String> userNames = new HashSet<String>();
+        new UnrestrictedSessionRunner(repositoryName) {
+            @Override
+            public void run() throws ClientException {
+                userNames.addAll(getSubscriptionStore().getSubscribedUserNames(session, docIds));
+            }
+        }.runUnrestricted();
+        return userNames;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected void saveCacheSnapshot() {
+        File file = getCacheSnapshotFile();
+        boolean txStarted = TransactionHelper.startTransaction();
+        try {
+            // Read before copying the caches so that the changes occurring
+            // meanwhile are checked when loading the snapshot
+            long highWaterMark = changeFinder.getUpperBound();
+            long timestamp = System.currentTimeMillis();
+            CacheSnapshot snapshot = new CacheSnapshot(highWaterMark, timestamp, syncRootCache.getAll(),
+                    collectionSyncRootMemberCache.asMap());
+            snapshot.write(file);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Saved Nuxeo Drive cache snapshot of %d users to %s", snapshot.size(), file));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot save Nuxeo Drive cache snapshot to " + file, e);
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected File getCacheSnapshotFile() {
+        String path = Framework.getProperty(CACHE_SNAPSHOT_FILE_PROPERTY);
+        if (StringUtils.isBlank(path)) {
+            return new File(Environment.getDefault().getData(), "nuxeo-drive" + File.separator + "cache.snapshot");
+        }
+        return new File(path);
+    }
+
+    /**
+     * Changes of a repository, or page upper bound if there are too many changes.
+     *
+     * @since 7.3
+     */
+    protected static class RepositoryChanges {
+
+        protected final List<FileSystemItemChange> changes;
+
+        protected final long pageUpperBound;
+
+        protected RepositoryChanges(List<FileSystemItemChange> changes, long pageUpperBound) {
+            this.changes = changes;
+            this.pageUpperBound = pageUpperBound;
+        }
+
+        protected boolean isTooManyChanges() {
+            return changes == null;
+        }
+    }
+
+    /**
+     * Cache updates of a transaction, applied again locally and published to the other nodes when it completes.
+     * <p>
+     * The collection sync root member changes are only applied to the local caches if the transaction is committed.
+     *
+     * @since 7.3
+     */
+    protected class TransactionCacheUpdates implements Synchronization {
+
+        protected final Transaction transaction;
+
+        protected final Set<CacheInvalidation> invalidations = new LinkedHashSet<CacheInvalidation>();
+
+        /**
+         * Collection sync root member changes by user name, repository name and document id, true for an addition.
+         */
+        protected final Map<String, Map<String, Map<String, Boolean>>> collectionMemberChanges = new LinkedHashMap<
+                String, Map<String, Map<String, Boolean>>>();
+
+        protected TransactionCacheUpdates(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        /**
+         * Records the given change, overriding any previous change of the same document for the same user.
+         */
+        protected void addCollectionMemberChange(String userName, String repositoryName, String docId, boolean add) {
+            Map<String, Map<String, Boolean>> userChanges = collectionMemberChanges.get(userName);
+            if (userChanges == null) {
+                userChanges = new HashMap<String, Map<String, Boolean>>();
+                collectionMemberChanges.put(userName, userChanges);
+            }
+            Map<String, Boolean> repositoryChanges = userChanges.get(repositoryName);
+            if (repositoryChanges == null) {
+                repositoryChanges = new LinkedHashMap<String, Boolean>();
+                userChanges.put(repositoryName, repositoryChanges);
+            }
+            repositoryChanges.put(docId, Boolean.valueOf(add));
+        }
+
+        @Override
+        public void beforeCompletion() {
+            // Nothing to do
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (transactionCacheUpdates.get() == this) {
+                transactionCacheUpdates.remove();
+            }
+            boolean committed = status == Status.STATUS_COMMITTED;
+            if (committed && !collectionMemberChanges.isEmpty()) {
+                try {
+                    applyCollectionMemberChanges();
+                } catch (RuntimeException e) {
+                    log.error("Error while updating the collection sync root member cache after commit", e);
+                }
+            }
+            for (CacheInvalidation invalidation : invalidations) {
+                try {
+                    // Once committed, the local collection sync root member
+                    // caches are updated incrementally on membership changes,
+                    // otherwise they may hold the rolled back members
+                    if (!committed || invalidation.getType() != Type.COLLECTION_MEMBERSHIP) {
+                        applyInvalidation(invalidation);
+                    }
+                    if (committed) {
+                        publishInvalidation(invalidation);
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Error while handling cache invalidation " + invalidation + " after completion", e);
+                }
+            }
+        }
+
+        /**
+         * Applies the changes of each user and repository in a single update of the cached member ids, the users
+         * sharing the same member ids and changes sharing the updated ones.
+         */
+        protected void applyCollectionMemberChanges() {
+            // Don't cache the member ids computed from the state preceding
+            // the commit
+            collectionMembershipGeneration.incrementAndGet();
+            // Updated member ids by changes then by previous member ids,
+            // these being interned
+            Map<Map<String, Boolean>, Map<Set<String>, CompactIdSet>> updatedMemberIds = new HashMap<
+                    Map<String, Boolean>, Map<Set<String>, CompactIdSet>>();
+            for (Map.Entry<String, Map<String, Map<String, Boolean>>> userChanges : collectionMemberChanges
+                    .entrySet()) {
+                for (Map.Entry<String, Map<String, Boolean>> repositoryChanges : userChanges.getValue().entrySet()) {
+                    Map<String, Boolean> changes = repositoryChanges.getValue();
+                    Set<String> addedDocIds = new HashSet<String>();
+                    Set<String> removedDocIds = new HashSet<String>();
+                    for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+                        if (change.getValue().booleanValue()) {
+                            addedDocIds.add(change.getKey());
+                        } else {
+                            removedDocIds.add(change.getKey());
+                        }
+                    }
+                    Map<Set<String>, CompactIdSet> updatedMemberIdsCache = updatedMemberIds.get(changes);
+                    if (updatedMemberIdsCache == null) {
+                        updatedMemberIdsCache = new IdentityHashMap<Set<String>, CompactIdSet>();
+                        updatedMemberIds.put(changes, updatedMemberIdsCache);
+                    }
+                    updateCachedCollectionSyncRootMemberIds(userChanges.getKey(), repositoryChanges.getKey(),
+                            addedDocIds, removedDocIds, updatedMemberIdsCache);
+                }
+            }
+        }
     }
 
 }
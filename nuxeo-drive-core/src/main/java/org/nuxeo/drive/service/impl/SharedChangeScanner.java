@@ -0,0 +1,343 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.FileSystemItemChange;
+import org.nuxeo.drive.service.SynchronizationRoots;
+import org.nuxeo.drive.service.TooManyChangesException;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.platform.audit.api.LogEntry;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Reads each new audit log id range exactly once per repository into an in-memory window of change entries, so that
+ * the change summaries of all the users can be computed by filtering this window against their synchronization roots
+ * instead of each running its own audit query over the same range.
+ * <p>
+ * The window of a repository is created empty at the upper bound of the first change summary request for this
+ * repository, then advanced both by a background thread and on demand when a request needs a greater upper bound. When
+ * it holds more than the configured number of entries, the oldest ones are evicted, after each scanned batch so that a
+ * large range is never loaded at once. Requests with a lower bound older than the window are not handled, see
+ * {@link #getFileSystemChanges(CoreSession, Set, SynchronizationRoots, Set, long, long, int)}.
+ *
+ * @since 7.3
+ */
+public class SharedChangeScanner {
+
+    private static final Log log = LogFactory.getLog(SharedChangeScanner.class);
+
+    protected static final int SCAN_BATCH_SIZE = 1000;
+
+    protected final AuditChangeFinder changeFinder;
+
+    protected final int windowSize;
+
+    protected final ConcurrentMap<String, ChangeWindow> windows = new ConcurrentHashMap<String, ChangeWindow>();
+
+    protected ScheduledExecutorService executor;
+
+    public SharedChangeScanner(AuditChangeFinder changeFinder, int windowSize) {
+        this.changeFinder = changeFinder;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Starts advancing the windows in the background every {@code scanInterval} milliseconds.
+     */
+    public synchronized void start(long scanInterval) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Nuxeo-Drive-ChangeScanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, scanInterval, scanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        windows.clear();
+    }
+
+    /**
+     * Advances all the windows up to the current upper bound.
+     */
+    protected void scan() {
+        if (windows.isEmpty()) {
+            return;
+        }
+        boolean txStarted = TransactionHelper.startTransaction();
+        try {
+            long upperBound = changeFinder.getUpperBound();
+            for (ChangeWindow window : windows.values()) {
+                window.advance(upperBound);
+            }
+        } catch (RuntimeException e) {
+            // Don't let the exception cancel the scheduled scans
+            log.error("Error while scanning the audit log for changes", e);
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
+    }
+
+    /**
+     * Returns the changes for the given session user in the given id range, filtering the window of the session
+     * repository, or null if the lower bound is older than the window, in which case the caller is expected to fall
+     * back on the change finder.
+     */
+    public List<FileSystemItemChange> getFileSystemChanges(CoreSession session, Set<IdRef> lastActiveRootRefs,
+            SynchronizationRoots activeRoots, Set<String> collectionSyncRootMemberIds, long lowerBound,
+            long upperBound, int limit) throws ClientException, TooManyChangesException {
+        String repositoryName = session.getRepositoryName();
+        ChangeWindow window = windows.get(repositoryName);
+        if (window == null) {
+            // Start from the current upper bound: older lower bounds are
+            // served by the change finder
+            ChangeWindow newWindow = new ChangeWindow(repositoryName, upperBound);
+            window = windows.putIfAbsent(repositoryName, newWindow);
+            if (window == null) {
+                window = newWindow;
+            }
+        }
+        List<LogEntry> entries = window.getEntries(lowerBound, upperBound);
+        if (entries == null) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Lower bound %d is older than the change window of repository %s,"
+                        + " falling back on the change finder.", lowerBound, repositoryName));
+            }
+            return null;
+        }
+        return new WindowChangeFinder(changeFinder, entries).getFileSystemChangesIntegerBounds(session,
+                lastActiveRootRefs, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound, limit);
+    }
+
+    /**
+     * Change entries of a repository in the (lowerBound, upperBound] id range, sorted by id.
+     * <p>
+     * The entries are published as an immutable {@link WindowState}, so that the requests covered by the current state
+     * are served without locking, only the requests advancing the window waiting for the audit query of the one
+     * running it.
+     */
+    protected class ChangeWindow {
+
+        protected final String repositoryName;
+
+        protected final Object advanceLock = new Object();
+
+        protected volatile WindowState state;
+
+        protected ChangeWindow(String repositoryName, long lowerBound) {
+            this.repositoryName = repositoryName;
+            state = new WindowState(lowerBound, lowerBound, new LogEntry[0]);
+        }
+
+        protected void advance(long targetUpperBound) {
+            synchronized (advanceLock) {
+                WindowState current = state;
+                long upperBound = current.upperBound;
+                if (upperBound >= targetUpperBound) {
+                    // Advanced by another thread meanwhile
+                    return;
+                }
+                long lowerBound = current.lowerBound;
+                List<LogEntry> entries = new ArrayList<LogEntry>(Arrays.asList(current.entries));
+                while (upperBound < targetUpperBound) {
+                    List<LogEntry> batch = changeFinder.scanAuditEntries(repositoryName, upperBound,
+                            targetUpperBound, SCAN_BATCH_SIZE);
+                    entries.addAll(batch);
+                    if (batch.size() < SCAN_BATCH_SIZE) {
+                        upperBound = targetUpperBound;
+                    } else {
+                        upperBound = batch.get(batch.size() - 1).getId();
+                    }
+                    // Evict the oldest entries beyond the window size
+                    int evicted = entries.size() - windowSize;
+                    if (evicted > 0) {
+                        lowerBound = entries.get(evicted - 1).getId();
+                        entries.subList(0, evicted).clear();
+                    }
+                }
+                state = new WindowState(lowerBound, upperBound, entries.toArray(new LogEntry[entries.size()]));
+            }
+        }
+
+        /**
+         * Returns the entries in the given range, or null if the window doesn't cover it.
+         */
+        protected List<LogEntry> getEntries(long from, long to) {
+            WindowState current = state;
+            if (from < current.lowerBound) {
+                // Not worth advancing the window
+                return null;
+            }
+            if (current.upperBound < to) {
+                advance(to);
+                current = state;
+                if (from < current.lowerBound) {
+                    return null;
+                }
+            }
+            return current.getEntries(from, to);
+        }
+    }
+
+    /**
+     * Immutable state of a {@link ChangeWindow}.
+     */
+    protected static class WindowState {
+
+        protected final long lowerBound;
+
+        protected final long upperBound;
+
+        protected final LogEntry[] entries;
+
+        protected WindowState(long lowerBound, long upperBound, LogEntry[] entries) {
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.entries = entries;
+        }
+
+        /**
+         * Returns a read-only view of the entries in the (from, to] id range.
+         */
+        protected List<LogEntry> getEntries(long from, long to) {
+            int start = indexAfter(from);
+            int end = indexAfter(to);
+            return Collections.unmodifiableList(Arrays.asList(entries).subList(start, Math.max(start, end)));
+        }
+
+        /**
+         * Returns the index of the first entry with an id greater than the given one, by binary search.
+         */
+        protected int indexAfter(long id) {
+            int low = 0;
+            int high = entries.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (entries[mid].getId() <= id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Change finder querying a snapshot of a window instead of the audit log, with the same parameters as the shared
+     * change finder.
+     */
+    protected static class WindowChangeFinder extends AuditChangeFinder {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final AuditChangeFinder changeFinder;
+
+        protected final List<LogEntry> entries;
+
+        protected WindowChangeFinder(AuditChangeFinder changeFinder, List<LogEntry> entries) {
+            this.changeFinder = changeFinder;
+            this.entries = entries;
+            parameters.putAll(changeFinder.parameters);
+        }
+
+        @Override
+        protected List<LogEntry> queryAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+                Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds,
+                int limit) {
+            List<LogEntry> matchingEntries = getMatchingEntries(session, activeRoots, collectionSyncRootMemberIds,
+                    lowerBound, upperBound);
+            // Same ordering as the audit query
+            Collections.sort(matchingEntries, new Comparator<LogEntry>() {
+                @Override
+                public int compare(LogEntry e1, LogEntry e2) {
+                    return e2.getEventDate().compareTo(e1.getEventDate());
+                }
+            });
+            if (matchingEntries.size() > limit) {
+                return matchingEntries.subList(0, limit);
+            }
+            return matchingEntries;
+        }
+
+        @Override
+        protected List<LogEntry> queryPageAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+                Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, int limit) {
+            // The window entries are already sorted by id, the scanned ones
+            // being the equivalent of the unfiltered audit entries
+            List<LogEntry> rangeEntries = new ArrayList<LogEntry>();
+            for (LogEntry entry : entries) {
+                if (entry.getId() > lowerBound && entry.getId() <= upperBound) {
+                    rangeEntries.add(entry);
+                    if (rangeEntries.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+            return rangeEntries;
+        }
+
+        protected List<LogEntry> getMatchingEntries(CoreSession session, SynchronizationRoots activeRoots,
+                Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound) {
+            String principalName = session.getPrincipal().getName();
+            List<LogEntry> matchingEntries = new ArrayList<LogEntry>();
+            for (LogEntry entry : entries) {
+                if (entry.getId() > lowerBound && entry.getId() <= upperBound
+                        && changeFinder.isChangeMatching(entry, activeRoots, collectionSyncRootMemberIds,
+                                principalName)) {
+                    matchingEntries.add(entry);
+                }
+            }
+            return matchingEntries;
+        }
+    }
+
+}
@@ -0,0 +1,410 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service.impl;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.drive.service.SynchronizationRoots;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Refresh-ahead cache of the synchronization roots of each user.
+ * <p>
+ * Once older than the refresh interval, an entry is recomputed in the background while the current value keeps being
+ * served, so that the users don't pay the synchronization root query on their next poll. The entries are only evicted
+ * when not read for a while, the root (un)registrations invalidating the entries of the impacted user.
+ * <p>
+ * A reverse index from the synchronization root ids and paths to the user names allows to only invalidate or refresh
+ * the entries of the users having a root impacted by a deletion or a security update, see
+ * {@link #getImpactedUserNames(String, String, String)}. The index is reconciled with the current entry of a user
+ * each time this entry is loaded, replaced or removed, see {@link #reindex(String)}. It may transiently hold stale
+ * user names, checked against the cached roots on lookup.
+ *
+ * @since 7.3
+ */
+public class SynchronizationRootsCache {
+
+    private static final Log log = LogFactory.getLog(SynchronizationRootsCache.class);
+
+    /**
+     * Computes the synchronization roots of a user.
+     */
+    public interface Loader {
+
+        Map<String, SynchronizationRoots> load(Principal principal) throws ClientException;
+    }
+
+    protected final Loader loader;
+
+    protected final long refreshInterval;
+
+    protected final Ticker ticker;
+
+    protected final Cache<String, CachedRoots> cache;
+
+    /**
+     * User names by synchronization root id, prefixed by the repository name.
+     */
+    protected final ConcurrentMap<String, Set<String>> userNamesByRootId = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * User names by synchronization root path, prefixed by the repository name, sorted to look up the roots under a
+     * given path.
+     */
+    protected final ConcurrentNavigableMap<String, Set<String>> userNamesByRootPath = new ConcurrentSkipListMap<>();
+
+    /**
+     * Entries currently reflected in the index by user name, only modified while holding the {@link #indexLock}.
+     */
+    protected final Map<String, CachedRoots> indexedRoots = new HashMap<String, CachedRoots>();
+
+    /**
+     * Serializes the index updates, the lookups being lock free.
+     */
+    protected final Object indexLock = new Object();
+
+    protected ExecutorService executor;
+
+    /**
+     * @param refreshInterval the age in milliseconds after which an entry is refreshed in the background
+     * @param expireAfterAccess the time in milliseconds after which an entry that has not been read is evicted
+     */
+    public SynchronizationRootsCache(Loader loader, long refreshInterval, long expireAfterAccess) {
+        this(loader, refreshInterval, expireAfterAccess, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source of the refresh and expiry, typically a fake one in tests
+     */
+    public SynchronizationRootsCache(Loader loader, long refreshInterval, long expireAfterAccess, Ticker ticker) {
+        this.loader = loader;
+        this.refreshInterval = TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+        this.ticker = ticker;
+        cache = CacheBuilder.newBuilder().ticker(ticker).concurrencyLevel(4).maximumSize(10000).recordStats()
+                .expireAfterAccess(expireAfterAccess, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<String, CachedRoots>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, CachedRoots> notification) {
+                        // Also on replacement, the new entry may not hold all
+                        // the roots of the previous one
+                        reindex(notification.getKey());
+                    }
+                }).build();
+    }
+
+    public Map<String, SynchronizationRoots> get(Principal principal) throws ClientException {
+        String userName = principal.getName();
+        CachedRoots cachedRoots = cache.getIfPresent(userName);
+        if (cachedRoots == null) {
+            cachedRoots = new CachedRoots(principal, loader.load(principal));
+            synchronized (indexLock) {
+                cache.put(userName, cachedRoots);
+                reindex(userName);
+            }
+        } else if (cachedRoots.isRefreshDue() && cachedRoots.refreshing.compareAndSet(false, true)) {
+            scheduleRefresh(userName, cachedRoots);
+        }
+        return cachedRoots.roots;
+    }
+
+    /**
+     * Returns the underlying cache for monitoring purpose, its hit and miss counts only accounting for the calls to
+     * {@link #get(Principal)}.
+     *
+     * @since 7.3
+     */
+    public Cache<String, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns a copy of the cached synchronization roots by user name.
+     *
+     * @since 7.3
+     */
+    public Map<String, Map<String, SynchronizationRoots>> getAll() {
+        Map<String, Map<String, SynchronizationRoots>> all = new HashMap<String, Map<String, SynchronizationRoots>>();
+        for (Map.Entry<String, CachedRoots> entry : cache.asMap().entrySet()) {
+            all.put(entry.getKey(), entry.getValue().roots);
+        }
+        return all;
+    }
+
+    public void invalidate(String userName) {
+        cache.invalidate(userName);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Marks the entry of the given user as due for refresh, the current value being served until refreshed.
+     */
+    public void refresh(String userName) {
+        CachedRoots cachedRoots = cache.asMap().get(userName);
+        if (cachedRoots != null) {
+            cachedRoots.loadTime = ticker.read() - refreshInterval;
+        }
+    }
+
+    /**
+     * Returns the cached synchronization roots of the given user in the given repository, or null if not cached.
+     */
+    public SynchronizationRoots getIfPresent(String userName, String repositoryName) {
+        CachedRoots cachedRoots = cache.asMap().get(userName);
+        return cachedRoots != null ? cachedRoots.roots.get(repositoryName) : null;
+    }
+
+    /**
+     * Returns the names of the users having the given document as a synchronization root.
+     */
+    public Set<String> getUserNames(String repositoryName, String rootId) {
+        Set<String> userNames = new HashSet<String>();
+        Set<String> rootIdUserNames = userNamesByRootId.get(getKey(repositoryName, rootId));
+        if (rootIdUserNames != null) {
+            for (String userName : rootIdUserNames) {
+                if (hasRoot(userName, repositoryName, new IdRef(rootId), null)) {
+                    userNames.add(userName);
+                }
+            }
+        }
+        return userNames;
+    }
+
+    /**
+     * Returns the names of the users having a synchronization root being the given document or one of its
+     * descendants.
+     */
+    public Set<String> getImpactedUserNames(String repositoryName, String docId, String docPath) {
+        Set<String> userNames = getUserNames(repositoryName, docId);
+        if (docPath != null) {
+            String key = getKey(repositoryName, docPath);
+            for (Map.Entry<String, Set<String>> entry : userNamesByRootPath.tailMap(key, true).entrySet()) {
+                String rootKey = entry.getKey();
+                if (!rootKey.startsWith(key)) {
+                    break;
+                }
+                if (!rootKey.equals(key) && !rootKey.startsWith(key + "/")) {
+                    continue;
+                }
+                String rootPath = rootKey.substring(repositoryName.length() + 1);
+                for (String userName : entry.getValue()) {
+                    if (hasRoot(userName, repositoryName, null, rootPath)) {
+                        userNames.add(userName);
+                    }
+                }
+            }
+        }
+        return userNames;
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        cache.invalidateAll();
+    }
+
+    /**
+     * Updates the index so that it reflects the current entry of the given user, if any: adds the user for the roots
+     * of this entry and removes it for the roots of the previously indexed entry that this one doesn't hold.
+     * <p>
+     * Being called after each change of the entry and always reconciling with the current one, the index ends up
+     * consistent whatever the order in which the concurrent changes are indexed.
+     */
+    protected void reindex(String userName) {
+        synchronized (indexLock) {
+            // Not recorded in the cache stats
+            CachedRoots cachedRoots = cache.asMap().get(userName);
+            CachedRoots previousRoots = cachedRoots != null ? indexedRoots.put(userName, cachedRoots)
+                    : indexedRoots.remove(userName);
+            if (previousRoots == cachedRoots) {
+                return;
+            }
+            if (cachedRoots != null) {
+                for (SynchronizationRoots roots : cachedRoots.roots.values()) {
+                    for (IdRef ref : roots.getRefs()) {
+                        addUserName(userNamesByRootId, getKey(roots.getRepositoryName(), ref.toString()), userName);
+                    }
+                    for (String path : roots.getPaths()) {
+                        addUserName(userNamesByRootPath, getKey(roots.getRepositoryName(), path), userName);
+                    }
+                }
+            }
+            if (previousRoots != null) {
+                for (SynchronizationRoots roots : previousRoots.roots.values()) {
+                    String repositoryName = roots.getRepositoryName();
+                    for (IdRef ref : roots.getRefs()) {
+                        if (!hasRoot(cachedRoots, repositoryName, ref, null)) {
+                            removeUserName(userNamesByRootId, getKey(repositoryName, ref.toString()), userName);
+                        }
+                    }
+                    for (String path : roots.getPaths()) {
+                        if (!hasRoot(cachedRoots, repositoryName, null, path)) {
+                            removeUserName(userNamesByRootPath, getKey(repositoryName, path), userName);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the current entry of the given user holds the given root, looked up by reference if not null,
+     * otherwise by path.
+     */
+    protected boolean hasRoot(String userName, String repositoryName, IdRef ref, String path) {
+        // Not recorded in the cache stats
+        return hasRoot(cache.asMap().get(userName), repositoryName, ref, path);
+    }
+
+    protected boolean hasRoot(CachedRoots cachedRoots, String repositoryName, IdRef ref, String path) {
+        if (cachedRoots == null) {
+            return false;
+        }
+        SynchronizationRoots roots = cachedRoots.roots.get(repositoryName);
+        if (roots == null) {
+            return false;
+        }
+        return ref != null ? roots.getRefs().contains(ref) : roots.getPaths().contains(path);
+    }
+
+    /**
+     * Only called while holding the {@link #indexLock}, so that a user name set cannot be removed as empty while
+     * another user name is added to it.
+     */
+    protected void addUserName(ConcurrentMap<String, Set<String>> index, String key, String userName) {
+        Set<String> userNames = index.get(key);
+        if (userNames == null) {
+            userNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            index.put(key, userNames);
+        }
+        userNames.add(userName);
+    }
+
+    /**
+     * Only called while holding the {@link #indexLock}, see {@link #addUserName(ConcurrentMap, String, String)}.
+     */
+    protected void removeUserName(ConcurrentMap<String, Set<String>> index, String key, String userName) {
+        Set<String> userNames = index.get(key);
+        if (userNames != null && userNames.remove(userName) && userNames.isEmpty()) {
+            index.remove(key, userNames);
+        }
+    }
+
+    protected String getKey(String repositoryName, String value) {
+        return repositoryName + ":" + value;
+    }
+
+    protected void scheduleRefresh(final String userName, final CachedRoots cachedRoots) {
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    refresh(userName, cachedRoots);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            cachedRoots.refreshing.set(false);
+        }
+    }
+
+    protected void refresh(String userName, CachedRoots cachedRoots) {
+        boolean txStarted = TransactionHelper.startTransaction();
+        try {
+            CachedRoots refreshedRoots = new CachedRoots(cachedRoots.principal, loader.load(cachedRoots.principal));
+            // Don't resurrect an entry invalidated in the meantime
+            synchronized (indexLock) {
+                if (cache.asMap().replace(userName, cachedRoots, refreshedRoots)) {
+                    reindex(userName);
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Refreshed synchronization roots of user " + userName);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error while refreshing synchronization roots of user " + userName, e);
+            cachedRoots.refreshing.set(false);
+        } finally {
+            if (txStarted) {
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
+    }
+
+    protected synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Nuxeo-Drive-SyncRootsRefresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    protected class CachedRoots {
+
+        protected final Principal principal;
+
+        protected final Map<String, SynchronizationRoots> roots;
+
+        protected volatile long loadTime = ticker.read();
+
+        protected final AtomicBoolean refreshing = new AtomicBoolean();
+
+        protected CachedRoots(Principal principal, Map<String, SynchronizationRoots> roots) {
+            this.principal = principal;
+            this.roots = roots;
+        }
+
+        protected boolean isRefreshDue() {
+            return ticker.read() - loadTime >= refreshInterval;
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertTrue;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -42,6 +43,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.drive.service.impl.AuditChangeFinder;
+import org.nuxeo.drive.service.impl.CacheSnapshot;
+import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
 import org.nuxeo.drive.service.impl.RootDefinitionsHelper;
 import org.nuxeo.ecm.collections.api.CollectionManager;
 import org.nuxeo.ecm.core.api.ClientException;
@@ -588,6 +591,93 @@ public abstract class AbstractChangeFinderTestCase {
         assertEquals(Boolean.TRUE, changeSummary.getHasTooManyChanges());
     }
 
+    @Test
+    public void testPaginatedChangeSummary() throws Exception {
+        Principal admin = new NuxeoPrincipalImpl("Administrator");
+        Set<String> expectedDocIds = new HashSet<String>();
+        try {
+            nuxeoDriveManager.registerSynchronizationRoot(admin, folder1, session);
+            for (int i = 0; i < 3; i++) {
+                DocumentModel doc = session.createDocumentModel("/folder1", "doc" + i, "File");
+                doc.setPropertyValue("file:content", new StringBlob("The content of file " + i + "."));
+                doc = session.createDocument(doc);
+                expectedDocIds.add(doc.getId());
+            }
+        } finally {
+            commitAndWaitForAsyncCompletion();
+        }
+
+        // Each page can only hold a single change
+        Framework.getProperties().put(NuxeoDriveManagerImpl.CHANGE_PAGINATION_ENABLED_PROPERTY, "true");
+        Framework.getProperties().put(NuxeoDriveManagerImpl.DOCUMENT_CHANGE_LIMIT_PROPERTY, "2");
+        try {
+            Set<String> docIds = new HashSet<String>();
+            FileSystemChangeSummary changeSummary;
+            int pageCount = 0;
+            do {
+                long lowerBound = lastEventLogId;
+                changeSummary = getChangeSummary(admin);
+                assertEquals(Boolean.FALSE, changeSummary.getHasTooManyChanges());
+                assertTrue(changeSummary.getFileSystemChanges().size() <= 1);
+                assertTrue(changeSummary.getUpperBound() > lowerBound);
+                for (FileSystemItemChange change : changeSummary.getFileSystemChanges()) {
+                    docIds.add(change.getDocUuid());
+                }
+                pageCount++;
+            } while (changeSummary.getHasMoreChanges() && pageCount < 20);
+            assertFalse(changeSummary.getHasMoreChanges());
+            assertTrue(pageCount > 3);
+            assertTrue(docIds.containsAll(expectedDocIds));
+        } finally {
+            Framework.getProperties().remove(NuxeoDriveManagerImpl.CHANGE_PAGINATION_ENABLED_PROPERTY);
+            Framework.getProperties().remove(NuxeoDriveManagerImpl.DOCUMENT_CHANGE_LIMIT_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testPaginatedChangeSummaryWithFilteredPage() throws Exception {
+        Principal admin = new NuxeoPrincipalImpl("Administrator");
+        Principal otherUser = new NuxeoPrincipalImpl("some-other-user");
+        DocumentModel doc;
+        try {
+            nuxeoDriveManager.registerSynchronizationRoot(admin, folder1, session);
+            // Root registrations only impacting another user, filtered out
+            // of the change summary of the current user
+            nuxeoDriveManager.registerSynchronizationRoot(otherUser, folder2, session);
+            nuxeoDriveManager.registerSynchronizationRoot(otherUser, folder3, session);
+            doc = session.createDocumentModel("/folder1", "doc", "File");
+            doc.setPropertyValue("file:content", new StringBlob("The content of file."));
+            doc = session.createDocument(doc);
+        } finally {
+            commitAndWaitForAsyncCompletion();
+        }
+
+        // Each page can only hold a single change: the cursor must still
+        // move forward on the pages holding a change of the other user only
+        Framework.getProperties().put(NuxeoDriveManagerImpl.CHANGE_PAGINATION_ENABLED_PROPERTY, "true");
+        Framework.getProperties().put(NuxeoDriveManagerImpl.DOCUMENT_CHANGE_LIMIT_PROPERTY, "2");
+        try {
+            Set<String> docIds = new HashSet<String>();
+            FileSystemChangeSummary changeSummary;
+            int pageCount = 0;
+            do {
+                long lowerBound = lastEventLogId;
+                changeSummary = getChangeSummary(admin);
+                assertEquals(Boolean.FALSE, changeSummary.getHasTooManyChanges());
+                assertTrue(changeSummary.getUpperBound() > lowerBound);
+                for (FileSystemItemChange change : changeSummary.getFileSystemChanges()) {
+                    docIds.add(change.getDocUuid());
+                }
+                pageCount++;
+            } while (changeSummary.getHasMoreChanges() && pageCount < 20);
+            assertFalse(changeSummary.getHasMoreChanges());
+            assertTrue(docIds.contains(doc.getId()));
+        } finally {
+            Framework.getProperties().remove(NuxeoDriveManagerImpl.CHANGE_PAGINATION_ENABLED_PROPERTY);
+            Framework.getProperties().remove(NuxeoDriveManagerImpl.DOCUMENT_CHANGE_LIMIT_PROPERTY);
+        }
+    }
+
     @Test
     public void testGetChangeSummaryOnRootDocuments() throws Exception {
         Principal admin = new NuxeoPrincipalImpl("Administrator");
@@ -1010,6 +1100,48 @@ public abstract class AbstractChangeFinderTestCase {
         }
     }
 
+    @Test
+    public void testCacheSnapshotPruning() throws Exception {
+        DocumentModel subFolder1;
+        DocumentModel subFolder2;
+        try {
+            subFolder1 = session.createDocument(session.createDocumentModel("/folder1", "subFolder1", "Folder"));
+            subFolder2 = session.createDocument(session.createDocumentModel("/folder2", "subFolder2", "Folder"));
+        } finally {
+            commitAndWaitForAsyncCompletion();
+        }
+
+        NuxeoDriveManagerImpl driveManager = (NuxeoDriveManagerImpl) nuxeoDriveManager;
+        Map<String, Map<String, SynchronizationRoots>> syncRoots = new HashMap<String, Map<String,
+                SynchronizationRoots>>();
+        for (DocumentModel root : Arrays.asList(subFolder1, subFolder2, folder3)) {
+            syncRoots.put("user-" + root.getName(), Collections.singletonMap(root.getRepositoryName(),
+                    new SynchronizationRoots(root.getRepositoryName(), Collections.singleton(root.getPathAsString()),
+                            Collections.singleton(new IdRef(root.getId())))));
+        }
+        CacheSnapshot snapshot = new CacheSnapshot(driveManager.getChangeFinder().getUpperBound(),
+                System.currentTimeMillis(), syncRoots, Collections.<String, Map<String, Set<String>>> emptyMap());
+        // Nothing logged since the snapshot
+        assertTrue(driveManager.pruneCacheSnapshot(snapshot));
+        assertEquals(3, snapshot.size());
+
+        // Don't apply the deletion to the descendants
+        eventServiceAdmin.setListenerEnabledFlag("bulkLifeCycleChangeListener", false);
+        try {
+            log.trace("Delete the parent of a root then hard delete the parent of another root");
+            folder1.followTransition(LifeCycleConstants.DELETE_TRANSITION);
+            session.removeDocument(folder2.getRef());
+        } finally {
+            commitAndWaitForAsyncCompletion();
+            eventServiceAdmin.setListenerEnabledFlag("bulkLifeCycleChangeListener", true);
+        }
+
+        assertTrue(driveManager.pruneCacheSnapshot(snapshot));
+        assertNull(snapshot.removeSynchronizationRoots("user-subFolder1"));
+        assertNull(snapshot.removeSynchronizationRoots("user-subFolder2"));
+        assertNotNull(snapshot.removeSynchronizationRoots("user-folder3"));
+    }
+
     /**
      * Gets the document changes for the given user's synchronization roots using the {@link AuditChangeFinder} and
      * updates {@link #lastEventLogId}.
@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.drive.service.impl.AuditChangeFinder;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.persistence.PersistenceProvider.RunVoid;
+import org.nuxeo.ecm.platform.audit.AuditFeature;
+import org.nuxeo.ecm.platform.audit.api.AuditReader;
+import org.nuxeo.ecm.platform.audit.api.LogEntry;
+import org.nuxeo.ecm.platform.audit.service.DefaultAuditBackend;
+import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Test the {@link AuditChangeFinder} filtering the changes on the synchronization root ids.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(AuditFeature.class)
+@Deploy({ "org.nuxeo.ecm.platform.web.common", "org.nuxeo.ecm.platform.userworkspace.types",
+        "org.nuxeo.ecm.platform.userworkspace.core", "org.nuxeo.drive.core",
+        "org.nuxeo.ecm.platform.collections.core",
+        "org.nuxeo.drive.core.test:OSGI-INF/test-nuxeodrive-types-contrib.xml" })
+@LocalDeploy("org.nuxeo.drive.core.test:OSGI-INF/test-nuxeodrive-ancestor-id-change-finder-contrib.xml")
+public class TestAncestorIdAuditChangeFinder {
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected EventService eventService;
+
+    @Inject
+    protected NuxeoDriveManager nuxeoDriveManager;
+
+    protected long lastEventLogId;
+
+    @Before
+    public void init() throws Exception {
+        lastEventLogId = nuxeoDriveManager.getChangeFinder().getUpperBound();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NXAuditEventsService auditService = (NXAuditEventsService) Framework.getRuntime().getComponent(
+                NXAuditEventsService.NAME);
+        ((DefaultAuditBackend) auditService.getBackend()).getOrCreatePersistenceProvider().run(true, new RunVoid() {
+            @Override
+            public void runWith(EntityManager em) throws ClientException {
+                em.createNativeQuery("delete from nxp_logs_mapextinfos").executeUpdate();
+                em.createNativeQuery("delete from nxp_logs_extinfo").executeUpdate();
+                em.createNativeQuery("delete from nxp_logs").executeUpdate();
+            }
+        });
+    }
+
+    @Test
+    public void testFindChangesUnderRenamedRoot() throws Exception {
+        Principal admin = session.getPrincipal();
+        List<FileSystemItemChange> changes;
+
+        DocumentModel folder1 = session.createDocument(session.createDocumentModel("/", "folder1", "Folder"));
+        session.createDocument(session.createDocumentModel("/", "folder2", "Folder"));
+        nuxeoDriveManager.registerSynchronizationRoot(admin, folder1, session);
+        commitAndWaitForAsyncCompletion();
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals("rootRegistered", changes.get(0).getEventId());
+
+        // Rename the root: the changes are still found since the filtering
+        // doesn't rely on the root path
+        session.move(folder1.getRef(), null, "folder1-renamed");
+        commitAndWaitForAsyncCompletion();
+        getChanges(admin);
+        DocumentModel doc1 = session.createDocumentModel("/folder1-renamed", "doc1", "File");
+        doc1.setPropertyValue("file:content", new StringBlob("The content of file 1."));
+        doc1 = session.createDocument(doc1);
+        DocumentModel doc2 = session.createDocumentModel("/folder2", "doc2", "File");
+        doc2.setPropertyValue("file:content", new StringBlob("The content of file 2."));
+        session.createDocument(doc2);
+        commitAndWaitForAsyncCompletion();
+
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals(doc1.getId(), changes.get(0).getDocUuid());
+        assertEquals("documentCreated", changes.get(0).getEventId());
+
+        // The ancestor ids are logged as an extended info of the document
+        // event entry itself
+        List<LogEntry> entries = Framework.getService(AuditReader.class).getLogEntriesFor(doc1.getId());
+        String ancestorIds = null;
+        for (LogEntry entry : entries) {
+            if ("documentCreated".equals(entry.getEventId())) {
+                ancestorIds = entry.getExtendedInfos().get(AuditChangeFinder.ANCESTOR_IDS_EXTENDED_INFO).getValue(
+                        String.class);
+            }
+        }
+        assertNotNull(ancestorIds);
+        assertTrue(ancestorIds.contains("|" + folder1.getId() + "|"));
+    }
+
+    protected List<FileSystemItemChange> getChanges(Principal principal) throws ClientException {
+        FileSystemChangeSummary changeSummary = nuxeoDriveManager.getChangeSummaryIntegerBounds(principal,
+                new HashMap<String, Set<IdRef>>(), lastEventLogId);
+        lastEventLogId = changeSummary.getUpperBound();
+        return changeSummary.getFileSystemChanges();
+    }
+
+    protected void commitAndWaitForAsyncCompletion() throws Exception {
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        eventService.waitForAsyncCompletion();
+    }
+
+}
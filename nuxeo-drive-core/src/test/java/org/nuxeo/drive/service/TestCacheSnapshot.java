@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nuxeo.drive.service.CacheInvalidation.Type;
+import org.nuxeo.drive.service.impl.CacheSnapshot;
+import org.nuxeo.ecm.core.api.IdRef;
+
+/**
+ * Tests the {@link CacheSnapshot}.
+ *
+ * @since 7.3
+ */
+public class TestCacheSnapshot {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        SynchronizationRoots roots = new SynchronizationRoots("test", new LinkedHashSet<String>(Arrays.asList(
+                "/folder1", "/folder2")), new LinkedHashSet<IdRef>(Arrays.asList(new IdRef("folder1Id"), new IdRef(
+                "folder2Id"))));
+        Map<String, Map<String, SynchronizationRoots>> syncRoots = new HashMap<>();
+        syncRoots.put("user1", Collections.singletonMap("test", roots));
+        syncRoots.put("user2", Collections.singletonMap("test", roots));
+        String memberId = UUID.randomUUID().toString();
+        Map<String, Map<String, Set<String>>> memberIds = new HashMap<String, Map<String, Set<String>>>();
+        memberIds.put("user1", Collections.singletonMap("test", Collections.singleton(memberId)));
+
+        File file = new File(folder.getRoot(), "snapshot/cache.snapshot");
+        new CacheSnapshot(42, 1000, syncRoots, memberIds).write(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        CacheSnapshot snapshot = CacheSnapshot.read(file);
+        assertEquals(42, snapshot.getHighWaterMark());
+        assertEquals(1000, snapshot.getTimestamp());
+        assertEquals(2, snapshot.size());
+
+        SynchronizationRoots user1Roots = snapshot.removeSynchronizationRoots("user1").get("test");
+        assertEquals(roots, user1Roots);
+        // Interned
+        assertSame(user1Roots, snapshot.removeSynchronizationRoots("user2").get("test"));
+        // Handed over only once
+        assertNull(snapshot.removeSynchronizationRoots("user1"));
+
+        assertEquals(Collections.singleton(memberId), snapshot.removeCollectionSyncRootMemberIds("user1").get("test"));
+        assertNull(snapshot.removeCollectionSyncRootMemberIds("user2"));
+    }
+
+    @Test
+    public void testApplyInvalidation() {
+        Map<String, Map<String, SynchronizationRoots>> syncRoots = new HashMap<>();
+        syncRoots.put("user1", Collections.singletonMap("test", new SynchronizationRoots("test",
+                Collections.singleton("/a/b"), Collections.singleton(new IdRef("bId")))));
+        syncRoots.put("user2", Collections.singletonMap("test", new SynchronizationRoots("test",
+                Collections.singleton("/a-b"), Collections.singleton(new IdRef("abId")))));
+        syncRoots.put("user3", Collections.singletonMap("test", new SynchronizationRoots("test",
+                Collections.singleton("/c"), Collections.singleton(new IdRef("cId")))));
+        Map<String, Map<String, Set<String>>> memberIds = new HashMap<String, Map<String, Set<String>>>();
+        for (String userName : syncRoots.keySet()) {
+            memberIds.put(userName, Collections.singletonMap("test", Collections.singleton("memberId")));
+        }
+        CacheSnapshot snapshot = new CacheSnapshot(42, 1000, syncRoots, memberIds);
+
+        // Deletion of an ancestor of a root, not of a sibling path
+        assertTrue(snapshot.applyInvalidation(new CacheInvalidation("node", Type.DOCUMENT_DELETION, null, "test",
+                "aId", "/a")));
+        assertNull(snapshot.removeSynchronizationRoots("user1"));
+        assertNull(snapshot.removeCollectionSyncRootMemberIds("user1"));
+        assertEquals(2, snapshot.size());
+
+        // Collection membership change of a root
+        assertTrue(snapshot.applyInvalidation(new CacheInvalidation("node", Type.COLLECTION_MEMBERSHIP, null, "test",
+                "abId", null)));
+        assertNull(snapshot.removeCollectionSyncRootMemberIds("user2"));
+        assertEquals(2, snapshot.size());
+
+        // Security update of a root looked up by id, other repository
+        assertTrue(snapshot.applyInvalidation(new CacheInvalidation("node", Type.SECURITY_UPDATE, null, "other",
+                "cId", "/c")));
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.applyInvalidation(new CacheInvalidation("node", Type.SECURITY_UPDATE, null, "test",
+                "cId", "/moved")));
+        assertEquals(1, snapshot.size());
+
+        // Invalidation of all the synchronization roots
+        assertFalse(snapshot.applyInvalidation(new CacheInvalidation("node", Type.SYNCHRONIZATION_ROOTS, null, null,
+                null, null)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadInvalidFile() throws IOException {
+        File file = folder.newFile("invalid.snapshot");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("not a snapshot".getBytes());
+        }
+        CacheSnapshot.read(file);
+    }
+
+}
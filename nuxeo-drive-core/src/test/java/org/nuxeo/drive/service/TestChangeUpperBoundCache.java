@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.nuxeo.drive.service.impl.ChangeUpperBoundCache;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.IdRef;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tests the {@link ChangeUpperBoundCache}.
+ *
+ * @since 7.3
+ */
+public class TestChangeUpperBoundCache {
+
+    @Test
+    public void testCachedUpperBound() throws Exception {
+        DummyChangeFinder changeFinder = new DummyChangeFinder();
+        FakeTicker ticker = new FakeTicker();
+        ChangeUpperBoundCache cache = new ChangeUpperBoundCache(changeFinder, 200, ticker);
+
+        changeFinder.upperBound = 10;
+        assertEquals(10, cache.getUpperBound());
+        changeFinder.upperBound = 20;
+        assertEquals(10, cache.getUpperBound());
+        assertEquals(1, changeFinder.queryCount);
+
+        // Not expired yet
+        ticker.advance(199);
+        assertEquals(10, cache.getUpperBound());
+        assertEquals(1, changeFinder.queryCount);
+
+        // Expired
+        ticker.advance(1);
+        assertEquals(20, cache.getUpperBound());
+        assertEquals(2, changeFinder.queryCount);
+
+        // Never decreases
+        changeFinder.upperBound = 15;
+        ticker.advance(200);
+        assertEquals(20, cache.getUpperBound());
+
+        // Invalidated
+        cache.invalidate();
+        assertEquals(15, cache.getUpperBound());
+        assertEquals(4, changeFinder.queryCount);
+    }
+
+    /**
+     * Ticker only moving forward when told to.
+     */
+    protected static class FakeTicker extends Ticker {
+
+        protected final AtomicLong nanos = new AtomicLong();
+
+        protected void advance(long millis) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
+    protected static class DummyChangeFinder implements FileSystemChangeFinder {
+
+        private static final long serialVersionUID = 1L;
+
+        protected long upperBound;
+
+        protected int queryCount;
+
+        @Override
+        public void handleParameters(Map<String, String> parameters) {
+        }
+
+        @Override
+        public List<FileSystemItemChange> getFileSystemChanges(CoreSession session, Set<IdRef> lastActiveRootRefs,
+                SynchronizationRoots activeRoots, long lastSuccessfulSyncDate, long syncDate, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<FileSystemItemChange> getFileSystemChangesIntegerBounds(CoreSession session,
+                Set<IdRef> lastActiveRootRefs, SynchronizationRoots activeRoots,
+                Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getCurrentDate() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getUpperBound() {
+            queryCount++;
+            return upperBound;
+        }
+    }
+
+}
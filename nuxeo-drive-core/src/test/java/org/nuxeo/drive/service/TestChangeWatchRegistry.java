@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.drive.service.TestChangeUpperBoundCache.FakeTicker;
+import org.nuxeo.drive.service.impl.ChangeWatchRegistry;
+import org.nuxeo.drive.service.impl.ChangeWatchRegistry.ChangeWatch;
+import org.nuxeo.ecm.core.api.IdRef;
+
+/**
+ * Tests the {@link ChangeWatchRegistry}.
+ *
+ * @since 7.3
+ */
+public class TestChangeWatchRegistry {
+
+    protected final FakeTicker ticker = new FakeTicker();
+
+    protected ChangeWatchRegistry watches;
+
+    protected Map<String, Set<IdRef>> activeRootRefs;
+
+    @Before
+    public void init() {
+        watches = new ChangeWatchRegistry(2, 60000, ticker);
+        activeRootRefs = Collections.singletonMap("test", Collections.singleton(new IdRef("folder1Id")));
+    }
+
+    @Test
+    public void testPublishedWatch() {
+        watches.publish("user1", 10, activeRootRefs, 60000);
+        ChangeWatch watch = watches.getWatch("user1", 10);
+        assertNotNull(watch);
+        assertEquals(activeRootRefs, watch.getActiveRootRefs());
+        assertNull(watches.getWatch("user1", 9));
+        assertNull(watches.getWatch("user2", 10));
+
+        // The audit upper bound hasn't moved
+        assertTrue(watch.isQuiet(10, activeRootRefs));
+        // The audit upper bound has moved, whatever the node that logged
+        // the change
+        assertFalse(watch.isQuiet(11, activeRootRefs));
+        // The request state differs from the published one
+        Map<String, Set<IdRef>> noRootRefs = Collections.emptyMap();
+        assertFalse(watch.isQuiet(10, noRootRefs));
+
+        watches.clear();
+        assertNull(watches.getWatch("user1", 10));
+    }
+
+    @Test
+    public void testExpiredWatch() {
+        watches.publish("user1", 10, activeRootRefs, 1000);
+        ticker.advance(999);
+        assertNotNull(watches.getWatch("user1", 10));
+        ticker.advance(1);
+        assertNull(watches.getWatch("user1", 10));
+        assertEquals(0, watches.size());
+
+        // Capped by the maximum watch timeout
+        watches.publish("user1", 10, activeRootRefs, 120000);
+        ticker.advance(60000);
+        assertNull(watches.getWatch("user1", 10));
+    }
+
+    @Test
+    public void testMaxWatches() {
+        watches.publish("user1", 10, activeRootRefs, 60000);
+        watches.publish("user2", 10, activeRootRefs, 60000);
+        watches.publish("user3", 10, activeRootRefs, 60000);
+        assertEquals(2, watches.size());
+        assertNotNull(watches.getWatch("user3", 10));
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.nuxeo.drive.service.impl.CompactIdSet;
+
+/**
+ * Tests the {@link CompactIdSet}.
+ *
+ * @since 7.3
+ */
+public class TestCompactIdSet {
+
+    @Test
+    public void testContentAndLookups() {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        // Not canonical UUIDs
+        ids.add("customId");
+        ids.add("ABCDEF01-2345-6789-ABCD-EF0123456789");
+        ids.add("00000000-0000-0000-0000-00000000000");
+
+        CompactIdSet compactIds = CompactIdSet.of(ids);
+        assertEquals(ids.size(), compactIds.size());
+        assertEquals(ids, compactIds);
+        assertEquals(ids.hashCode(), compactIds.hashCode());
+        for (String id : ids) {
+            assertTrue(compactIds.contains(id));
+        }
+        assertFalse(compactIds.contains(UUID.randomUUID().toString()));
+        assertFalse(compactIds.contains("abcdef01-2345-6789-abcd-ef0123456789"));
+        assertFalse(compactIds.contains("otherId"));
+        assertFalse(compactIds.contains(null));
+
+        // Duplicates
+        String id = UUID.randomUUID().toString();
+        assertEquals(Collections.singleton(id), CompactIdSet.of(Arrays.asList(id, id)));
+        assertSame(CompactIdSet.EMPTY, CompactIdSet.of(Collections.<String> emptySet()));
+    }
+
+    @Test
+    public void testWithAndWithout() {
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        CompactIdSet compactIds = CompactIdSet.of(Collections.singleton(id1));
+        assertSame(compactIds, compactIds.with(id1));
+        assertSame(compactIds, compactIds.without(id2));
+
+        CompactIdSet updatedIds = compactIds.with(id2).with("customId");
+        assertEquals(new HashSet<String>(Arrays.asList(id1, id2, "customId")), updatedIds);
+        // Immutable
+        assertEquals(Collections.singleton(id1), compactIds);
+
+        updatedIds = updatedIds.without(id1).without("customId");
+        assertEquals(Collections.singleton(id2), updatedIds);
+    }
+
+    @Test
+    public void testWithChanges() {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        ids.add("customId1");
+        ids.add("customId2");
+        CompactIdSet compactIds = CompactIdSet.of(ids);
+        assertSame(compactIds,
+                compactIds.withChanges(Collections.<String> emptySet(), Collections.<String> emptySet()));
+        assertSame(compactIds, compactIds.withChanges(ids, Collections.singleton("unknownId")));
+
+        Set<String> addedIds = new HashSet<String>();
+        for (int i = 0; i < 10; i++) {
+            addedIds.add(UUID.randomUUID().toString());
+        }
+        addedIds.add("customId0");
+        addedIds.add("customId3");
+        Set<String> removedIds = new HashSet<String>();
+        removedIds.add(ids.iterator().next());
+        removedIds.add("customId2");
+        Set<String> expectedIds = new HashSet<String>(ids);
+        expectedIds.addAll(addedIds);
+        expectedIds.removeAll(removedIds);
+        CompactIdSet updatedIds = compactIds.withChanges(addedIds, removedIds);
+        assertEquals(expectedIds, updatedIds);
+        assertEquals(CompactIdSet.of(expectedIds), updatedIds);
+        // Immutable
+        assertEquals(ids, compactIds);
+
+        assertSame(CompactIdSet.EMPTY, updatedIds.withChanges(Collections.<String> emptySet(), updatedIds));
+    }
+
+    @Test
+    public void testIntern() {
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        CompactIdSet compactIds1 = CompactIdSet.of(Arrays.asList(id1, id2)).intern();
+        CompactIdSet compactIds2 = CompactIdSet.of(Arrays.asList(id2, id1));
+        assertNotSame(compactIds1, compactIds2);
+        assertSame(compactIds1, compactIds2.intern());
+        assertNotSame(compactIds1, CompactIdSet.of(Collections.singleton(id1)).intern());
+    }
+
+}
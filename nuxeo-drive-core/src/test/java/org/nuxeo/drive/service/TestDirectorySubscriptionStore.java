@@ -0,0 +1,159 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.drive.service.impl.DirectorySubscriptionStore;
+import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.TransactionalFeature;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Tests the {@link DirectorySubscriptionStore}.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ TransactionalFeature.class, PlatformFeature.class })
+@RepositoryConfig(init = DefaultRepositoryInit.class)
+@Deploy({ "org.nuxeo.ecm.platform.userworkspace.types", "org.nuxeo.ecm.platform.userworkspace.api",
+        "org.nuxeo.ecm.platform.userworkspace.core", "org.nuxeo.drive.core", "org.nuxeo.ecm.platform.collections.core",
+        "org.nuxeo.ecm.platform.web.common" })
+@LocalDeploy("org.nuxeo.drive.core:OSGI-INF/nuxeodrive-subscription-directory-contrib.xml")
+public class TestDirectorySubscriptionStore {
+
+    @Inject
+    CoreSession session;
+
+    protected DirectorySubscriptionStore store;
+
+    protected DocumentModel folder1;
+
+    protected DocumentModel folder2;
+
+    @Before
+    public void createFolders() throws Exception {
+        store = new DirectorySubscriptionStore();
+        folder1 = session.createDocument(session.createDocumentModel("/default-domain/workspaces", "folder1",
+                "Folder"));
+        folder2 = session.createDocument(session.createDocumentModel("/default-domain/workspaces", "folder2",
+                "Folder"));
+        session.save();
+    }
+
+    @Test
+    public void testSubscriptions() throws Exception {
+        assertNull(store.getSynchronizationRootsQuery(session, "user1"));
+        assertFalse(store.isSubscribed(folder1, null));
+
+        folder1 = store.setSubscription(session, folder1, "user1", true);
+        store.setSubscription(session, folder1, "user2", true);
+        folder2 = store.setSubscription(session, folder2, "user1", true);
+        session.save();
+
+        assertTrue(folder1.hasFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET));
+        assertTrue(store.isSubscribed(folder1, "user1"));
+        assertTrue(store.isSubscribed(folder1, "user2"));
+        assertTrue(store.isSubscribed(folder2, null));
+        assertFalse(store.isSubscribed(folder2, "user2"));
+        assertEquals(new HashSet<String>(Arrays.asList("user1", "user2")), store.getSubscribedUserNames(session,
+                Arrays.asList(folder1.getId(), folder2.getId())));
+        assertEquals(Collections.singleton("user1"), store.getSubscribedUserNames(session,
+                Collections.singleton(folder2.getId())));
+        DocumentModelList roots = session.query(store.getSynchronizationRootsQuery(session, "user1"));
+        assertEquals(2, roots.size());
+
+        store.setSubscription(session, folder1, "user1", false);
+        session.save();
+        assertFalse(store.isSubscribed(folder1, "user1"));
+        assertTrue(store.isSubscribed(folder1, null));
+        roots = session.query(store.getSynchronizationRootsQuery(session, "user1"));
+        assertEquals(1, roots.size());
+        assertEquals(folder2.getId(), roots.get(0).getId());
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        folder1.addFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET);
+        folder1.setPropertyValue(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY, (Serializable) Arrays.asList(
+                subscription("user1", true), subscription("user2", false)));
+        folder1 = session.saveDocument(folder1);
+        session.save();
+
+        assertEquals(1, store.migrate(session));
+        assertTrue(store.isSubscribed(folder1, "user1"));
+        assertFalse(store.isSubscribed(folder1, "user2"));
+        // Existing entries are kept
+        assertEquals(0, store.migrate(session));
+    }
+
+    @Test
+    public void testActivate() throws Exception {
+        folder1.addFacet(NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET);
+        folder1.setPropertyValue(NuxeoDriveManagerImpl.DRIVE_SUBSCRIPTIONS_PROPERTY,
+                (Serializable) Arrays.asList(subscription("user1", true)));
+        folder1 = session.saveDocument(folder1);
+        session.save();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        store.activate();
+        assertTrue(store.isSubscribed(folder1, "user1"));
+
+        // The migration only runs once: a subscription disabled since then
+        // is not restored from the facet
+        store.setSubscription(session, folder1, "user1", false);
+        new DirectorySubscriptionStore().activate();
+        assertFalse(store.isSubscribed(folder1, "user1"));
+    }
+
+    protected Map<String, Object> subscription(String userName, boolean enabled) {
+        Map<String, Object> subscription = new HashMap<String, Object>();
+        subscription.put("username", userName);
+        subscription.put("enabled", enabled);
+        subscription.put("lastChangeDate", Calendar.getInstance(NuxeoDriveManagerImpl.UTC));
+        return subscription;
+    }
+
+}
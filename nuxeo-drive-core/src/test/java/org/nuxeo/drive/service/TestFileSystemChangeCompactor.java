@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.drive.adapter.FileSystemItem;
+import org.nuxeo.drive.adapter.FolderItem;
+import org.nuxeo.drive.adapter.impl.AbstractFileSystemItem;
+import org.nuxeo.drive.service.impl.FileSystemChangeCompactor;
+import org.nuxeo.drive.service.impl.FileSystemItemChangeImpl;
+
+/**
+ * Tests the {@link FileSystemChangeCompactor}.
+ *
+ * @since 7.3
+ */
+public class TestFileSystemChangeCompactor {
+
+    protected FileSystemChangeCompactor compactor;
+
+    protected List<FileSystemItemChange> changes;
+
+    protected long eventDate;
+
+    @Before
+    public void init() {
+        compactor = new FileSystemChangeCompactor();
+        changes = new ArrayList<FileSystemItemChange>();
+        eventDate = 100;
+    }
+
+    @Test
+    public void testCompactCreationAndModifications() {
+        // Changes are sorted by descending event date
+        addChange("documentModified", "doc1");
+        addChange("documentModified", "doc2");
+        addChange("documentModified", "doc1");
+        addChange("documentCreated", "doc1");
+
+        List<FileSystemItemChange> compactedChanges = compactor.compact(changes);
+        assertEquals(2, compactedChanges.size());
+        assertChange(compactedChanges.get(0), "documentModified", "doc2", 99);
+        assertChange(compactedChanges.get(1), "documentCreated", "doc1", 97);
+        // The creation holds the most recent state of the item
+        assertSame(changes.get(0).getFileSystemItem(), compactedChanges.get(1).getFileSystemItem());
+    }
+
+    @Test
+    public void testKeepCreationOrderOfParentAndChild() {
+        // The parent is modified after the creation of its child
+        addChange("documentModified", "parent");
+        addChange("documentCreated", "child");
+        addChange("documentCreated", "parent");
+
+        List<FileSystemItemChange> compactedChanges = compactor.compact(changes);
+        assertEquals(2, compactedChanges.size());
+        // Sorted by descending event date, the parent creation comes last so
+        // that the client creates it first
+        assertChange(compactedChanges.get(0), "documentCreated", "child", 99);
+        assertChange(compactedChanges.get(1), "documentCreated", "parent", 98);
+        assertSame(changes.get(0).getFileSystemItem(), compactedChanges.get(1).getFileSystemItem());
+    }
+
+    @Test
+    public void testDontCompactAcrossOtherChanges() {
+        addChange("documentModified", "doc1");
+        addChange("documentMoved", "doc1");
+        addChange("documentModified", "doc1");
+        addChange("documentCreated", "doc1");
+        changes.add(new FileSystemItemChangeImpl("deleted", eventDate--, "test", "doc2", "defaultFileSystemItem#doc2",
+                "doc2"));
+        addChange("documentModified", "doc2");
+
+        List<FileSystemItemChange> compactedChanges = compactor.compact(changes);
+        assertEquals(5, compactedChanges.size());
+        assertChange(compactedChanges.get(0), "documentModified", "doc1", 100);
+        assertChange(compactedChanges.get(1), "documentMoved", "doc1", 99);
+        assertChange(compactedChanges.get(2), "documentCreated", "doc1", 97);
+        assertChange(compactedChanges.get(3), "deleted", "doc2", 96);
+        assertChange(compactedChanges.get(4), "documentModified", "doc2", 95);
+    }
+
+    protected void addChange(String eventId, String docId) {
+        changes.add(new FileSystemItemChangeImpl(eventId, eventDate--, "test", docId, new DummyItem(
+                "defaultFileSystemItem#" + docId, docId)));
+    }
+
+    protected void assertChange(FileSystemItemChange change, String eventId, String docId, long eventDate) {
+        assertEquals(eventId, change.getEventId());
+        assertEquals(docId, change.getDocUuid());
+        assertEquals(Long.valueOf(eventDate), change.getEventDate());
+    }
+
+    protected static class DummyItem extends AbstractFileSystemItem {
+
+        private static final long serialVersionUID = 1L;
+
+        protected DummyItem(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public void rename(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean canMove(FolderItem dest) {
+            return false;
+        }
+
+        @Override
+        public FileSystemItem move(FolderItem dest) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
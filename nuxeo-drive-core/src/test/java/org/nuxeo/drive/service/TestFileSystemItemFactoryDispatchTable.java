@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.nuxeo.drive.service.impl.FileSystemItemFactoryDispatchTable;
+import org.nuxeo.drive.service.impl.FileSystemItemFactoryDispatchTable.Candidate;
+import org.nuxeo.drive.service.impl.FileSystemItemFactoryWrapper;
+import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
+
+/**
+ * Tests the {@link FileSystemItemFactoryDispatchTable}.
+ *
+ * @since 7.3
+ */
+public class TestFileSystemItemFactoryDispatchTable {
+
+    protected final FileSystemItemFactoryWrapper syncRootFactory = new FileSystemItemFactoryWrapper(null,
+            NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET, null);
+
+    protected final FileSystemItemFactoryWrapper noteFactory = new FileSystemItemFactoryWrapper("Note", null, null);
+
+    protected final FileSystemItemFactoryWrapper folderishFactory = new FileSystemItemFactoryWrapper(null, "Folderish",
+            null);
+
+    protected final FileSystemItemFactoryWrapper defaultFactory = new FileSystemItemFactoryWrapper(null, null, null);
+
+    protected final FileSystemItemFactoryDispatchTable table = new FileSystemItemFactoryDispatchTable(Arrays.asList(
+            syncRootFactory, noteFactory, folderishFactory, defaultFactory));
+
+    @Test
+    public void testCandidates() {
+        // General factory only
+        List<Candidate> candidates = table.getCandidates("File", Collections.singleton("Downloadable"));
+        assertEquals(1, candidates.size());
+        assertSame(defaultFactory, candidates.get(0).getFactory());
+
+        // DocType factory first
+        candidates = table.getCandidates("Note", Collections.<String> emptySet());
+        assertEquals(2, candidates.size());
+        assertSame(noteFactory, candidates.get(0).getFactory());
+        assertSame(defaultFactory, candidates.get(1).getFactory());
+
+        // Facet factories in order, the synchronization root one being
+        // flagged
+        candidates = table.getCandidates("Folder", new HashSet<String>(Arrays.asList("Folderish",
+                NuxeoDriveManagerImpl.NUXEO_DRIVE_FACET)));
+        assertEquals(3, candidates.size());
+        assertSame(syncRootFactory, candidates.get(0).getFactory());
+        assertTrue(candidates.get(0).isSyncRootOnly());
+        assertSame(folderishFactory, candidates.get(1).getFactory());
+        assertFalse(candidates.get(1).isSyncRootOnly());
+        assertSame(defaultFactory, candidates.get(2).getFactory());
+        assertFalse(candidates.get(2).isSyncRootOnly());
+    }
+
+    @Test
+    public void testMemoization() {
+        List<Candidate> candidates = table.getCandidates("Folder", new HashSet<String>(Arrays.asList("Folderish",
+                "Collection")));
+        // Same facet set in another order
+        assertSame(candidates, table.getCandidates("Folder", new HashSet<String>(Arrays.asList("Collection",
+                "Folderish"))));
+    }
+
+}
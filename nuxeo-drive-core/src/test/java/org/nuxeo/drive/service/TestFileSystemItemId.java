@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.nuxeo.drive.adapter.impl.FileSystemItemId;
+
+/**
+ * Tests the {@link FileSystemItemId} parsing.
+ *
+ * @since 7.3
+ */
+public class TestFileSystemItemId {
+
+    @Test
+    public void testParse() {
+        FileSystemItemId id = FileSystemItemId.parse("defaultFileSystemItemFactory#test#someId");
+        assertNotNull(id);
+        assertEquals("defaultFileSystemItemFactory", id.getFactoryName());
+        assertEquals("test", id.getRepositoryName());
+        assertEquals("someId", id.getDocId());
+        assertTrue(id.hasFactoryName("defaultFileSystemItemFactory"));
+        assertFalse(id.hasFactoryName("defaultFileSystemItem"));
+        assertFalse(id.hasFactoryName("defaultSyncRootFolderItemFactory"));
+    }
+
+    @Test
+    public void testSplitCompatibility() {
+        String[] ids = { "factory#repo#docId", "factory##docId", "#repo#docId", "factory#repo#docId#",
+                "factory#repo#", "factory#repo", "factory#repo#docId#other", "nonParsableId", "##", "" };
+        for (String id : ids) {
+            String[] fragments = id.split("#");
+            FileSystemItemId parsedId = FileSystemItemId.parse(id);
+            if (fragments.length == 3) {
+                assertNotNull(id, parsedId);
+                assertArrayEquals(id, fragments, parsedId.toArray());
+            } else {
+                assertNull(id, parsedId);
+            }
+        }
+    }
+
+    @Test
+    public void testGetFactoryName() {
+        assertEquals("factory", FileSystemItemId.getFactoryName("factory#repo#docId"));
+        assertEquals("org.nuxeo.drive.service.impl.DefaultTopLevelFolderItemFactory",
+                FileSystemItemId.getFactoryName("org.nuxeo.drive.service.impl.DefaultTopLevelFolderItemFactory#"));
+        assertEquals("nonParsableId", FileSystemItemId.getFactoryName("nonParsableId"));
+    }
+
+}
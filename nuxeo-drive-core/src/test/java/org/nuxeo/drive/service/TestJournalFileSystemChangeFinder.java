@@ -0,0 +1,280 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.drive.service.impl.JournalChangeFinder;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.LifeCycleConstants;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.persistence.PersistenceProvider.RunVoid;
+import org.nuxeo.ecm.core.test.RepositorySettings;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.directory.api.DirectoryService;
+import org.nuxeo.ecm.platform.audit.AuditFeature;
+import org.nuxeo.ecm.platform.audit.service.DefaultAuditBackend;
+import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Test the {@link JournalChangeFinder}.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(AuditFeature.class)
+@Deploy({ "org.nuxeo.ecm.platform.web.common", "org.nuxeo.ecm.platform.userworkspace.types",
+        "org.nuxeo.ecm.platform.userworkspace.core", "org.nuxeo.drive.core",
+        "org.nuxeo.ecm.platform.collections.core",
+        "org.nuxeo.drive.core.test:OSGI-INF/test-nuxeodrive-types-contrib.xml" })
+@LocalDeploy({ "org.nuxeo.drive.core:OSGI-INF/nuxeodrive-journal-persistence-contrib.xml",
+        "org.nuxeo.drive.core.test:OSGI-INF/test-nuxeodrive-journal-change-finder-contrib.xml" })
+public class TestJournalFileSystemChangeFinder {
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected RepositorySettings repository;
+
+    @Inject
+    protected DirectoryService directoryService;
+
+    @Inject
+    protected EventService eventService;
+
+    @Inject
+    protected NuxeoDriveManager nuxeoDriveManager;
+
+    protected long lastEventLogId;
+
+    protected DocumentModel folder1;
+
+    protected DocumentModel folder2;
+
+    protected DocumentModel folder3;
+
+    protected CoreSession user1Session;
+
+    @Before
+    public void init() throws Exception {
+        assertTrue(nuxeoDriveManager.getChangeFinder() instanceof JournalChangeFinder);
+        lastEventLogId = nuxeoDriveManager.getChangeFinder().getUpperBound();
+
+        Session userDir = directoryService.getDirectory("userDirectory").getSession();
+        try {
+            Map<String, Object> user1 = new HashMap<String, Object>();
+            user1.put("username", "user1");
+            user1.put("groups", Arrays.asList(new String[] { "members" }));
+            userDir.createEntry(user1);
+        } finally {
+            userDir.close();
+        }
+        user1Session = repository.openSessionAs("user1");
+
+        folder1 = session.createDocument(session.createDocumentModel("/", "folder1", "Folder"));
+        folder2 = session.createDocument(session.createDocumentModel("/", "folder2", "Folder"));
+        folder3 = session.createDocument(session.createDocumentModel("/", "folder3", "Folder"));
+        ACP acp = session.getACP(folder2.getRef());
+        acp.getOrCreateACL(ACL.LOCAL_ACL).add(new ACE("user1", SecurityConstants.READ_WRITE));
+        session.setACP(folder2.getRef(), acp, true);
+        commitAndWaitForAsyncCompletion();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (user1Session != null) {
+            user1Session.close();
+        }
+        Session usersDir = directoryService.getDirectory("userDirectory").getSession();
+        try {
+            usersDir.deleteEntry("user1");
+        } finally {
+            usersDir.close();
+        }
+        NXAuditEventsService auditService = (NXAuditEventsService) Framework.getRuntime().getComponent(
+                NXAuditEventsService.NAME);
+        ((DefaultAuditBackend) auditService.getBackend()).getOrCreatePersistenceProvider().run(true, new RunVoid() {
+            @Override
+            public void runWith(EntityManager em) throws ClientException {
+                em.createNativeQuery("delete from nxp_logs_mapextinfos").executeUpdate();
+                em.createNativeQuery("delete from nxp_logs_extinfo").executeUpdate();
+                em.createNativeQuery("delete from nxp_logs").executeUpdate();
+            }
+        });
+        JournalChangeFinder changeFinder = (JournalChangeFinder) nuxeoDriveManager.getChangeFinder();
+        changeFinder.getOrCreatePersistenceProvider().run(true, new RunVoid() {
+            @Override
+            public void runWith(EntityManager em) throws ClientException {
+                em.createQuery("delete from DriveJournalEntry").executeUpdate();
+            }
+        });
+    }
+
+    @Test
+    public void testJournalIsPerUser() throws Exception {
+        Principal admin = session.getPrincipal();
+        Principal user1 = user1Session.getPrincipal();
+        DocumentModel doc1;
+        DocumentModel doc2;
+        List<FileSystemItemChange> changes;
+
+        // Root registrations
+        nuxeoDriveManager.registerSynchronizationRoot(admin, folder1, session);
+        nuxeoDriveManager.registerSynchronizationRoot(user1, folder2, session);
+        commitAndWaitForAsyncCompletion();
+        long initialEventLogId = lastEventLogId;
+
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals(folder1.getId(), changes.get(0).getDocUuid());
+        assertEquals("rootRegistered", changes.get(0).getEventId());
+        lastEventLogId = initialEventLogId;
+        changes = getChanges(user1);
+        assertEquals(1, changes.size());
+        assertEquals(folder2.getId(), changes.get(0).getDocUuid());
+        assertEquals("rootRegistered", changes.get(0).getEventId());
+
+        // Create 3 documents, one in each folder
+        doc1 = session.createDocumentModel("/folder1", "doc1", "File");
+        doc1.setPropertyValue("file:content", new StringBlob("The content of file 1."));
+        doc1 = session.createDocument(doc1);
+        doc2 = session.createDocumentModel("/folder2", "doc2", "File");
+        doc2.setPropertyValue("file:content", new StringBlob("The content of file 2."));
+        doc2 = session.createDocument(doc2);
+        DocumentModel doc3 = session.createDocumentModel("/folder3", "doc3", "File");
+        doc3.setPropertyValue("file:content", new StringBlob("The content of file 3."));
+        session.createDocument(doc3);
+        commitAndWaitForAsyncCompletion();
+        initialEventLogId = lastEventLogId;
+
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals(doc1.getId(), changes.get(0).getDocUuid());
+        assertEquals("documentCreated", changes.get(0).getEventId());
+        assertNotNull(changes.get(0).getFileSystemItem());
+        lastEventLogId = initialEventLogId;
+        changes = getChanges(user1);
+        assertEquals(1, changes.size());
+        assertEquals(doc2.getId(), changes.get(0).getDocUuid());
+        assertEquals("documentCreated", changes.get(0).getEventId());
+        assertNotNull(changes.get(0).getFileSystemItem());
+    }
+
+    @Test
+    public void testDeletionAndUnregistration() throws Exception {
+        Principal admin = session.getPrincipal();
+        List<FileSystemItemChange> changes;
+
+        nuxeoDriveManager.registerSynchronizationRoot(admin, folder1, session);
+        DocumentModel doc1 = session.createDocumentModel("/folder1", "doc1", "File");
+        doc1.setPropertyValue("file:content", new StringBlob("The content of file 1."));
+        doc1 = session.createDocument(doc1);
+        commitAndWaitForAsyncCompletion();
+        changes = getChanges(admin);
+        assertEquals(2, changes.size());
+
+        // Delete doc1, the "deleted" virtual event is added to the journal
+        session.followTransition(doc1.getRef(), LifeCycleConstants.DELETE_TRANSITION);
+        commitAndWaitForAsyncCompletion();
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals(doc1.getId(), changes.get(0).getDocUuid());
+        assertEquals("deleted", changes.get(0).getEventId());
+
+        // Unregister folder1, the "deleted" virtual event is added to the
+        // journal of the impacted user only
+        nuxeoDriveManager.unregisterSynchronizationRoot(admin, folder1, session);
+        commitAndWaitForAsyncCompletion();
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals(folder1.getId(), changes.get(0).getDocUuid());
+        assertEquals("deleted", changes.get(0).getEventId());
+        assertTrue(getChanges(user1Session.getPrincipal()).isEmpty());
+    }
+
+    @Test
+    public void testJournalFilteredOnActiveRoots() throws Exception {
+        Principal admin = session.getPrincipal();
+        List<FileSystemItemChange> changes;
+
+        nuxeoDriveManager.registerSynchronizationRoot(admin, folder1, session);
+        commitAndWaitForAsyncCompletion();
+        getChanges(admin);
+        long initialEventLogId = lastEventLogId;
+
+        // The creation of doc1 is journaled while folder1 is a root
+        DocumentModel doc1 = session.createDocumentModel("/folder1", "doc1", "File");
+        doc1.setPropertyValue("file:content", new StringBlob("The content of file 1."));
+        session.createDocument(doc1);
+        commitAndWaitForAsyncCompletion();
+        nuxeoDriveManager.unregisterSynchronizationRoot(admin, folder1, session);
+        commitAndWaitForAsyncCompletion();
+
+        // Once folder1 is unregistered, only its deletion is returned
+        lastEventLogId = initialEventLogId;
+        changes = getChanges(admin);
+        assertEquals(1, changes.size());
+        assertEquals(folder1.getId(), changes.get(0).getDocUuid());
+        assertEquals("deleted", changes.get(0).getEventId());
+    }
+
+    protected List<FileSystemItemChange> getChanges(Principal principal) throws ClientException {
+        FileSystemChangeSummary changeSummary = nuxeoDriveManager.getChangeSummaryIntegerBounds(principal,
+                new HashMap<String, Set<IdRef>>(), lastEventLogId);
+        assertNotNull(changeSummary);
+        lastEventLogId = changeSummary.getUpperBound();
+        return changeSummary.getFileSystemChanges();
+    }
+
+    protected void commitAndWaitForAsyncCompletion() throws Exception {
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        eventService.waitForAsyncCompletion();
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.drive.service.CacheInvalidation.Type;
+import org.nuxeo.drive.service.impl.LocalCacheInvalidationBus;
+
+/**
+ * Tests the {@link LocalCacheInvalidationBus}.
+ *
+ * @since 7.3
+ */
+public class TestLocalCacheInvalidationBus {
+
+    protected CacheInvalidationBus bus1;
+
+    protected CacheInvalidationBus bus2;
+
+    protected RecordingSubscriber node1;
+
+    protected RecordingSubscriber node2;
+
+    @Before
+    public void init() {
+        // Each node gets its own bus instance, all of them sharing the subscribers of the JVM
+        bus1 = new LocalCacheInvalidationBus();
+        bus2 = new LocalCacheInvalidationBus();
+        node1 = new RecordingSubscriber("node1");
+        node2 = new RecordingSubscriber("node2");
+        bus1.subscribe(node1);
+        bus2.subscribe(node2);
+    }
+
+    @After
+    public void cleanUp() {
+        bus1.unsubscribe(node1);
+        bus2.unsubscribe(node2);
+    }
+
+    @Test
+    public void testPublish() {
+        CacheInvalidation invalidation = new CacheInvalidation("node1", Type.SYNCHRONIZATION_ROOTS, "user1", null,
+                null, null);
+        bus1.publish(invalidation);
+        assertEquals(0, node1.received.size());
+        assertEquals(1, node2.received.size());
+        assertSame(invalidation, node2.received.get(0));
+
+        bus2.unsubscribe(node2);
+        bus1.publish(new CacheInvalidation("node1", Type.DOCUMENT_DELETION, null, "test", "docId", "/folder1"));
+        assertEquals(1, node2.received.size());
+    }
+
+    @Test
+    public void testFailingSubscriber() {
+        CacheInvalidationBus.Subscriber failingSubscriber = new CacheInvalidationBus.Subscriber() {
+            @Override
+            public void handleInvalidation(CacheInvalidation invalidation) {
+                throw new IllegalStateException("Test failure");
+            }
+        };
+        bus1.subscribe(failingSubscriber);
+        try {
+            bus1.publish(new CacheInvalidation("node1", Type.COLLECTION_SYNC_ROOT_MEMBERS, null, null, null, null));
+            // The other subscribers still receive the invalidation
+            assertEquals(1, node2.received.size());
+        } finally {
+            bus1.unsubscribe(failingSubscriber);
+        }
+    }
+
+    protected static class RecordingSubscriber implements CacheInvalidationBus.Subscriber {
+
+        protected final String nodeId;
+
+        protected final List<CacheInvalidation> received = new ArrayList<CacheInvalidation>();
+
+        protected RecordingSubscriber(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public void handleInvalidation(CacheInvalidation invalidation) {
+            if (!nodeId.equals(invalidation.getOrigin())) {
+                received.add(invalidation);
+            }
+        }
+    }
+
+}
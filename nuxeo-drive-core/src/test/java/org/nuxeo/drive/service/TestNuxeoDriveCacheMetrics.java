@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.drive.service.impl.NuxeoDriveCacheMetrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Tests the {@link NuxeoDriveCacheMetrics}.
+ *
+ * @since 7.3
+ */
+public class TestNuxeoDriveCacheMetrics {
+
+    protected MetricRegistry registry;
+
+    protected NuxeoDriveCacheMetrics cacheMetrics;
+
+    @Before
+    public void init() {
+        registry = new MetricRegistry();
+        cacheMetrics = new NuxeoDriveCacheMetrics(registry);
+    }
+
+    @Test
+    public void testCacheGauges() {
+        Cache<String, String> cache = CacheBuilder.newBuilder().maximumSize(1).recordStats().build();
+        cacheMetrics.registerCache("testCache", cache);
+        // Registering again replaces the gauges
+        cacheMetrics.registerCache("testCache", cache);
+
+        cache.getIfPresent("key1");
+        cache.put("key1", "value1");
+        cache.getIfPresent("key1");
+        cache.put("key2", "value2");
+
+        assertEquals(1L, getGaugeValue("org.nuxeo.drive.testCache.size"));
+        assertEquals(1L, getGaugeValue("org.nuxeo.drive.testCache.hitCount"));
+        assertEquals(1L, getGaugeValue("org.nuxeo.drive.testCache.missCount"));
+        assertEquals(0.5, getGaugeValue("org.nuxeo.drive.testCache.hitRate"));
+        assertEquals(1L, getGaugeValue("org.nuxeo.drive.testCache.evictionCount"));
+    }
+
+    @Test
+    public void testLoadTimerAndStop() {
+        registry.counter("other.counter");
+        Timer.Context timerContext = cacheMetrics.getLoadTimer("testCache").time();
+        timerContext.stop();
+        assertEquals(1, registry.timer("org.nuxeo.drive.testCache.load").getCount());
+
+        cacheMetrics.stop();
+        assertTrue(registry.getTimers().isEmpty());
+        // Other metrics are kept
+        assertEquals(1, registry.getCounters().size());
+    }
+
+    protected Object getGaugeValue(String name) {
+        Gauge<?> gauge = registry.getGauges().get(name);
+        return gauge.getValue();
+    }
+
+}
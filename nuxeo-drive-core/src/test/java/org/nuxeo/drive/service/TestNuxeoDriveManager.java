@@ -18,11 +18,14 @@ package org.nuxeo.drive.service;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -40,6 +43,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.drive.service.impl.LocalCacheInvalidationBus;
 import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
 import org.nuxeo.ecm.collections.api.CollectionManager;
 import org.nuxeo.ecm.core.api.ClientException;
@@ -67,6 +71,7 @@ import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -546,6 +551,112 @@ public class TestNuxeoDriveManager {
         assertTrue(nuxeoDriveManager.isSynchronizationRoot(session.getPrincipal(), locallyEditedCollection));
     }
 
+    @Test
+    public void testCollectionSyncRootMemberCache() {
+        CollectionManager cm = Framework.getService(CollectionManager.class);
+        DocumentModel collection = cm.createCollection(session, "testCollection", "Test collection",
+                workspace_1.getPathAsString());
+        nuxeoDriveManager.registerSynchronizationRoot(session.getPrincipal(), collection, session);
+        DocumentModel doc = session.createDocument(session.createDocumentModel(workspace_1.getPathAsString(),
+                "testDoc", "File"));
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        Map<String, Set<String>> memberIds = nuxeoDriveManager.getCollectionSyncRootMemberIds(session.getPrincipal());
+        assertTrue(memberIds.get(session.getRepositoryName()).isEmpty());
+
+        log.trace("Add a document to the collection, should be added to the cached member ids after commit");
+        cm.addToCollection(collection, doc, session);
+        assertSame(memberIds, nuxeoDriveManager.getCollectionSyncRootMemberIds(session.getPrincipal()));
+        assertTrue(memberIds.get(session.getRepositoryName()).isEmpty());
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertSame(memberIds, nuxeoDriveManager.getCollectionSyncRootMemberIds(session.getPrincipal()));
+        assertEquals(Collections.singleton(doc.getId()), memberIds.get(session.getRepositoryName()));
+
+        log.trace("Remove the document from the collection in a rolled back transaction, should be kept in the cached"
+                + " member ids");
+        collection = session.getDocument(collection.getRef());
+        doc = session.getDocument(doc.getRef());
+        cm.removeFromCollection(collection, doc, session);
+        TransactionHelper.setTransactionRollbackOnly();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        memberIds = nuxeoDriveManager.getCollectionSyncRootMemberIds(session.getPrincipal());
+        assertEquals(Collections.singleton(doc.getId()), memberIds.get(session.getRepositoryName()));
+
+        log.trace("Remove the document from the collection, should be removed from the cached member ids after commit");
+        collection = session.getDocument(collection.getRef());
+        doc = session.getDocument(doc.getRef());
+        cm.removeFromCollection(collection, doc, session);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertSame(memberIds, nuxeoDriveManager.getCollectionSyncRootMemberIds(session.getPrincipal()));
+        assertTrue(memberIds.get(session.getRepositoryName()).isEmpty());
+    }
+
+    @Test
+    public void testCacheInvalidationPublishedAfterCommit() {
+        final List<CacheInvalidation> published = new ArrayList<CacheInvalidation>();
+        CacheInvalidationBus.Subscriber subscriber = new CacheInvalidationBus.Subscriber() {
+            @Override
+            public void handleInvalidation(CacheInvalidation invalidation) {
+                published.add(invalidation);
+            }
+        };
+        CacheInvalidationBus bus = new LocalCacheInvalidationBus();
+        bus.subscribe(subscriber);
+        try {
+            log.trace("Register a sync root, should only be published after commit");
+            nuxeoDriveManager.registerSynchronizationRoot(user1Session.getPrincipal(), workspace_2, user1Session);
+            assertTrue(nuxeoDriveManager.isSynchronizationRoot(user1Session.getPrincipal(), workspace_2));
+            assertTrue(published.isEmpty());
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+            assertFalse(published.isEmpty());
+            for (CacheInvalidation invalidation : published) {
+                assertEquals("user1", invalidation.getUserName());
+            }
+
+            log.trace("Register a sync root in a rolled back transaction, should not be published nor cached");
+            published.clear();
+            nuxeoDriveManager.registerSynchronizationRoot(user1Session.getPrincipal(), folder_2_1, user1Session);
+            DocumentModel user1Folder = user1Session.getDocument(folder_2_1.getRef());
+            assertTrue(nuxeoDriveManager.isSynchronizationRoot(user1Session.getPrincipal(), user1Folder));
+            TransactionHelper.setTransactionRollbackOnly();
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+            assertTrue(published.isEmpty());
+            assertFalse(nuxeoDriveManager.isSynchronizationRoot(user1Session.getPrincipal(), user1Folder));
+        } finally {
+            bus.unsubscribe(subscriber);
+        }
+    }
+
+    @Test
+    public void testApplyInvalidationFromOtherNode() {
+        NuxeoDriveManagerImpl driveManagerImpl = (NuxeoDriveManagerImpl) nuxeoDriveManager;
+        nuxeoDriveManager.registerSynchronizationRoot(user1Session.getPrincipal(), workspace_2, user1Session);
+        nuxeoDriveManager.registerSynchronizationRoot(user2Session.getPrincipal(), folder_2_1, user2Session);
+        Map<String, SynchronizationRoots> user1Roots = nuxeoDriveManager.getSynchronizationRoots(
+                user1Session.getPrincipal());
+        Map<String, SynchronizationRoots> user2Roots = nuxeoDriveManager.getSynchronizationRoots(
+                user2Session.getPrincipal());
+
+        log.trace("Invalidate the sync roots of user1");
+        driveManagerImpl.handleInvalidation(new CacheInvalidation("otherNode",
+                CacheInvalidation.Type.SYNCHRONIZATION_ROOTS, "user1", null, null, null));
+        assertNotSame(user1Roots, nuxeoDriveManager.getSynchronizationRoots(user1Session.getPrincipal()));
+        assertSame(user2Roots, nuxeoDriveManager.getSynchronizationRoots(user2Session.getPrincipal()));
+
+        log.trace("Delete the sync root of user2, should only invalidate the caches of user2");
+        user1Roots = nuxeoDriveManager.getSynchronizationRoots(user1Session.getPrincipal());
+        driveManagerImpl.handleInvalidation(new CacheInvalidation("otherNode",
+                CacheInvalidation.Type.DOCUMENT_DELETION, null, session.getRepositoryName(), folder_2_1.getId(),
+                folder_2_1.getPathAsString()));
+        assertSame(user1Roots, nuxeoDriveManager.getSynchronizationRoots(user1Session.getPrincipal()));
+        assertNotSame(user2Roots, nuxeoDriveManager.getSynchronizationRoots(user2Session.getPrincipal()));
+    }
+
     @Test
     public void testOtherUsersSyncRootFSItemId() {
         log.trace("Register a workspace as a sync root for user1");
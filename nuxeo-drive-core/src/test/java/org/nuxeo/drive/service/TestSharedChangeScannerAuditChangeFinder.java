@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
+import org.nuxeo.drive.service.impl.SharedChangeScanner;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Runs the {@link TestAuditFileSystemChangeFinder} tests with the {@link SharedChangeScanner} enabled.
+ *
+ * @since 7.3
+ */
+public class TestSharedChangeScannerAuditChangeFinder extends TestAuditFileSystemChangeFinder {
+
+    @Before
+    public void enableChangeScanner() {
+        Framework.getProperties().put(NuxeoDriveManagerImpl.CHANGE_SCANNER_ENABLED_PROPERTY, "true");
+        ((NuxeoDriveManagerImpl) nuxeoDriveManager).initChangeScanner();
+    }
+
+    @After
+    public void disableChangeScanner() {
+        Framework.getProperties().remove(NuxeoDriveManagerImpl.CHANGE_SCANNER_ENABLED_PROPERTY);
+        ((NuxeoDriveManagerImpl) nuxeoDriveManager).initChangeScanner();
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.IdRef;
+
+/**
+ * Tests the interning of {@link SynchronizationRoots}.
+ *
+ * @since 7.3
+ */
+public class TestSynchronizationRoots {
+
+    @Test
+    public void testIntern() {
+        SynchronizationRoots roots1 = newRoots("test", "folder1", "folder2").intern();
+        // Same roots in another order
+        SynchronizationRoots roots2 = newRoots("test", "folder2", "folder1");
+        assertNotSame(roots1, roots2);
+        assertEquals(roots1, roots2);
+        assertEquals(roots1.hashCode(), roots2.hashCode());
+        assertSame(roots1, roots2.intern());
+
+        assertFalse(roots1.equals(newRoots("test", "folder1")));
+        assertFalse(roots1.equals(newRoots("other", "folder1", "folder2")));
+        assertNotSame(roots1, newRoots("other", "folder1", "folder2").intern());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testInternedRootsAreUnmodifiable() {
+        newRoots("test", "folder1").intern().getRefs().add(new IdRef("folder3"));
+    }
+
+    protected SynchronizationRoots newRoots(String repositoryName, String... ids) {
+        Set<String> paths = new LinkedHashSet<String>();
+        Set<IdRef> refs = new LinkedHashSet<IdRef>();
+        for (String id : Arrays.asList(ids)) {
+            paths.add("/" + id);
+            refs.add(new IdRef(id));
+        }
+        return new SynchronizationRoots(repositoryName, paths, refs);
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Antoine Taillefer <ataillefer@nuxeo.com>
+ */
+package org.nuxeo.drive.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.drive.service.impl.SynchronizationRootsCache;
+import org.nuxeo.drive.service.TestChangeUpperBoundCache.FakeTicker;
+import org.nuxeo.ecm.core.api.IdRef;
+
+/**
+ * Tests the {@link SynchronizationRootsCache}.
+ *
+ * @since 7.3
+ */
+public class TestSynchronizationRootsCache {
+
+    protected final AtomicInteger loadCount = new AtomicInteger();
+
+    protected final Principal user1 = new Principal() {
+        @Override
+        public String getName() {
+            return "user1";
+        }
+    };
+
+    /**
+     * Released once per background refresh, after the refreshed value has been put in the cache.
+     */
+    protected final Semaphore refreshes = new Semaphore(0);
+
+    protected final FakeTicker ticker = new FakeTicker();
+
+    protected SynchronizationRootsCache cache;
+
+    @Before
+    public void init() {
+        cache = new SynchronizationRootsCache(new SynchronizationRootsCache.Loader() {
+            @Override
+            public Map<String, SynchronizationRoots> load(Principal principal) {
+                int count = loadCount.incrementAndGet();
+                return Collections.singletonMap("test", new SynchronizationRoots("test",
+                        Collections.singleton("/folder" + count), Collections.singleton(new IdRef("folder" + count))));
+            }
+        }, 200, 60000, ticker) {
+            @Override
+            protected void refresh(String userName, CachedRoots cachedRoots) {
+                super.refresh(userName, cachedRoots);
+                refreshes.release();
+            }
+        };
+    }
+
+    @After
+    public void shutdown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        Map<String, SynchronizationRoots> roots = cache.get(user1);
+        assertEquals(Collections.singleton("/folder1"), roots.get("test").getPaths());
+        assertSame(roots, cache.get(user1));
+        assertEquals(1, loadCount.get());
+
+        // Refresh not due yet
+        ticker.advance(199);
+        assertSame(roots, cache.get(user1));
+        assertEquals(1, loadCount.get());
+
+        // Refresh due: the stale value is served while refreshing
+        ticker.advance(1);
+        assertSame(roots, cache.get(user1));
+        waitForRefresh();
+        assertEquals(2, loadCount.get());
+        assertEquals(Collections.singleton("/folder2"), cache.get(user1).get("test").getPaths());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        cache.get(user1);
+        cache.invalidate("user1");
+        assertEquals(Collections.singleton("/folder2"), cache.get(user1).get("test").getPaths());
+
+        // Marked as due for refresh
+        cache.refresh("user1");
+        cache.get(user1);
+        waitForRefresh();
+        assertEquals(3, loadCount.get());
+        assertEquals(Collections.singleton("/folder3"), cache.get(user1).get("test").getPaths());
+    }
+
+    @Test
+    public void testImpactedUserNames() {
+        SynchronizationRootsCache rootsCache = new SynchronizationRootsCache(new SynchronizationRootsCache.Loader() {
+            @Override
+            public Map<String, SynchronizationRoots> load(Principal principal) {
+                Set<String> paths = new HashSet<String>();
+                Set<IdRef> refs = new HashSet<IdRef>();
+                if ("user1".equals(principal.getName())) {
+                    paths.add("/a/b");
+                    refs.add(new IdRef("bId"));
+                } else {
+                    paths.add("/a-b");
+                    refs.add(new IdRef("abId"));
+                    paths.add("/c");
+                    refs.add(new IdRef("cId"));
+                }
+                return Collections.singletonMap("test", new SynchronizationRoots("test", paths, refs));
+            }
+        }, 60000, 60000);
+        try {
+            rootsCache.get(user1);
+            rootsCache.get(new Principal() {
+                @Override
+                public String getName() {
+                    return "user2";
+                }
+            });
+
+            // Ancestor of a root
+            assertEquals(Collections.singleton("user1"), rootsCache.getImpactedUserNames("test", "aId", "/a"));
+            // Root itself
+            assertEquals(Collections.singleton("user2"), rootsCache.getImpactedUserNames("test", "abId", "/a-b"));
+            // Root looked up by id
+            assertEquals(Collections.singleton("user2"), rootsCache.getImpactedUserNames("test", "cId", "/moved"));
+            // Descendant of a root or other repository
+            assertTrue(rootsCache.getImpactedUserNames("test", "docId", "/a/b/doc").isEmpty());
+            assertTrue(rootsCache.getImpactedUserNames("other", "aId", "/a").isEmpty());
+
+            // Invalidated
+            rootsCache.invalidate("user1");
+            assertTrue(rootsCache.getImpactedUserNames("test", "aId", "/a").isEmpty());
+        } finally {
+            rootsCache.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexFollowsEntryChanges() {
+        IndexInspectingCache rootsCache = new IndexInspectingCache(new SynchronizationRootsCache.Loader() {
+            @Override
+            public Map<String, SynchronizationRoots> load(Principal principal) {
+                int count = loadCount.incrementAndGet();
+                return Collections.singletonMap("test", new SynchronizationRoots("test",
+                        Collections.singleton("/folder" + count), Collections.singleton(new IdRef("folder" + count))));
+            }
+        });
+        try {
+            rootsCache.get(user1);
+            assertEquals(Collections.singleton("test:folder1"), rootsCache.getIndexedRootIds());
+            assertEquals(Collections.singleton("test:/folder1"), rootsCache.getIndexedRootPaths());
+
+            // Replaced entry: the roots it doesn't hold anymore are unindexed
+            rootsCache.refreshNow("user1");
+            assertEquals(Collections.singleton("test:folder2"), rootsCache.getIndexedRootIds());
+            assertEquals(Collections.singleton("test:/folder2"), rootsCache.getIndexedRootPaths());
+            assertEquals(Collections.singleton("user1"), rootsCache.getUserNames("test", "folder2"));
+
+            // Removed entry
+            rootsCache.invalidate("user1");
+            assertTrue(rootsCache.getIndexedRootIds().isEmpty());
+            assertTrue(rootsCache.getIndexedRootPaths().isEmpty());
+        } finally {
+            rootsCache.shutdown();
+        }
+    }
+
+    protected void waitForRefresh() throws InterruptedException {
+        assertTrue("Refresh not run", refreshes.tryAcquire(10, TimeUnit.SECONDS));
+    }
+
+    protected static class IndexInspectingCache extends SynchronizationRootsCache {
+
+        protected IndexInspectingCache(Loader loader) {
+            super(loader, 60000, 60000);
+        }
+
+        protected void refreshNow(String userName) {
+            refresh(userName, cache.asMap().get(userName));
+        }
+
+        protected Set<String> getIndexedRootIds() {
+            return new HashSet<String>(userNamesByRootId.keySet());
+        }
+
+        protected Set<String> getIndexedRootPaths() {
+            return new HashSet<String>(userNamesByRootPath.keySet());
+        }
+    }
+
+}
@@ -53,6 +53,7 @@ import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.VersioningOption;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
 import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
@@ -736,6 +737,53 @@ public class TestDefaultFileSystemItemFactory {
                 adaptableChild.getId(), ordered);
     }
 
+    @Test
+    public void testFolderItemChildrenPermissions() throws Exception {
+        DocumentModel readOnlyChild = session.createDocument(session.createDocumentModel("/syncRoot/aFolder",
+                "readOnlyChild", "Folder"));
+        DocumentModel writableChild = session.createDocument(session.createDocumentModel("/syncRoot/aFolder",
+                "writableChild", "Folder"));
+        DocumentModel rootDoc = session.getRootDocument();
+        setPermission(rootDoc, "joe", SecurityConstants.READ, true);
+        setPermission(writableChild, "joe", SecurityConstants.WRITE, true);
+
+        // Under Oracle, the READ ACL optims are not visible from the joe
+        // session while the transaction has not been committed.
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        try (CoreSession joeSession = repository.openSessionAs("joe")) {
+            nuxeoDriveManager.registerSynchronizationRoot(joeSession.getPrincipal(), syncRootFolder, session);
+            folder = joeSession.getDocument(folder.getRef());
+            FolderItem folderItem = (FolderItem) defaultFileSystemItemFactory.getFileSystemItem(folder);
+            int checkedChildren = 0;
+            // The permissions computed for the whole page of children must
+            // match the ones checked document by document
+            for (FileSystemItem child : folderItem.getChildren()) {
+                String childDocId = child.getId().substring(child.getId().lastIndexOf('#') + 1);
+                DocumentModel childDoc = joeSession.getDocument(new IdRef(childDocId));
+                FileSystemItem expected = defaultFileSystemItemFactory.getFileSystemItem(childDoc);
+                assertEquals(expected.getCanRename(), child.getCanRename());
+                assertEquals(expected.getCanDelete(), child.getCanDelete());
+                if (child.isFolder()) {
+                    assertEquals(((FolderItem) expected).getCanCreateChild(), ((FolderItem) child).getCanCreateChild());
+                }
+                if (childDocId.equals(readOnlyChild.getId())) {
+                    assertFalse(child.getCanRename());
+                    assertFalse(((FolderItem) child).getCanCreateChild());
+                    checkedChildren++;
+                } else if (childDocId.equals(writableChild.getId())) {
+                    assertTrue(child.getCanRename());
+                    assertTrue(((FolderItem) child).getCanCreateChild());
+                    checkedChildren++;
+                }
+            }
+            assertEquals(2, checkedChildren);
+        }
+        resetPermissions(writableChild, "joe");
+        resetPermissions(rootDoc, "joe");
+    }
+
     @Test
     public void testFolderItemChildrenPageProviderOverride() throws Exception {
         nuxeoDriveManager.registerSynchronizationRoot(session.getPrincipal(), syncRootFolder, session);
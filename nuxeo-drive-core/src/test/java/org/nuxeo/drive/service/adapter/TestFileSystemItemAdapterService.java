@@ -19,7 +19,9 @@ package org.nuxeo.drive.service.adapter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -36,6 +38,9 @@ import org.junit.runner.RunWith;
 import org.nuxeo.drive.adapter.FileItem;
 import org.nuxeo.drive.adapter.FileSystemItem;
 import org.nuxeo.drive.adapter.FolderItem;
+import org.nuxeo.drive.adapter.RootlessItemException;
+import org.nuxeo.drive.service.FileSystemItemAdaptation;
+import org.nuxeo.drive.service.FileSystemItemAdaptation.Status;
 import org.nuxeo.drive.service.FileSystemItemAdapterService;
 import org.nuxeo.drive.service.FileSystemItemFactory;
 import org.nuxeo.drive.service.NuxeoDriveManager;
@@ -628,4 +633,61 @@ public class TestFileSystemItemAdapterService {
         Framework.getLocalService(ReloadService.class).reload();
     }
 
+    @Test
+    public void testAncestorFileSystemItemMemoization() throws Exception {
+        // Memoized within the transaction
+        FileSystemItem ancestorItem = fileSystemItemAdapterService.getAncestorFileSystemItem(syncRootFolder, false);
+        assertNotNull(ancestorItem);
+        assertEquals(syncRootItemId, ancestorItem.getId());
+        assertSame(ancestorItem, fileSystemItemAdapterService.getAncestorFileSystemItem(syncRootFolder, false));
+        FileSystemItem fileItem = fileSystemItemAdapterService.getFileSystemItem(file);
+        assertEquals(syncRootItemId, fileItem.getParentId());
+
+        // Cleared when the synchronization roots are invalidated
+        NuxeoDriveManager driveManager = Framework.getLocalService(NuxeoDriveManager.class);
+        driveManager.registerSynchronizationRoot(session.getPrincipal(), syncRootFolder, session);
+        FileSystemItem newAncestorItem = fileSystemItemAdapterService.getAncestorFileSystemItem(syncRootFolder, false);
+        assertNotSame(ancestorItem, newAncestorItem);
+        assertEquals(syncRootItemId, newAncestorItem.getId());
+    }
+
+    @Test
+    public void testAdaptFileSystemItem() throws Exception {
+        // Adapted
+        FileSystemItemAdaptation adaptation = fileSystemItemAdapterService.adaptFileSystemItem(file, false, false);
+        assertEquals(Status.ADAPTED, adaptation.getStatus());
+        assertEquals(syncRootItemId, adaptation.getItem().getParentId());
+        assertNull(adaptation.getReason());
+
+        // Not adaptable: deleted document
+        session.followTransition(file.getRef(), "delete");
+        file = session.getDocument(file.getRef());
+        adaptation = fileSystemItemAdapterService.adaptFileSystemItem(file, false, false);
+        assertEquals(Status.NOT_ADAPTABLE, adaptation.getStatus());
+        assertNull(adaptation.getItem());
+        assertNull(adaptation.getItemOrThrow());
+
+        // Rootless: document outside of any synchronization root
+        DocumentModel rootlessFile = session.createDocumentModel("/", "rootlessFile", "File");
+        rootlessFile = session.createDocument(rootlessFile);
+        adaptation = fileSystemItemAdapterService.adaptFileSystemItem(rootlessFile, false, false);
+        assertEquals(Status.ROOTLESS, adaptation.getStatus());
+        assertNull(adaptation.getItem());
+        assertTrue(adaptation.getReason().contains(rootlessFile.getPathAsString()));
+        try {
+            adaptation.getItemOrThrow();
+            fail("Getting the item of a rootless adaptation should throw a RootlessItemException");
+        } catch (RootlessItemException e) {
+            assertEquals(adaptation.getReason(), e.getMessage());
+            // Expected by the caller, thus not worth a stack trace
+            assertEquals(0, e.getStackTrace().length);
+        }
+        try {
+            fileSystemItemAdapterService.getFileSystemItem(rootlessFile);
+            fail("Trying to adapt a rootless document as a FileSystemItem should throw a RootlessItemException");
+        } catch (RootlessItemException e) {
+            // expected
+        }
+    }
+
 }
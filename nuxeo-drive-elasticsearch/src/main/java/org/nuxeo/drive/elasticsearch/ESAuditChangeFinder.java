@@ -18,6 +18,8 @@
 package org.nuxeo.drive.elasticsearch;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -39,9 +41,11 @@ import org.elasticsearch.index.query.TermsFilterBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.sort.SortOrder;
+import org.nuxeo.drive.service.NuxeoDriveEvents;
 import org.nuxeo.drive.service.SynchronizationRoots;
 import org.nuxeo.drive.service.impl.AuditChangeFinder;
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.platform.audit.api.ExtendedInfo;
 import org.nuxeo.ecm.platform.audit.api.LogEntry;
 import org.nuxeo.elasticsearch.api.ElasticSearchAdmin;
@@ -72,6 +76,9 @@ import org.nuxeo.runtime.api.Framework;
  * + AND (log.id > :lowerBound and log.id <= :upperBound) + order by
  * log.repositoryId asc, log.eventDate desc
  * </pre>
+ * <p>
+ * The {@link #LEAN_QUERY_MODE} can be enabled with the {@link #QUERY_MODE_PARAMETER} change finder parameter to reduce
+ * the cost of each query on large audit indices.
  *
  * @since 7.3
  */
@@ -81,21 +88,68 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
 
     public static final Log log = LogFactory.getLog(ESAuditChangeFinder.class);
 
+    /**
+     * Change finder parameter used to choose how the audit index is queried, see {@link #LEAN_QUERY_MODE}.
+     *
+     * @since 7.3
+     */
+    public static final String QUERY_MODE_PARAMETER = "queryMode";
+
+    /**
+     * Skips the DFS phase, useless for a pure filter query, only fetches the fields read by the change finder, filters
+     * out the events impacting other users in the query and fetches the changes by pages sorted by id, each page
+     * starting after the last id of the previous one.
+     *
+     * @since 7.3
+     */
+    public static final String LEAN_QUERY_MODE = "lean";
+
+    /**
+     * @since 7.3
+     */
+    protected static final String[] LEAN_FETCHED_FIELDS = { "id", "category", "eventId", "eventDate", "logDate",
+            "docUUID", "docPath", "docLifeCycle", "repositoryId", "extended" };
+
+    /**
+     * @since 7.3
+     */
+    protected static final int LEAN_PAGE_SIZE = 500;
+
     protected Client esClient = null;
 
     protected List<LogEntry> queryESAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
             Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds, int limit) {
+        return queryESAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                integerBounds, limit, false);
+    }
 
-        SearchRequestBuilder builder = getClient().prepareSearch(ESAuditBackend.IDX_NAME).setTypes(
-                ESAuditBackend.IDX_TYPE).setSearchType(SearchType.DFS_QUERY_THEN_FETCH);
+    /**
+     * @param sortById if true, sort the entries by ascending id instead of sorting them by repository and
+     *            descending event date
+     * @since 7.3
+     */
+    protected List<LogEntry> queryESAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds,
+            int limit, boolean sortById) {
+
+        if (isLeanQueryMode()) {
+            return queryLeanESAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound,
+                    limit, sortById);
+        }
+
+        SearchRequestBuilder builder = prepareSearch();
 
         QueryBuilder queryBuilder = QueryBuilders.matchAllQuery();
         FilterBuilder filterBuilder = buildFilterClauses(session, activeRoots, collectionSyncRootMemberIds, lowerBound,
                 upperBound, integerBounds, limit);
         builder.setQuery(QueryBuilders.filteredQuery(queryBuilder, filterBuilder));
 
-        builder.addSort("repositoryId", SortOrder.ASC);
-        builder.addSort("eventDate", SortOrder.DESC);
+        if (sortById) {
+            builder.addSort("id", SortOrder.ASC);
+        } else {
+            builder.addSort("repositoryId", SortOrder.ASC);
+            builder.addSort("eventDate", SortOrder.DESC);
+        }
 
         List<LogEntry> entries = new ArrayList<>();
         SearchResponse searchResponse = builder.setFrom(0).setSize(limit).execute().actionGet();
@@ -109,6 +163,51 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
         return entries;
     }
 
+    /**
+     * Fetches the entries by pages sorted by ascending id, the id range of each page starting after the last id of the
+     * previous one, then sorts them by descending event date unless {@code sortById}.
+     *
+     * @since 7.3
+     */
+    protected List<LogEntry> queryLeanESAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, int limit, boolean sortById) {
+        FilterBuilder impactedUserClause = getImpactedUserClause(session.getPrincipal().getName());
+        List<LogEntry> entries = new ArrayList<>();
+        long pageLowerBound = lowerBound;
+        while (entries.size() < limit) {
+            int pageSize = Math.min(LEAN_PAGE_SIZE, limit - entries.size());
+            SearchRequestBuilder builder = prepareSearch();
+            FilterBuilder filterBuilder = FilterBuilders.andFilter(
+                    buildFilterClauses(session, activeRoots, collectionSyncRootMemberIds, pageLowerBound, upperBound,
+                            true, limit), impactedUserClause);
+            builder.setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder));
+            builder.addSort("id", SortOrder.ASC);
+            SearchHit[] hits = builder.setFrom(0).setSize(pageSize).execute().actionGet().getHits().getHits();
+            for (SearchHit hit : hits) {
+                try {
+                    entries.add(AuditEntryJSONReader.read(hit.getSourceAsString()));
+                } catch (Exception e) {
+                    log.error("Error while reading Audit Entry from ES", e);
+                }
+            }
+            if (hits.length < pageSize) {
+                break;
+            }
+            pageLowerBound = ((Number) hits[hits.length - 1].getSortValues()[0]).longValue();
+        }
+        if (!sortById) {
+            // Entries all belong to the session repository, the sort is
+            // stable
+            Collections.sort(entries, new Comparator<LogEntry>() {
+                @Override
+                public int compare(LogEntry entry1, LogEntry entry2) {
+                    return entry2.getEventDate().compareTo(entry1.getEventDate());
+                }
+            });
+        }
+        return entries;
+    }
+
     protected FilterBuilder buildFilterClauses(CoreSession session, SynchronizationRoots activeRoots,
             Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds, int limit) {
         AndFilterBuilder filterBuilder = FilterBuilders.andFilter();
@@ -141,8 +240,17 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
                     true));
             orEventsFilter.add(getEventsClause("eventLifeCycleCategory", new String[] { "deleted" }, false));
 
-            // ROOT_PATHS log.docPath like :rootPath1
-            if (collectionSyncRootMemberIds != null && collectionSyncRootMemberIds.size() > 0) {
+            if (isAncestorIdRootFiltering()) {
+                // LIST_DOC_EVENTS_IDS_QUERY and (ROOT_IDS in ancestor ids or
+                // COLECTIONS_PATHS)
+                OrFilterBuilder rootsOrCollectionsFilter = FilterBuilders.orFilter();
+                rootsOrCollectionsFilter.add(getAncestorIdRootsClause(activeRoots.getRefs()));
+                if (collectionSyncRootMemberIds != null && collectionSyncRootMemberIds.size() > 0) {
+                    rootsOrCollectionsFilter.add(getCollectionSyncRootClause(collectionSyncRootMemberIds));
+                }
+                orFilterBuilderIfActiveRoots.add(FilterBuilders.andFilter(orEventsFilter, rootsOrCollectionsFilter));
+            } else if (collectionSyncRootMemberIds != null && collectionSyncRootMemberIds.size() > 0) {
+                // ROOT_PATHS log.docPath like :rootPath1
                 OrFilterBuilder rootsOrCollectionsFilter = FilterBuilders.orFilter();
                 rootsOrCollectionsFilter.add(getCurrentRootsClause(activeRoots.getPaths()));
                 rootsOrCollectionsFilter.add(getCollectionSyncRootClause(collectionSyncRootMemberIds));
@@ -167,6 +275,19 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
 
     }
 
+    /**
+     * Matches the entries with no impacted user or impacting the given user. A phrase query is used since the extended
+     * infos are dynamically mapped, thus may be analyzed: the possible false positives are removed by
+     * {@link #postFilterEntries(CoreSession, List)}.
+     *
+     * @since 7.3
+     */
+    protected FilterBuilder getImpactedUserClause(String principalName) {
+        String field = "extended." + NuxeoDriveEvents.IMPACTED_USERNAME_PROPERTY;
+        return FilterBuilders.orFilter(FilterBuilders.missingFilter(field),
+                FilterBuilders.queryFilter(QueryBuilders.matchPhraseQuery(field, principalName)));
+    }
+
     protected RangeFilterBuilder getLogIdBoundsClause(long lowerBound, long upperBound) {
         RangeFilterBuilder rangeFilter = FilterBuilders.rangeFilter("id");
         rangeFilter.gt(lowerBound);
@@ -178,6 +299,24 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
         return FilterBuilders.termsFilter("docUUID", collectionSyncRootMemberIds);
     }
 
+    /**
+     * Matches the entries whose ancestor ids extended info contains one of the given root ids. Both a phrase query and
+     * a wildcard query are used since the extended infos are dynamically mapped, thus may be analyzed or not.
+     *
+     * @since 7.3
+     */
+    protected OrFilterBuilder getAncestorIdRootsClause(Set<IdRef> rootRefs) {
+        String field = "extended." + ANCESTOR_IDS_EXTENDED_INFO;
+        OrFilterBuilder orFilterRoots = FilterBuilders.orFilter();
+        for (IdRef rootRef : rootRefs) {
+            String rootId = rootRef.toString();
+            orFilterRoots.add(FilterBuilders.queryFilter(QueryBuilders.matchPhraseQuery(field, rootId)));
+            orFilterRoots.add(FilterBuilders.queryFilter(QueryBuilders.wildcardQuery(field, "*"
+                    + ANCESTOR_IDS_SEPARATOR + rootId + ANCESTOR_IDS_SEPARATOR + "*")));
+        }
+        return orFilterRoots;
+    }
+
     protected OrFilterBuilder getCurrentRootsClause(Set<String> rootPaths) {
         OrFilterBuilder orFilterRoots = FilterBuilders.orFilter();
         for (String rootPath : rootPaths) {
@@ -216,8 +355,7 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
 
     @Override
     public long getUpperBound() {
-        SearchRequestBuilder builder = getClient().prepareSearch(ESAuditBackend.IDX_NAME).setTypes(
-                ESAuditBackend.IDX_TYPE).setSearchType(SearchType.DFS_QUERY_THEN_FETCH);
+        SearchRequestBuilder builder = prepareSearch();
         // TODO refactor this to use max clause
         builder.setQuery(QueryBuilders.matchAllQuery());
         builder.addSort("id", SortOrder.DESC);
@@ -236,11 +374,54 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
         return entries.size() > 0 ? entries.get(0).getId() : -1;
     }
 
+    @Override
+    public List<LogEntry> scanAuditEntries(String repositoryName, long lowerBound, long upperBound, int limit) {
+        SearchRequestBuilder builder = prepareSearch();
+
+        AndFilterBuilder filterBuilder = FilterBuilders.andFilter();
+        filterBuilder.add(FilterBuilders.termFilter("repositoryId", repositoryName));
+        OrFilterBuilder categoriesFilter = FilterBuilders.orFilter();
+        categoriesFilter.add(getEventsClause("eventDocumentCategory",
+                DOCUMENT_EVENT_IDS.toArray(new String[DOCUMENT_EVENT_IDS.size()]), true));
+        categoriesFilter.add(getEventsClause("eventLifeCycleCategory", new String[] { "lifecycle_transition_event" },
+                true));
+        categoriesFilter.add(FilterBuilders.termFilter("category", "NuxeoDrive"));
+        filterBuilder.add(categoriesFilter);
+        filterBuilder.add(getLogIdBoundsClause(lowerBound, upperBound));
+        builder.setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder));
+        builder.addSort("id", SortOrder.ASC);
+
+        List<LogEntry> entries = new ArrayList<>();
+        SearchResponse searchResponse = builder.setFrom(0).setSize(limit).execute().actionGet();
+        for (SearchHit hit : searchResponse.getHits()) {
+            try {
+                entries.add(AuditEntryJSONReader.read(hit.getSourceAsString()));
+            } catch (Exception e) {
+                log.error("Error while reading Audit Entry from ES", e);
+            }
+        }
+        return entries;
+    }
+
     @Override
     protected List<LogEntry> queryAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
             Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, boolean integerBounds, int limit) {
         List<LogEntry> entries = queryESAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound,
                 upperBound, integerBounds, limit);
+        return postFilterEntries(session, entries);
+    }
+
+    @Override
+    protected List<LogEntry> queryPageAuditEntries(CoreSession session, SynchronizationRoots activeRoots,
+            Set<String> collectionSyncRootMemberIds, long lowerBound, long upperBound, int limit) {
+        return queryESAuditEntries(session, activeRoots, collectionSyncRootMemberIds, lowerBound, upperBound, true,
+                limit, true);
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected List<LogEntry> postFilterEntries(CoreSession session, List<LogEntry> entries) {
         // Post filter the output to remove (un)registration that are unrelated
         // to the current user.
         // TODO move this to the ES query
@@ -264,6 +445,28 @@ public class ESAuditChangeFinder extends AuditChangeFinder {
         return postFilteredEntries;
     }
 
+    /**
+     * @since 7.3
+     */
+    protected SearchRequestBuilder prepareSearch() {
+        SearchRequestBuilder builder = getClient().prepareSearch(ESAuditBackend.IDX_NAME).setTypes(
+                ESAuditBackend.IDX_TYPE);
+        if (isLeanQueryMode()) {
+            builder.setSearchType(SearchType.QUERY_THEN_FETCH);
+            builder.setFetchSource(LEAN_FETCHED_FIELDS, null);
+        } else {
+            builder.setSearchType(SearchType.DFS_QUERY_THEN_FETCH);
+        }
+        return builder;
+    }
+
+    /**
+     * @since 7.3
+     */
+    protected boolean isLeanQueryMode() {
+        return LEAN_QUERY_MODE.equals(parameters.get(QUERY_MODE_PARAMETER));
+    }
+
     protected Client getClient() {
         if (esClient == null) {
             log.info("Activate Elasticsearch backend for Audit");
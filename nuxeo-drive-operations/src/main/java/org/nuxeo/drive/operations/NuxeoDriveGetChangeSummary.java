@@ -58,6 +58,16 @@ public class NuxeoDriveGetChangeSummary {
     @Param(name = "lastSyncActiveRootDefinitions", required = false)
     protected String lastSyncActiveRootDefinitions;
 
+    /**
+     * Time in milliseconds during which, if the summary is empty, the next requests using its upper bound as
+     * {@code lowerBound} may be answered without querying the changes as long as nothing changes, only taken into
+     * account with integer bounds. The request never waits for a change.
+     *
+     * @since 7.3
+     */
+    @Param(name = "watchTimeout", required = false)
+    protected Long watchTimeout = 0L;
+
     @OperationMethod
     public Blob run() throws ClientException, IOException {
         NuxeoDriveManager driveManager = Framework.getLocalService(NuxeoDriveManager.class);
@@ -67,7 +77,7 @@ public class NuxeoDriveGetChangeSummary {
             docChangeSummary = driveManager.getChangeSummary(ctx.getPrincipal(), lastActiveRootRefs, lastSyncDate);
         } else {
             docChangeSummary = driveManager.getChangeSummaryIntegerBounds(ctx.getPrincipal(), lastActiveRootRefs,
-                    lowerBound);
+                    lowerBound, watchTimeout);
         }
         return NuxeoDriveOperationHelper.asJSONBlob(docChangeSummary);
     }
@@ -34,6 +34,7 @@ import org.nuxeo.drive.service.FileSystemChangeSummary;
 import org.nuxeo.drive.service.FileSystemItemChange;
 import org.nuxeo.drive.service.NuxeoDriveManager;
 import org.nuxeo.drive.service.impl.FileSystemChangeSummaryImpl;
+import org.nuxeo.drive.service.impl.NuxeoDriveManagerImpl;
 import org.nuxeo.ecm.automation.client.Session;
 import org.nuxeo.ecm.automation.client.model.Blob;
 import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
@@ -45,6 +46,7 @@ import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
 import org.nuxeo.ecm.core.storage.sql.H2OnlyFeature;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -121,6 +123,23 @@ public class TestGetChangeSummaryMultiRepo {
 
     @Test
     public void testGetDocumentChangesSummary() throws Exception {
+        checkDocumentChangesSummary();
+    }
+
+    @Test
+    public void testGetDocumentChangesSummarySequentially() throws Exception {
+        NuxeoDriveManagerImpl driveManagerImpl = (NuxeoDriveManagerImpl) nuxeoDriveManager;
+        Framework.getProperties().put(NuxeoDriveManagerImpl.CHANGE_SUMMARY_PARALLEL_ENABLED_PROPERTY, "false");
+        driveManagerImpl.initChangeSummaryExecutor();
+        try {
+            checkDocumentChangesSummary();
+        } finally {
+            Framework.getProperties().remove(NuxeoDriveManagerImpl.CHANGE_SUMMARY_PARALLEL_ENABLED_PROPERTY);
+            driveManagerImpl.initChangeSummaryExecutor();
+        }
+    }
+
+    protected void checkDocumentChangesSummary() throws Exception {
 
         // Register 3 sync roots and create 3 documents: 2 in the 'test'
         // repository, 1 in the 'other' repository